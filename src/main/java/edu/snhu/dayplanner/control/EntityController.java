@@ -1,16 +1,24 @@
 package edu.snhu.dayplanner.control;
 
+import edu.snhu.dayplanner.service.CompactTrie;
 import edu.snhu.dayplanner.service.Entity;
 import edu.snhu.dayplanner.service.Service;
 import edu.snhu.dayplanner.ui.EntityView;
 import edu.snhu.dayplanner.ui.EntityViewFactory;
 import edu.snhu.dayplanner.ui.SearchView;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Side;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.VBox;
+import javafx.util.Duration;
 
 import java.util.*;
 
@@ -22,6 +30,17 @@ public abstract class EntityController<T extends Entity<F>, F extends Enum<F>,V
     private final SearchView<F> searchView;
 
     private final Map<T, HashSet<Node>> invalidEntityInputs = new HashMap<>();
+    private boolean isCompleting; // true while a picked completion replaces the search text
+    // cursor following the search text in each field, keyed by null for every field
+    private final Map<F, CompactTrie<T, F>.PrefixCursor> searchCursors = new HashMap<>();
+
+    // edits allowed when no entity starts with the search text, more for longer text
+    private static final int SHORT_QUERY_MAX_EDITS = 1;
+    private static final int LONG_QUERY_MAX_EDITS = 2;
+    private static final int LONG_QUERY_LENGTH = 5;
+    private static final int SEARCH_RESULT_LIMIT = 1000; // prefix results shown, short prefixes stop early
+    private static final int SUGGESTION_LIMIT = 8; // completions listed below the search field as text is typed
+    private static final int FOOTPRINT_INTERVAL_SECONDS = 30; // how often the trie's heap footprint is measured
 
     public EntityController(Service<T, F> service,
                             String CSV_FILE_PATH,
@@ -31,6 +50,12 @@ public abstract class EntityController<T extends Entity<F>, F extends Enum<F>,V
 
         // import entities from specified file path
         service.addFromFile(CSV_FILE_PATH);
+        service.registerMBeans(); // expose index health through JMX
+        // the trie is only walked again once edited, and only on this thread, which is the one editing the service
+        Timeline footprintSampler = new Timeline(new KeyFrame(Duration.seconds(FOOTPRINT_INTERVAL_SECONDS),
+                e -> service.measureFootprint()));
+        footprintSampler.setCycleCount(Animation.INDEFINITE);
+        footprintSampler.play();
 
         // construct a new EntityView using the factory and pass event handlers
         entityView = viewFactory.createView(this::handleRemoveEntity, this::handleEditEntity);
@@ -43,6 +68,17 @@ public abstract class EntityController<T extends Entity<F>, F extends Enum<F>,V
         entityView.getSaveButton().setVisible(false); // invisible by default
 
         searchView.getSearchButton().setOnAction(e -> handleSearch());
+        searchView.getSearchField().textProperty().addListener((observable, oldText, text) -> {
+            CompactTrie<T, F>.PrefixCursor cursor = searchCursor(); // follows the text from the last keystroke
+            if (!isCompleting) {
+                if (isPrefixQuery(text)) { // filter the table as the text is typed
+                    showPrefixResults(cursor);
+                } else if (text.isEmpty()) {
+                    handleSearch();
+                }
+                handleSuggest(text, cursor);
+            }
+        });
     }
 
     /*---Overrideable/Abstract METHODS---*/
@@ -73,18 +109,68 @@ public abstract class EntityController<T extends Entity<F>, F extends Enum<F>,V
     private void handleSearch() {
         TextField  searchField = searchView.getSearchField();
         ComboBox<F> fieldBox = searchView.getFieldBox();
+        boolean isDescending = searchView.getDescendingBox().isSelected();
         List<T> results;
+        String facets = "";
         // get list from search parameters
-        if (searchField.getText().isEmpty()) {
-            results = service.getAll();
+        if (searchField.getText().isEmpty()) { // every entity, in order of the chosen field
+            results = fieldBox.getValue() == null ? service.getAll()
+                    : service.getAllOrderedBy(fieldBox.getValue(), isDescending);
         } else {
-            results = new ArrayList<>(service.entityTrie.searchAllWithPrefix(searchField.getText(), fieldBox.getValue()));
-            System.out.println(service.entityTrie);
-
+            String query = searchField.getText();
+            if (searchView.getContainsBox().isSelected()) { // substrings have no spelling fallback
+                results = new ArrayList<>(service.searchContaining(query, fieldBox.getValue()));
+            } else {
+                if (query.trim().contains(" ")) { // keywords, each matching the start of a word
+                    results = new ArrayList<>(service.searchAllTokens(query, fieldBox.getValue()));
+                } else {
+                    results = searchCursor().page(SEARCH_RESULT_LIMIT, 0, isDescending);
+                    facets = formatFacets(service.facets(query)); // matches in every field, counted from the index
+                }
+                if (results.isEmpty()) { // nothing matches the query, look for similar spellings ("Micheal")
+                    int maxEdits = query.length() < LONG_QUERY_LENGTH ? SHORT_QUERY_MAX_EDITS : LONG_QUERY_MAX_EDITS;
+                    results = new ArrayList<>(service.searchFuzzy(query, maxEdits, fieldBox.getValue()));
+                }
+            }
         }
 
         entityView.getDataTable().updateTable(results);
+        searchView.getFacetLabel().setText(facets);
+
+    }
 
+    /**
+     * Called as the search text changes. Lists the most common completions of the text below the search field, and
+     * searches for a completion once it is picked.
+     * @param text the search text typed so far
+     * @param cursor the search cursor of the chosen field, at text
+     */
+    private void handleSuggest(String text, CompactTrie<T, F>.PrefixCursor cursor) {
+        TextField searchField = searchView.getSearchField();
+        ContextMenu menu = searchView.getSuggestionMenu();
+        F field = searchView.getFieldBox().getValue();
+        List<String> keys = text.isBlank() ? List.of() : service.searchKeysOf(text, field);
+        List<String> suggestions = keys.isEmpty() ? List.of() : cursor.suggest(SUGGESTION_LIMIT);
+        if (keys.containsAll(suggestions)) { // nothing left to complete, or only the text itself
+            menu.hide();
+            return;
+        }
+        menu.getItems().clear();
+        for (String suggestion : suggestions) {
+            MenuItem item = new MenuItem(suggestion);
+            item.setOnAction(e -> {
+                menu.hide();
+                isCompleting = true; // the picked text is not completed again
+                searchField.setText(completeText(text, keys, suggestion));
+                searchField.end();
+                isCompleting = false;
+                handleSearch();
+            });
+            menu.getItems().add(item);
+        }
+        if (!menu.isShowing() && searchField.getScene() != null) {
+            menu.show(searchField, Side.BOTTOM, 0, 0);
+        }
     }
 
     /**
@@ -179,11 +265,42 @@ public abstract class EntityController<T extends Entity<F>, F extends Enum<F>,V
      */
     private void handleSaveEntities() {
         service.writeToFile(CSV_FILE_PATH);
+        service.measureFootprint(); // saved figures are visible through JMX without waiting for the next sample
         handleSearch();
         setHasChanges(false);
     }
 
     /*---UTILITY METHODS---*/
+    /**
+     * Returns the cursor of the chosen search field, moved to the current search text. Only the characters that
+     * changed since the cursor was last moved are walked.
+     * @return the search cursor of the chosen field, or of every field if none is chosen
+     */
+    private CompactTrie<T, F>.PrefixCursor searchCursor() {
+        return searchCursors.computeIfAbsent(searchView.getFieldBox().getValue(), service::cursor)
+                .setQuery(searchView.getSearchField().getText());
+    }
+
+    /**
+     * @param text search text
+     * @return true if text is searched as a prefix by {@code handleSearch}: neither empty, nor keywords, nor a
+     * substring
+     */
+    private boolean isPrefixQuery(String text) {
+        return !text.isEmpty() && !text.trim().contains(" ") && !searchView.getContainsBox().isSelected();
+    }
+
+    /**
+     * Shows the first entities starting with the query of a search cursor, with the number of matches in each field,
+     * without looking for similar spellings while the text is still being typed
+     * @param cursor the search cursor of the chosen field
+     */
+    private void showPrefixResults(CompactTrie<T, F>.PrefixCursor cursor) {
+        boolean isDescending = searchView.getDescendingBox().isSelected();
+        entityView.getDataTable().updateTable(cursor.page(SEARCH_RESULT_LIMIT, 0, isDescending));
+        searchView.getFacetLabel().setText(formatFacets(service.facets(cursor.query())));
+    }
+
     private void setHasChanges(boolean isChanged) {
         boolean hasErrors = !invalidEntityInputs.isEmpty();
         // enable save button if change is made and no input errors exist
@@ -220,6 +337,34 @@ public abstract class EntityController<T extends Entity<F>, F extends Enum<F>,V
         return null;
     }
 
+    /**
+     * Completes typed text with the rest of a suggested key, keeping the case and accents the user typed, so picking
+     * "jose" after "Jos\u00e9 Ma" gives "Jos\u00e9 Maria" rather than the key itself
+     * @param text the search text typed so far
+     * @param keys the keys text is searched with
+     * @param suggestion a suggested key starting with one of keys
+     * @return text followed by the characters of suggestion beyond the typed key, or suggestion if none is its prefix
+     */
+    private String completeText(String text, List<String> keys, String suggestion) {
+        for (String key : keys) {
+            if (suggestion.startsWith(key)) {
+                return text.strip() + suggestion.substring(key.length());
+            }
+        }
+        return suggestion;
+    }
+
+    /**
+     * Formats match counts by field for display beside the search bar, such as "LAST_NAME 120, ADDRESS 4"
+     * @param facets number of matches keyed by field
+     * @return the counts joined in field order, empty if nothing matches
+     */
+    private String formatFacets(Map<F, Integer> facets) {
+        StringJoiner text = new StringJoiner(", ");
+        facets.forEach((field, count) -> text.add(field + " " + count));
+        return text.toString();
+    }
+
     /**
      * Updates the provided {@code Label} to the specified message and visibility
      * @param label exact label being updated
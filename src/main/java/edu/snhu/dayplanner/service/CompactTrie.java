@@ -1,23 +1,86 @@
 package edu.snhu.dayplanner.service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A data structure for efficient information retrieval using the values of each attribute of inserted entities.
  * This trie supports insertion, deletion, and searching of entities using the attribute  values that
  * should be returned by {@code T.getFieldValue(F)} for each supplied field.
+ * <p>
+ * Each field is indexed in its own tree of nodes below its own root, so a search restricted to one field never visits
+ * the keys of another, and each field may convert its attributes to keys with its own {@link KeyNormalizer}. Searches
+ * without a field visit the tree of every field.</p>
+ * <p>
+ * A field indexes its whole attribute as one key by default. A field given a {@link KeyTokenizer} such as
+ * {@link KeyTokenizer#WORDS} instead indexes each token of its attribute as a separate key, so an entity may be found
+ * under several keys of one field. {@link #searchAllTokens(String, Enum)} and {@link #searchAnyToken(String, Enum)}
+ * tokenize a query the same way and combine the prefix matches of each token.</p>
+ * <p>
+ * A trie created in concurrent mode may be searched from any number of threads without locking while writers are
+ * serialized. Writers never change a node readers can reach: each edit copies the nodes on its path from the root,
+ * changes the copies, and publishes the new roots in a single volatile write, so searches see either the whole edit
+ * or none of it. Without concurrent mode, nodes are changed in place and the trie must only be used by one thread at
+ * a time.</p>
+ * <p>
+ * {@link #snapshot()} returns a read-only, point-in-time view of the trie in constant time. Later edits copy only the
+ * nodes on their path from the root instead of changing nodes the snapshot shares.</p>
+ * <p>
+ * Deletes merge a node into its parent only when the parent is left with a single child, so long runs of edits leave
+ * behind nodes without data and with one child, and empty data lists. {@link #fragmentation()} measures them and
+ * {@link #compact()} rebuilds every tree without them; a threshold set with {@link #setCompactionThreshold(int)}
+ * compacts automatically, rebuilding the trees on another thread so edits never wait for a rebuild.</p>
+ * <p>
+ * Exact and prefix lookups accept any {@link CharSequence}, such as the live characters of a text field or a
+ * {@link java.nio.CharBuffer} over a range of a {@code char[]}. A query is converted to a key once per lookup, and the
+ * key is then compared with the partial prefix of each node in place by offset, so walking the trie allocates nothing.
+ * Only a String its normalizer leaves unchanged is converted without allocating; any other sequence is copied to one
+ * String first, so callers keeping lookups free of garbage should pass Strings.</p>
+ * <p>
+ * Nodes hold the entities indexed under a key as a {@link PostingList} of the ordinals assigned by an
+ * {@link EntityOrdinals} table, which may be shared with other indexes of the same entities. Searches combine the
+ * postings of matching keys before turning ordinals back into entities.</p>
  *
  * @param <T> The type of entity stored in this trie
  * @param <F> The enum type defining fields in the entity, used to retrieve attributes.
  */
 public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
     private final List<F> fields;
-    private final CompactTrieNode<T, F> root;
-    private boolean isCaseSensitive;
+    // root of each field's tree by field ordinal, null for fields that are not indexed. The array is replaced rather
+    // than modified by writers, so a search reads the roots of every field from the same edit.
+    private volatile CompactTrieNode[] roots;
+    private final KeyNormalizer[] normalizers; // key normalizer of each field by field ordinal
+    private final KeyTokenizer[] tokenizers;   // key tokenizer of each field by field ordinal
+    // keys each entity is indexed with by field ordinal and then entity ordinal, so deletes and updates never convert
+    // attributes to keys again. Null on snapshots, which are never edited.
+    private final String[][][] indexedKeys;
+    // node each cached key ends at, parallel to indexedKeys, so deletes unlink it without walking from the root. A
+    // node may be null or no longer end its key, and is then found by walking. Null in concurrent mode, whose edits
+    // copy every node on their path, and on snapshots.
+    private final CompactTrieNode[][][] keyNodes;
+    private final EntityOrdinals<T> ordinals;  // ordinals of indexed entities, snapshots read a view of the table
+    private final boolean isCaseSensitive;
+    private final boolean isConcurrent;
+    private final boolean isSnapshot;
+    private final ReentrantLock writeLock = new ReentrantLock(); // serializes writers in concurrent mode
+    private static final int COMPACTION_ATTEMPTS = 3; // background compactions interrupted by edits before giving up
+    private int epoch; // nodes created in this write epoch may be modified in place, older nodes are copied first
+    private volatile int editCount; // edits completed, so cursors know when the nodes on their paths may have changed
+    private int leftoverNodes;       // nodes deletes left without data but with children since the last compaction
+    private int compactionThreshold; // leftover nodes that trigger a compaction, 0 to never compact automatically
+    private CompletableFuture<Boolean> compaction; // the last background compaction started, guarded by this trie
+    // trees rebuilt on another thread outside concurrent mode, published by the next edit, null if none are waiting
+    private volatile CompactedTrees compactedTrees;
+    private TrieListener<F> listener; // null when instrumentation is disabled
+    private volatile MeasuredFootprint<F> measuredFootprint; // last footprint measured, null until measured
 
     /**
      * Initializes an empty trie with a list of fields. By, default objects added to this trie will be indexed with
-     * lowercase values, and searches will use lowercase.
+     * lowercase values without accents or repeated whitespace, and searches will be converted the same way.
      * @param fields list of enum values representing fields that can be indexed and searched.
      *               String values must be returned by {@code T.getFieldValue(F)}
      */
@@ -30,13 +93,69 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
      * @param fields list of enum values representing fields that can be indexed and searched.
      *               String values must be returned by {@code T.getFieldValue(F)}
      * @param isCaseSensitive sets if search results should be case-sensitive, if false, indexes added to this trie
-     *                        are lowercase.
+     *                        are folded with {@link KeyNormalizer#FOLD}.
      */
     public CompactTrie(List<F> fields, boolean isCaseSensitive) {
-        this.root = new CompactTrieNode<>("");
+        this(fields, isCaseSensitive, false);
+    }
+
+    /**
+     * Initializes an empty trie with a list of fields, with a case sensitivity and concurrency mode specified
+     * @param fields list of enum values representing fields that can be indexed and searched.
+     *               String values must be returned by {@code T.getFieldValue(F)}
+     * @param isCaseSensitive sets if search results should be case-sensitive, if false, indexes added to this trie
+     *                        are folded with {@link KeyNormalizer#FOLD}. Sets the key normalizer of every field until
+     *                        changed with {@link #setKeyNormalizer(Enum, KeyNormalizer)}.
+     * @param isConcurrent sets if searches may run on other threads while this trie is edited. Edits copy the nodes
+     *                     on their path instead of changing them in place.
+     */
+    public CompactTrie(List<F> fields, boolean isCaseSensitive, boolean isConcurrent) {
+        this(fields, isCaseSensitive, isConcurrent, new EntityOrdinals<>());
+    }
+
+    /**
+     * Initializes an empty trie with a list of fields, with a case sensitivity and concurrency mode specified, storing
+     * entities by the ordinals of a table that may be shared with other indexes
+     * @param fields list of enum values representing fields that can be indexed and searched.
+     *               String values must be returned by {@code T.getFieldValue(F)}
+     * @param isCaseSensitive sets if search results should be case-sensitive, if false, indexes added to this trie
+     *                        are folded with {@link KeyNormalizer#FOLD}.
+     * @param isConcurrent sets if searches may run on other threads while this trie is edited.
+     * @param ordinals table assigning the ordinals entities are stored by
+     */
+    public CompactTrie(List<F> fields, boolean isCaseSensitive, boolean isConcurrent, EntityOrdinals<T> ordinals) {
+        int slots = fields.stream().mapToInt(Enum::ordinal).max().orElse(-1) + 1;
+        this.roots = new CompactTrieNode[slots];
+        this.normalizers = new KeyNormalizer[slots];
+        this.tokenizers = new KeyTokenizer[slots];
+        this.indexedKeys = new String[slots][][];
+        this.keyNodes = isConcurrent ? null : new CompactTrieNode[slots][][];
+        for (F field : fields) {
+            roots[field.ordinal()] = new CompactTrieNode("");
+            normalizers[field.ordinal()] = isCaseSensitive ? KeyNormalizer.IDENTITY : KeyNormalizer.FOLD;
+            tokenizers[field.ordinal()] = KeyTokenizer.WHOLE_VALUE;
+            indexedKeys[field.ordinal()] = new String[0][];
+            if (keyNodes != null) keyNodes[field.ordinal()] = new CompactTrieNode[0][];
+        }
         this.fields = fields;
+        this.ordinals = ordinals;
         this.isCaseSensitive = isCaseSensitive;
+        this.isConcurrent = isConcurrent;
+        this.isSnapshot = false;
+    }
 
+    // Initializes a read-only view of source sharing the given roots, which must never be modified again
+    private CompactTrie(CompactTrie<T, F> source, CompactTrieNode[] roots) {
+        this.roots = roots;
+        this.normalizers = source.normalizers.clone();
+        this.tokenizers = source.tokenizers.clone();
+        this.indexedKeys = null;
+        this.keyNodes = null;
+        this.fields = source.fields;
+        this.ordinals = source.ordinals.snapshot(); // keeps entities released after the snapshot readable
+        this.isCaseSensitive = source.isCaseSensitive;
+        this.isConcurrent = source.isConcurrent;
+        this.isSnapshot = true;
     }
 
     // PUBLIC METHODS
@@ -45,32 +164,108 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
      * becomes a key used to index the entity for efficient lookup.
      */
     public void insert(T object) {
-        for (F field : fields) {
-            insert(object, field);
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            int ordinal = ordinals.ordinalOf(object);
+            for (F field : fields) {
+                insert(editableRoot(roots, field), ordinal, field, keysOf(field, object.getFieldValue(field)));
+            }
+            publish(roots);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Inserts every supplied object into this trie. The tree of each field that is still empty is built from the
+     * gathered and sorted keys of that field bottom-up in a single pass without splitting any nodes, giving the same
+     * tree as inserting each object with {@link #insert(Entity)}. Fields already holding keys have objects inserted
+     * one at a time.
+     * @param objects the entities to index
+     */
+    public void bulkLoad(Collection<T> objects) {
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            for (F field : fields) {
+                CompactTrieNode root = editableRoot(roots, field);
+                if (root.hasNoChildren()) {
+                    buildFrom(root, objects, field);
+                } else {
+                    for (T object : objects) {
+                        insert(root, ordinals.ordinalOf(object), field, keysOf(field, object.getFieldValue(field)));
+                    }
+                }
+            }
+            publish(roots);
+        } finally {
+            endWrite();
         }
     }
 
+    // gathers the keys of field from every object and builds the children of the field's empty root from them
+    private void buildFrom(CompactTrieNode root, Collection<T> objects, F field) {
+        // gather a (key, ordinal) pair for each attribute, ordered by key
+        List<KeyEntry> entries = new ArrayList<>(objects.size());
+        for (T object : objects) {
+            int ordinal = ordinals.ordinalOf(object);
+            String[] keys = keysOf(field, object.getFieldValue(field));
+            for (String key : keys) { // never empty, the root holds no data
+                entries.add(new KeyEntry(key, ordinal));
+            }
+            cacheKeys(field, ordinal, keys, keyNodes == null ? null : new CompactTrieNode[keys.length]);
+        }
+        entries.sort(Comparator.comparing(KeyEntry::key));
+        buildChildren(root, field, entries, 0, entries.size(), 0, 1);
+    }
+
     /**
      * Update the trie to replace nodes/values of an oldAttribute with entity's new attributes.
      * Whenever an object in this trie changes attribute values, call this method to update any keys in this trie for
-     * the associated field of that attribute.
+     * the associated field of that attribute. Only the tree of that field is changed, and fields that are not indexed
+     * are ignored. Old keys are removed as {@link #delete(Entity)} removes them, so only the new keys are walked to.
      * @param object    The entity being updated (should have already been inserted, then changed)
      * @param field     The field of the entity being updated
      * @param oldValue  The old value of the field before the update (should be in this trie)
      */
     public void update(T object, F field, String oldValue) {
-        delete(root, object, field, oldValue, 0, null);
-        insert(object, field);
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            if (rootOf(roots, field) != null) {
+                CompactTrieNode root = editableRoot(roots, field);
+                int ordinal = ordinals.ordinalOf(object);
+                String[] oldKeys = cachedKeys(field, ordinal);
+                delete(root, ordinal, field, oldKeys != null ? oldKeys : keysOf(field, oldValue));
+                insert(root, ordinal, field, keysOf(field, object.getFieldValue(field)));
+                publish(roots);
+            }
+        } finally {
+            endWrite();
+        }
+        compactIfFragmented();
     }
 
     /**
-     * Removes the entity from the trie for all fields
+     * Removes the entity from the trie for all fields. Outside concurrent mode, each key is removed from the node it was
+     * inserted at through parent links, without walking down from the root, while that node still ends the key.
      * @param object The entity to remove
      */
     public void delete(T object) {
-        for (F field : fields) {
-            delete(root, object, field, object.getFieldValue(field), 0, null);
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            int ordinal = ordinals.find(object);
+            if (ordinal < 0) { // never indexed
+                return;
+            }
+            for (F field : fields) {
+                String[] keys = cachedKeys(field, ordinal);
+                delete(editableRoot(roots, field), ordinal, field,
+                        keys != null ? keys : keysOf(field, object.getFieldValue(field)));
+            }
+            publish(roots);
+        } finally {
+            endWrite();
         }
+        compactIfFragmented();
     }
 
     /**
@@ -79,7 +274,7 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
      * @param arg   The attribute value to search
      * @return      The first matching entity or null if no match
      */
-    public T search(String arg) {
+    public T search(CharSequence arg) {
         return search(arg, null);
     }
 
@@ -90,7 +285,7 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
      * @param field The field to search within
      * @return      The first matching entity with a {@code field} field type, or null if no match
      */
-    public T search(String arg, F field) {
+    public T search(CharSequence arg, F field) {
         Set<T> result = searchAll(arg, field); // gets data from a single matching node
         return result == null ? null : result.stream().findFirst().orElse(null);
     }
@@ -101,64 +296,1027 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
      * @param arg   The attribute value to search for
      * @return      A set of all matching entities or null if no matches
      */
-    public Set<T> searchAll(String arg) {
+    public Set<T> searchAll(CharSequence arg) {
         return searchAll(arg, null);
     }
 
     /**
      * Searches for all entities in the trie with attributes exactly matching arg and associated with field
      * @param arg   The attribute value to search for
-     * @param field The field type that the attribute must be associated with
-     * @return      A set of all matching entities or null if no matches
+     * @param field The field type that the attribute must be associated with, or null for every field
+     * @return      A read-only set of all matching entities or null if no matches
      */
-    public Set<T> searchAll(String arg, F field) {
-        CompactTrieNode<T, F> resultNode = searchNode(arg);
-        return resultNode == null ? null : resultNode.getData(field);
+    public Set<T> searchAll(CharSequence arg, F field) {
+        CompactTrieNode[] roots = this.roots;
+        if (field != null) { // a single field's data is returned without copying
+            CompactTrieNode root = rootOf(roots, field);
+            CompactTrieNode resultNode = root == null ? null : searchNode(root, keyOf(field, arg));
+            return resultNode == null ? null : ordinals.asSet(resultNode.getData());
+        }
+        PostingList result = null;
+        QueryKey key = new QueryKey(arg);
+        for (F searchField : fields) {
+            CompactTrieNode resultNode = searchNode(roots[searchField.ordinal()], key.of(searchField));
+            if (resultNode != null) {
+                result = result == null ? resultNode.getData() : PostingList.or(result, resultNode.getData());
+            }
+        }
+        return result == null ? null : ordinals.asSet(result);
     }
 
     /**
      * Searches for all entities with an attribute of the specified field starting with a given prefix
      * @param prefix    The prefix to search for
      * @param field     The field to search within
-     * @return          A set of entities with attributes of the field type starting with the prefix
+     * @return          A read-only set of entities with attributes of the field type starting with the prefix
      */
-    public Set<T> searchAllWithPrefix(String prefix, F field) {
-        Set<T> result = new HashSet<>();
+    public Set<T> searchAllWithPrefix(CharSequence prefix, F field) {
+        PostingList result = new PostingList();
 
         searchAllWithPrefix(prefix, field, result);
-        return result;
+        return ordinals.asSet(result);
+    }
+
+    /**
+     * Searches for all entities with an attribute starting with a given prefix
+     * @param prefix    The prefix to search for
+     * @return          A read-only set of entities with attributes starting with the prefix
+     */
+    public Set<T> searchAllWithPrefix(CharSequence prefix) {
+        return searchAllWithPrefix(prefix, null);
+    }
+
+    /**
+     * Returns a lazy stream of the entities with an attribute exactly matching arg and associated with field. The
+     * stream reads the matching node's data in place rather than copying it.
+     * @param arg   The attribute value to search for
+     * @param field The field type that the attribute must be associated with, or null for every field
+     * @return      A stream of the distinct matching entities, empty if there are no matches
+     */
+    public Stream<T> streamAll(CharSequence arg, F field) {
+        CompactTrieNode[] roots = this.roots;
+        PostingList matches = null;
+        QueryKey key = new QueryKey(arg);
+        for (F searchField : searchFields(roots, field)) {
+            CompactTrieNode node = searchNode(roots[searchField.ordinal()], key.of(searchField));
+            PostingList data = node == null ? null : node.getData();
+            if (data != null) {
+                matches = matches == null ? data : PostingList.or(matches, data);
+            }
+        }
+        return matches == null ? Stream.empty() : ordinals.asSet(matches).stream();
+    }
+
+    /**
+     * Returns a lazy stream of the entities with an attribute of the specified field starting with a given prefix, in
+     * ascending order of their attributes within each field. Nothing is copied up front; the stream walks the matching
+     * subtrees as it is consumed, and splits them between threads when made {@code parallel()}.
+     * <p>
+     * In concurrent mode, and on snapshots, the stream reads the trie as it was when the stream was created. Otherwise
+     * the trie must not be edited until the stream has been consumed.</p>
+     * @param prefix    The prefix to search for
+     * @param field     The field to search within, or null to search every field
+     * @return          A stream of the distinct entities with attributes starting with the prefix
+     */
+    public Stream<T> streamWithPrefix(CharSequence prefix, F field) {
+        return streamBelow(prefixNodes(prefix, field), field);
+    }
+
+    /**
+     * Returns a lazy stream of the entities with an attribute starting with a given prefix
+     * @param prefix    The prefix to search for
+     * @return          A stream of the distinct entities with attributes starting with the prefix
+     * @see #streamWithPrefix(CharSequence, Enum)
+     */
+    public Stream<T> streamWithPrefix(CharSequence prefix) {
+        return streamWithPrefix(prefix, null);
+    }
+
+    /**
+     * Returns one page of the entities with an attribute of the specified field starting with a given prefix, in
+     * ascending order of their attributes within each field. Traversal stops as soon as the page is full, and when a
+     * field that is not tokenized is given, whole subtrees before the page are skipped using their subtree counts, so a
+     * short prefix costs about as much as the page rather than the whole subtree.
+     * @param prefix    The prefix to search for
+     * @param field     The field to search within, or null to search every field
+     * @param limit     The largest number of entities to return
+     * @param offset    The number of matching entities to skip before the page
+     * @return          A list of at most limit distinct entities with attributes starting with the prefix
+     * @throws IllegalArgumentException if limit or offset is negative
+     */
+    public List<T> searchWithPrefix(CharSequence prefix, F field, int limit, int offset) {
+        return searchWithPrefix(prefix, field, limit, offset, false);
+    }
+
+    /**
+     * Returns one page of the entities with an attribute of the specified field starting with a given prefix, in
+     * ascending or descending order of their attributes within each field, read in that order from the trie without
+     * sorting. Entities with equal attributes are returned in the order they were first indexed either way. Pages are
+     * found as {@link #searchWithPrefix(CharSequence, Enum, int, int)} finds them, so a descending page also skips
+     * whole subtrees after it.
+     * @param prefix       The prefix to search for, or "" for every entity in order
+     * @param field        The field to search within, or null to search every field
+     * @param limit        The largest number of entities to return
+     * @param offset       The number of matching entities to skip before the page
+     * @param isDescending true to return entities from the greatest attribute down, and fields in reverse order
+     * @return             A list of at most limit distinct entities with attributes starting with the prefix
+     * @throws IllegalArgumentException if limit or offset is negative
+     */
+    public List<T> searchWithPrefix(CharSequence prefix, F field, int limit, int offset, boolean isDescending) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("Invalid page, limit " + limit + " and offset " + offset
+                    + " must not be negative.");
+        }
+        return pageBelow(prefixNodes(prefix, field), field, limit, offset, isDescending);
+    }
+
+    /**
+     * Counts the attributes of the specified field starting with a given prefix from the subtree counts kept in each
+     * node, without visiting the matching keys. With a field, this is the number of matching entities; without one, an
+     * entity is counted once for each of its attributes starting with the prefix. A tokenized field may index an
+     * entity under several matching keys, so its matches are collected to count each entity once.
+     * @param prefix    The prefix to count
+     * @param field     The field to count within, or null to count every field
+     * @return          The number of attributes of the field type starting with the prefix
+     */
+    public int countWithPrefix(CharSequence prefix, F field) {
+        if (field != null && isTokenized(field)) {
+            return postingsBelow(prefixNodes(prefix, field)).size();
+        }
+        CompactTrieNode[] roots = this.roots;
+        QueryKey queryKey = new QueryKey(prefix);
+        int count = 0;
+        for (F searchField : searchFields(roots, field)) { // counted as each node is found, without gathering them
+            String key = queryKey.of(searchField);
+            CompactTrieNode node = key.isEmpty() && !prefix.isEmpty() ? null
+                    : prefixNode(roots[searchField.ordinal()], key);
+            if (node != null) {
+                count += node.subtreeCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the attributes of every field starting with a given prefix
+     * @param prefix    The prefix to count
+     * @return          The number of attributes starting with the prefix
+     * @see #countWithPrefix(CharSequence, Enum)
+     */
+    public int countWithPrefix(CharSequence prefix) {
+        return countWithPrefix(prefix, null);
+    }
+
+    /**
+     * Counts the attributes of each field starting with a given prefix, such as 120 last names and 4 addresses starting
+     * with "lee", from the subtree counts of one prefix node per field. Each field is indexed in its own tree, so these
+     * are the per-field counts of {@link #countWithPrefix(CharSequence, Enum)}, read from the same edit of every tree
+     * without visiting the matching keys or entities.
+     * @param prefix    The prefix to count
+     * @return          The number of matching entities by field, in the order fields were given, leaving out fields
+     *                  without matches
+     */
+    public Map<F, Integer> facets(CharSequence prefix) {
+        CompactTrieNode[] roots = this.roots;
+        QueryKey queryKey = new QueryKey(prefix);
+        Map<F, Integer> facets = new LinkedHashMap<>();
+        for (F field : fields) {
+            String key = queryKey.of(field);
+            CompactTrieNode node = key.isEmpty() && !prefix.isEmpty() ? null : prefixNode(roots[field.ordinal()], key);
+            if (node == null) {
+                continue;
+            }
+            int count = isTokenized(field) ? postingsBelow(List.of(node)).size() : node.subtreeCount();
+            if (count > 0) {
+                facets.put(field, count);
+            }
+        }
+        return facets;
+    }
+
+    /**
+     * Returns the distinct keys of the specified field starting with a given prefix that index the most entities, such
+     * as the most common last names starting with "m". Each node keeps the weight of the heaviest key below it, so keys
+     * are found best first and a subtree is only opened once its heaviest key belongs among the top k. The cost depends
+     * on k and the depth of the keys found rather than on the number of matches, and entities are never visited.
+     * @param prefix    The prefix to search for
+     * @param field     The field to search within
+     * @param k         The largest number of keys to return
+     * @return          At most k keys with the number of entities indexed under each, the most common first and keys
+     *                  with equal counts in ascending order. Keys are returned as indexed, after normalizing.
+     * @throws IllegalArgumentException if field is null or k is negative
+     */
+    public List<ValueCount> topValues(CharSequence prefix, F field, int k) {
+        if (field == null || k < 0) {
+            throw new IllegalArgumentException("Invalid top values, field " + field + " must be given and k " + k
+                    + " must not be negative.");
+        }
+        return heaviestKeys(prefix, field, k);
+    }
+
+    /**
+     * Returns the k best completions of a prefix for an autocomplete list: the distinct keys starting with it, ranked
+     * by the number of entities indexed under each. Completions are found as
+     * {@link #topValues(CharSequence, Enum, int)} finds them, so suggesting stays as fast on a large trie as on a small
+     * one. Without a field, the keys of every
+     * field are ranked together and a key found in several fields is suggested once, with its greatest weight.
+     * @param prefix    The prefix to complete
+     * @param field     The field to complete from, or null to complete from every field
+     * @param k         The largest number of completions to return
+     * @return          At most k distinct keys starting with prefix, the heaviest first and keys of equal weight in
+     *                  ascending order. Keys are returned as indexed, after normalizing.
+     * @throws IllegalArgumentException if k is negative
+     */
+    public List<String> suggest(CharSequence prefix, F field, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Invalid number of suggestions " + k + ", must not be negative.");
+        }
+        List<String> suggestions = new ArrayList<>();
+        for (ValueCount value : heaviestKeys(prefix, field, k)) {
+            suggestions.add(value.value());
+        }
+        return suggestions;
+    }
+
+    /**
+     * A distinct key with the number of entities indexed under it, as returned by
+     * {@link #topValues(CharSequence, Enum, int)}
+     * @param value     The key
+     * @param count     The number of entities indexed under the key
+     */
+    public record ValueCount(String value, int count) {}
+
+    /**
+     * Searches for all entities with an attribute of the specified field within maxEdits edits of query, so a search
+     * for "Micheal" with one edit finds "Michael". An edit inserts, deletes, or substitutes a character, or swaps two
+     * adjacent characters. Subtrees are skipped as soon as every key below them needs more than maxEdits edits.
+     * @param query     The attribute value to search for
+     * @param maxEdits  The largest number of edits allowed between query and a matching attribute
+     * @param field     The field to search within, or null to search every field
+     * @return          A read-only set of entities with attributes of the field type within maxEdits of query
+     * @throws IllegalArgumentException if maxEdits is negative
+     */
+    public Set<T> searchFuzzy(CharSequence query, int maxEdits, F field) {
+        if (maxEdits < 0) {
+            throw new IllegalArgumentException("Invalid edit distance, " + maxEdits + ", must not be negative.");
+        }
+        CompactTrieNode[] roots = this.roots;
+        PostingList results = new PostingList();
+        QueryKey queryKey = new QueryKey(query);
+        for (F searchField : searchFields(roots, field)) {
+            String key = queryKey.of(searchField);
+            if (key.isEmpty() && !query.isEmpty()) {
+                continue; // nothing in query is part of this field's keys
+            }
+            FuzzySearch search = new FuzzySearch(key, maxEdits, results);
+            roots[searchField.ordinal()].forEachChild(child -> search.visit(child, 0));
+        }
+        return ordinals.asSet(results);
+    }
+
+    /**
+     * Searches for all entities with an attribute within maxEdits edits of query
+     * @param query     The attribute value to search for
+     * @param maxEdits  The largest number of edits allowed between query and a matching attribute
+     * @return          A set of entities with attributes within maxEdits of query
+     * @see #searchFuzzy(CharSequence, int, Enum)
+     */
+    public Set<T> searchFuzzy(CharSequence query, int maxEdits) {
+        return searchFuzzy(query, maxEdits, null);
+    }
+
+    /**
+     * Searches for all entities matching every token of query, so "snow porch" finds a task described as "get snow off
+     * the porch". The query is split by the tokenizer of field, or into words without a field, and each token matches
+     * the entities with a key of the field starting with it. The matches of each token are intersected in order of
+     * their subtree counts, smallest first, and the search stops as soon as the intersection is empty.
+     * @param query The tokens to search for
+     * @param field The field to search within, or null to match each token in any field
+     * @return      A read-only set of entities matching every token, empty if query has no tokens
+     */
+    public Set<T> searchAllTokens(String query, F field) {
+        List<TokenMatch> matches = tokenMatches(query, field);
+        if (matches.isEmpty()) {
+            return Set.of();
+        }
+        matches.sort(Comparator.comparingInt(TokenMatch::count));
+        PostingList result = null;
+        for (TokenMatch match : matches) {
+            PostingList postings = postingsBelow(match.nodes());
+            result = result == null ? postings : PostingList.and(result, postings);
+            if (result.isEmpty()) {
+                break; // no later token can add matches
+            }
+        }
+        return ordinals.asSet(result);
+    }
+
+    /**
+     * Searches for all entities matching any token of query, each token matching the entities with a key of the field
+     * starting with it. The query is split by the tokenizer of field, or into words without a field.
+     * @param query The tokens to search for
+     * @param field The field to search within, or null to match each token in any field
+     * @return      A read-only set of entities matching at least one token
+     */
+    public Set<T> searchAnyToken(String query, F field) {
+        List<CompactTrieNode> nodes = new ArrayList<>();
+        for (TokenMatch match : tokenMatches(query, field)) {
+            nodes.addAll(match.nodes());
+        }
+        return ordinals.asSet(postingsBelow(nodes));
+    }
+
+    /**
+     * Returns a cursor over the entities with an attribute of field starting with a query typed one character at a
+     * time, such as the text of a search box filtered on every keystroke. The cursor keeps the path from the root to
+     * the node of its current query, so appending a character follows at most one more edge and deleting one steps back
+     * along the path, rather than walking from the root again. The cursor starts with an empty query, matching every
+     * entity.
+     * @param field The field to search within, or null to search every field
+     * @return a new cursor with an empty query
+     * @see PrefixCursor
+     */
+    public PrefixCursor cursor(F field) {
+        return new PrefixCursor(field);
+    }
+
+    /**
+     * Returns an immutable, point-in-time view of this trie in constant time. The snapshot shares every node with this
+     * trie; edits made afterward copy the nodes on their path from the root rather than changing shared nodes, so the
+     * snapshot keeps returning the results this trie would have returned when it was taken. The indexed entities
+     * themselves are shared, not copied. A snapshot may be searched from any thread.
+     * @return a read-only trie holding the current keys of this trie
+     * @throws UnsupportedOperationException from any method that edits the snapshot
+     */
+    public CompactTrie<T, F> snapshot() {
+        if (isSnapshot) {
+            return this;
+        }
+        if (isConcurrent) {
+            writeLock.lock();
+        }
+        try {
+            epoch++; // every node reachable from the roots now belongs to an earlier epoch and is copied before changes
+            return new CompactTrie<>(this, roots);
+        } finally {
+            if (isConcurrent) { // changes no node, so it is not counted as an edit
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return true if this trie is a read-only view returned by {@link #snapshot()}
+     */
+    public boolean isSnapshot() {
+        return isSnapshot;
+    }
+
+    /**
+     * @return true if this trie may be searched from other threads while it is edited
+     */
+    public boolean isConcurrent() {
+        return isConcurrent;
+    }
+
+    /**
+     * Measures the nodes left behind by deletes in every tree of this trie. Walks every node, so the cost grows with
+     * the size of the trie.
+     * @return the fragmentation of this trie's trees
+     */
+    public Fragmentation fragmentation() {
+        int[] counts = new int[4]; // nodes, dead nodes, empty data lists, total edge length
+        CompactTrieNode[] roots = this.roots;
+        for (F field : fields) {
+            roots[field.ordinal()].forEachChild(child -> measure(child, counts));
+        }
+        return new Fragmentation(counts[0], counts[1], counts[2],
+                counts[0] == 0 ? 0 : (double) counts[3] / counts[0]);
+    }
+
+    /**
+     * Rebuilds every tree of this trie without the nodes deletes left behind: each node without data and with a single
+     * child is merged with that child, subtrees without data are dropped, and empty data lists are released. The
+     * rebuilt trees are built from the current roots without changing them and then published in a single write, so
+     * in concurrent mode searches continue throughout and see either the old trees or the compacted ones.
+     * <p>
+     * If the trie is edited while it is rebuilt, the rebuilt trees would lose the edit, so they are discarded and this
+     * method returns false. An edit can only interleave in concurrent mode, where the trie may be edited from another
+     * thread.</p>
+     * @return true if the compacted trees were published
+     * @throws UnsupportedOperationException if this trie is a snapshot
+     */
+    public boolean compact() {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Snapshots of a CompactTrie are read-only");
+        }
+        compactedTrees = null; // trees rebuilt in the background are replaced by these
+        int edits = editCount; // read before the roots, an edit published in between fails the check below
+        // published nodes are never changed in concurrent mode, the rebuilt nodes are copied before edits like them
+        CompactedTrees trees = rebuild(this.roots, edits, isConcurrent ? -1 : epoch);
+
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            if (editCount != edits) {
+                return false;
+            }
+            publishCompacted(trees, roots);
+            return true;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Compacts this trie on another thread while it continues to be searched and edited. Only one background
+     * compaction runs at a time.
+     * <p>
+     * In concurrent mode the compaction is retried if an edit is made while the trees are rebuilt, and the rebuilt
+     * trees are published from the other thread. Otherwise the trie may only be edited by one thread, so this method
+     * must be called from that thread: the current trees are frozen as if by {@link #snapshot()}, rebuilt on another
+     * thread, and published by the next edit before it changes them, unless an edit was made in the meantime. Until
+     * then searches read the trees as they were.</p>
+     * @return a future completing with true once compacted trees are published, or outside concurrent mode once they
+     *         are ready to be published, or with false if edits kept interrupting the compaction. If a background
+     *         compaction is already running, the future of that compaction.
+     * @throws UnsupportedOperationException if this trie is a snapshot
+     * @see #compact()
+     */
+    public synchronized CompletableFuture<Boolean> compactInBackground() {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Snapshots of a CompactTrie are read-only");
+        }
+        if (compaction != null && !compaction.isDone()) {
+            return compaction;
+        }
+        if (isConcurrent) {
+            compaction = CompletableFuture.supplyAsync(() -> {
+                for (int attempt = 0; attempt < COMPACTION_ATTEMPTS; attempt++) {
+                    if (compact()) {
+                        return true;
+                    }
+                }
+                return false;
+            });
+        } else {
+            epoch++; // edits made while the trees are rebuilt copy the nodes read below instead of changing them
+            CompactTrieNode[] source = roots;
+            int edits = editCount;
+            int nodeEpoch = epoch; // the rebuilt nodes are only reachable once published, so edits may change them
+            compaction = CompletableFuture.supplyAsync(() -> {
+                compactedTrees = rebuild(source, edits, nodeEpoch);
+                return true;
+            });
+        }
+        return compaction;
+    }
+
+    /**
+     * Sets the number of nodes deletes may leave without data but with children before this trie compacts itself.
+     * Once an edit reaches the threshold, it starts {@link #compactInBackground()}, so the edit returns without waiting
+     * for the trees to be rebuilt.
+     * @param leftoverNodes the number of leftover nodes that triggers a compaction, or 0 to never compact
+     *                      automatically, the default
+     * @throws IllegalArgumentException if leftoverNodes is negative
+     */
+    public void setCompactionThreshold(int leftoverNodes) {
+        if (leftoverNodes < 0) {
+            throw new IllegalArgumentException("Invalid compaction threshold, " + leftoverNodes
+                    + ", must not be negative.");
+        }
+        this.compactionThreshold = leftoverNodes;
+    }
+
+    /**
+     * @return the number of leftover nodes that triggers a compaction, or 0 if this trie never compacts automatically
+     */
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Structure left behind in the trees of a trie by deletes, as measured by {@link #fragmentation()}
+     * @param nodeCount          the number of nodes below the roots
+     * @param deadNodes          nodes without data and with fewer than two children, which compaction removes
+     * @param emptyDataLists     nodes holding a data list without any entities, which compaction releases
+     * @param averageEdgeLength  the average length of the partial prefixes of nodes below the roots
+     */
+    public record Fragmentation(int nodeCount, int deadNodes, int emptyDataLists, double averageEdgeLength) {
+        /** @return the fraction of nodes that are dead, 0 for an empty trie */
+        public double deadNodeRatio() {
+            return nodeCount == 0 ? 0 : (double) deadNodes / nodeCount;
+        }
+    }
+
+    /**
+     * Estimates the heap bytes held by the tree of each field and by the keys cached for each indexed entity. Walks
+     * every node, but the result is kept until the trie is next edited, so sampling an unchanged trie costs nothing.
+     * Nodes read from a mapped image are counted as if they were held on the heap.
+     * @return the footprint of each indexed field, in the order the fields were given to this trie
+     * @see HeapSize
+     */
+    public Map<F, FieldFootprint> footprint() {
+        int edits = editCount; // read before the roots, an edit published in between is measured again next time
+        MeasuredFootprint<F> measured = measuredFootprint;
+        if (measured != null && measured.edits() == edits) {
+            return measured.fields();
+        }
+        CompactTrieNode[] roots = this.roots;
+        Map<F, FieldFootprint> fields = new LinkedHashMap<>();
+        for (F field : this.fields) {
+            long[] counts = new long[4]; // nodes, node bytes, edge bytes, posting bytes
+            measureBytes(roots[field.ordinal()], counts);
+            fields.put(field, new FieldFootprint((int) counts[0] - 1, counts[1], counts[2], counts[3],
+                    keyBytes(field)));
+        }
+        fields = Collections.unmodifiableMap(fields);
+        measuredFootprint = new MeasuredFootprint<>(edits, fields);
+        return fields;
+    }
+
+    /**
+     * Estimated heap bytes held by the tree of one field of a trie, as measured by {@link #footprint()}
+     * @param nodeCount    the number of nodes below the root
+     * @param nodeBytes    bytes of the nodes, including the root, and of their child arrays
+     * @param edgeBytes    bytes of the partial prefix strings of the nodes
+     * @param postingBytes bytes of the posting lists of entity ordinals held by the nodes
+     * @param keyBytes     bytes of the keys cached for each indexed entity, so deletes never convert attributes again,
+     *                     and of the handles to the nodes they end at
+     */
+    public record FieldFootprint(int nodeCount, long nodeBytes, long edgeBytes, long postingBytes, long keyBytes) {
+        /** @return the bytes of every part of the tree */
+        public long totalBytes() {
+            return nodeBytes + edgeBytes + postingBytes + keyBytes;
+        }
+    }
+
+    // a footprint and the number of edits completed when it was measured
+    private record MeasuredFootprint<F>(int edits, Map<F, FieldFootprint> fields) {}
+
+    /**
+     * Sets how attributes of field are converted to keys, and how searches of field are converted before they are
+     * matched against those keys. Because existing keys are not converted again, the normalizer can only be changed
+     * while no attributes of field are indexed.
+     * @param field      the indexed field to normalize
+     * @param normalizer the normalizer used for attributes and searches of field
+     * @throws IllegalArgumentException if field is not indexed by this trie
+     * @throws IllegalStateException if attributes of field are already indexed
+     * @throws UnsupportedOperationException if this trie is a snapshot
+     */
+    public void setKeyNormalizer(F field, KeyNormalizer normalizer) {
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            CompactTrieNode root = rootOf(roots, field);
+            if (root == null) {
+                throw new IllegalArgumentException("Invalid field, " + field + ", is not indexed.");
+            }
+            if (!root.hasNoChildren()) {
+                throw new IllegalStateException("Cannot change the key normalizer of " + field
+                        + " while it has indexed keys.");
+            }
+            normalizers[field.ordinal()] = Objects.requireNonNull(normalizer);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * @param field an indexed field
+     * @return the normalizer converting attributes and searches of field to keys, or null if field is not indexed
+     */
+    public KeyNormalizer getKeyNormalizer(F field) {
+        return rootOf(roots, field) == null ? null : normalizers[field.ordinal()];
+    }
+
+    /**
+     * Sets how attributes of field are split into tokens, each indexed as a separate key after normalization. Like the
+     * normalizer, the tokenizer can only be changed while no attributes of field are indexed.
+     * @param field     the indexed field to tokenize
+     * @param tokenizer the tokenizer used for attributes of field, or {@link KeyTokenizer#WHOLE_VALUE} to index each
+     *                  attribute as a single key
+     * @throws IllegalArgumentException if field is not indexed by this trie
+     * @throws IllegalStateException if attributes of field are already indexed
+     * @throws UnsupportedOperationException if this trie is a snapshot
+     */
+    public void setKeyTokenizer(F field, KeyTokenizer tokenizer) {
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            CompactTrieNode root = rootOf(roots, field);
+            if (root == null) {
+                throw new IllegalArgumentException("Invalid field, " + field + ", is not indexed.");
+            }
+            if (!root.hasNoChildren()) {
+                throw new IllegalStateException("Cannot change the key tokenizer of " + field
+                        + " while it has indexed keys.");
+            }
+            tokenizers[field.ordinal()] = Objects.requireNonNull(tokenizer);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * @param field an indexed field
+     * @return the tokenizer splitting attributes of field into keys, or null if field is not indexed
+     */
+    public KeyTokenizer getKeyTokenizer(F field) {
+        return rootOf(roots, field) == null ? null : tokenizers[field.ordinal()];
+    }
+
+    /**
+     * Sets the listener notified of each structural change made to this trie, replacing any previous listener.
+     * Notifications are skipped entirely while no listener is set.
+     * @param listener the listener to notify, or null to disable instrumentation
+     */
+    public void setListener(TrieListener<F> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the listener notified of structural changes to this trie, or null if none is set
+     */
+    public TrieListener<F> getListener() {
+        return listener;
+    }
+
+    /**
+     * Replaces the empty tree of each field with the tree saved in a mapped {@link TrieImage}. Searches read the
+     * image's nodes in place, and edits copy the nodes on their path first, so the image itself is never changed.
+     * @param image an image opened for the fields and normalizers of this trie, whose postings are ordinals assigned by
+     *              this trie's {@link EntityOrdinals}
+     * @throws IllegalStateException if any field of this trie already has indexed keys
+     * @throws UnsupportedOperationException if this trie is a snapshot
+     */
+    void loadImage(TrieImage image) {
+        CompactTrieNode[] roots = beginWrite();
+        try {
+            for (F field : fields) {
+                if (!roots[field.ordinal()].hasNoChildren()) {
+                    throw new IllegalStateException("Cannot load a trie image while " + field + " has indexed keys.");
+                }
+            }
+            CompactTrieNode[] imageRoots = image.roots();
+            for (int f = 0; f < fields.size(); f++) {
+                roots[fields.get(f).ordinal()] = imageRoots[f];
+            }
+            publish(roots);
+            if (listener != null) listener.onImageLoaded(image.nodeCount(), image.keyCount());
+        } finally {
+            endWrite();
+        }
+    }
+
+    /** @return the indexed fields of this trie */
+    List<F> getFields() {
+        return fields;
+    }
+
+    /** @return the table of ordinals this trie indexes entities by */
+    EntityOrdinals<T> getOrdinals() {
+        return ordinals;
+    }
+
+    /**
+     * @param field an indexed field
+     * @return the current root of field's tree, or null if field is not indexed
+     */
+    CompactTrieNode rootOf(F field) {
+        return rootOf(roots, field);
+    }
+
+    /**
+     * Recursively prints each node of the tree to visualize each node's children
+     */
+    public void printChildren() {
+        for (F field : fields) {
+            System.out.print(field + "\n");
+            printChildren(roots[field.ordinal()], 0);
+        }
+    }
+
+    // PRIVATE METHODS
+    // Starts an edit, returning a copy of the roots the edit should modify. In concurrent mode this takes the write lock
+    // and starts a new epoch, so every node readers can reach is copied before it is changed, starting with the root.
+    private CompactTrieNode[] beginWrite() {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Snapshots of a CompactTrie are read-only");
+        }
+        if (isConcurrent) {
+            writeLock.lock();
+            epoch++;
+        } else if (compactedTrees != null) {
+            publishCompactedTrees();
+        }
+        return roots.clone();
+    }
+
+    // Outside concurrent mode, publishes the trees a background compaction rebuilt before an edit changes the roots
+    // they were rebuilt from. Trees an edit has overtaken would lose it and are dropped.
+    private void publishCompactedTrees() {
+        CompactedTrees trees = compactedTrees;
+        compactedTrees = null;
+        if (trees.edits() == editCount) {
+            publishCompacted(trees, roots.clone());
+        }
+    }
+
+    // Returns the root of field from roots being edited, first replacing it with a copy if it belongs to an earlier epoch
+    private CompactTrieNode editableRoot(CompactTrieNode[] roots, F field) {
+        CompactTrieNode root = roots[field.ordinal()];
+        if (root.epoch != epoch) {
+            root = root.copy(epoch);
+            roots[field.ordinal()] = root;
+        }
+        return root;
+    }
+
+    // Makes a completed edit visible to readers by publishing the roots it modified, and counts it so cursors and the
+    // footprint know the nodes may have changed. Calls that change no reachable node, such as snapshots, never publish.
+    private void publish(CompactTrieNode[] editedRoots) {
+        if (!Arrays.equals(editedRoots, roots)) { // nodes are compared by identity
+            roots = editedRoots;
+        }
+        editCount++; // only the writer changes the count, after publishing its roots
+    }
+
+    // Returns the root of field's tree, or null if field is null or not indexed
+    private CompactTrieNode rootOf(CompactTrieNode[] roots, F field) {
+        return (field == null || field.ordinal() >= roots.length) ? null : roots[field.ordinal()];
+    }
+
+    // Returns the fields a search covers: every field if field is null, field if it is indexed, or none
+    private List<F> searchFields(CompactTrieNode[] roots, F field) {
+        if (field == null) {
+            return fields;
+        }
+        return rootOf(roots, field) == null ? List.of() : List.of(field);
+    }
+
+    // Converts an attribute or search of field to the key it is indexed or searched with. A String is normalized as is,
+    // other sequences are copied to a String once, since normalizers and the edge comparisons work on Strings.
+    private String keyOf(F field, CharSequence value) {
+        return normalizers[field.ordinal()].normalize(value.toString());
+    }
+
+    // Converts an attribute of field to the distinct, non-empty keys it is indexed with, one for each token
+    private String[] keysOf(F field, String value) {
+        List<String> tokens = tokenizers[field.ordinal()].tokenize(value);
+        if (tokens.size() == 1) { // whole values
+            String key = keyOf(field, tokens.get(0));
+            return key.isEmpty() ? new String[0] : new String[] {key};
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (String token : tokens) {
+            String key = keyOf(field, token);
+            if (!key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+        return keys.toArray(new String[0]);
+    }
+
+    // Returns the keys an entity is indexed with under field, or null if none are cached
+    private String[] cachedKeys(F field, int ordinal) {
+        String[][] fieldKeys = indexedKeys[field.ordinal()];
+        return ordinal < fieldKeys.length ? fieldKeys[ordinal] : null;
+    }
+
+    // Returns the node each key an entity is indexed with under field ends at, or null if none are cached
+    private CompactTrieNode[] cachedNodes(F field, int ordinal) {
+        if (keyNodes == null) {
+            return null;
+        }
+        CompactTrieNode[][] fieldNodes = keyNodes[field.ordinal()];
+        return ordinal < fieldNodes.length ? fieldNodes[ordinal] : null;
+    }
+
+    // Records the keys an entity is indexed with under field and the node each ends at, which may be null if unknown,
+    // or forgets them when keys is null
+    private void cacheKeys(F field, int ordinal, String[] keys, CompactTrieNode[] nodes) {
+        String[][] fieldKeys = indexedKeys[field.ordinal()];
+        if (ordinal >= fieldKeys.length) {
+            if (keys == null) {
+                return;
+            }
+            fieldKeys = Arrays.copyOf(fieldKeys, Math.max(ordinal + 1, fieldKeys.length * 2));
+            indexedKeys[field.ordinal()] = fieldKeys;
+        }
+        fieldKeys[ordinal] = keys;
+        if (keyNodes != null) {
+            CompactTrieNode[][] fieldNodes = keyNodes[field.ordinal()];
+            if (fieldNodes.length < fieldKeys.length) {
+                fieldNodes = Arrays.copyOf(fieldNodes, fieldKeys.length);
+                keyNodes[field.ordinal()] = fieldNodes;
+            }
+            fieldNodes[ordinal] = nodes;
+        }
+    }
+
+    // Records the node a key an entity is indexed with under field ends at, if the entity's keys are cached with room
+    // for their nodes, such as while bulk loading builds the node
+    private void cacheNode(F field, int ordinal, String key, CompactTrieNode node) {
+        CompactTrieNode[] nodes = cachedNodes(field, ordinal);
+        if (nodes == null) {
+            return;
+        }
+        String[] keys = cachedKeys(field, ordinal);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                nodes[i] = node;
+                return;
+            }
+        }
+    }
+
+    // Returns true if an entity is indexed under field with a key starting with prefix, reading its cached keys if any
+    private boolean hasKeyStartingWith(F field, int ordinal, String prefix) {
+        String[] keys = indexedKeys != null ? cachedKeys(field, ordinal) : null;
+        if (keys == null) {
+            keys = keysOf(field, ordinals.get(ordinal).getFieldValue(field));
+        }
+        for (String key : keys) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns true if field indexes each token of its attributes as a separate key
+    private boolean isTokenized(F field) {
+        return tokenizers[field.ordinal()] != KeyTokenizer.WHOLE_VALUE;
+    }
+
+    // Returns true if each entity is indexed at most once below the prefix nodes found for field: a single node of a
+    // field that is not tokenized
+    private boolean isDistinctBelow(List<CompactTrieNode> nodes, F field) {
+        if (nodes.size() != 1) {
+            return false;
+        }
+        for (F searchField : searchFields(roots, field)) {
+            if (isTokenized(searchField)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compacts this trie once deletes have left as many nodes behind as the compaction threshold allows. The count is
+    // read without the write lock; a stale read only delays or repeats a compaction.
+    private void compactIfFragmented() {
+        if (compactionThreshold > 0 && leftoverNodes >= compactionThreshold) {
+            compactInBackground();
+        }
+    }
+
+    // Returns compacted copies of the trees of source, the roots of the given edit, without changing any node
+    private CompactedTrees rebuild(CompactTrieNode[] source, int edits, int nodeEpoch) {
+        CompactTrieNode[] compacted = source.clone();
+        int[] nodesBefore = new int[1];
+        int[] nodesAfter = new int[1];
+        for (F field : fields) {
+            CompactTrieNode root = source[field.ordinal()];
+            root.forEachChild(child -> countNodes(child, nodesBefore));
+            compacted[field.ordinal()] = compactCopy(root, root.partial(), nodeEpoch, nodesAfter);
+        }
+        return new CompactedTrees(compacted, edits, nodesBefore[0], nodesAfter[0]);
+    }
+
+    // Publishes compacted trees in place of the trees of roots being written
+    private void publishCompacted(CompactedTrees trees, CompactTrieNode[] roots) {
+        for (F field : fields) {
+            roots[field.ordinal()] = trees.roots()[field.ordinal()];
+        }
+        publish(roots);
+        leftoverNodes = 0;
+        if (listener != null) listener.onCompact(trees.nodesBefore(), trees.nodesAfter());
+    }
+
+    // Trees rebuilt by a compaction from the roots of an edit, with the nodes below the roots before and after
+    private record CompactedTrees(CompactTrieNode[] roots, int edits, int nodesBefore, int nodesAfter) {}
+
+    // Returns a copy of the subtree below node without leftover structure, with partial as its partial prefix. A node
+    // without data and with a single child holding data is merged with that child, and children without data below
+    // them are dropped. The root is never merged. Adds the nodes created below the root to created[0].
+    private CompactTrieNode compactCopy(CompactTrieNode node, String partial, int nodeEpoch, int[] created) {
+        List<CompactTrieNode> children = liveChildren(node);
+        while (!partial.isEmpty() && !hasData(node) && children.size() == 1) { // only the root has an empty partial
+            node = children.get(0);
+            partial += node.partial();
+            children = liveChildren(node);
+        }
+        CompactTrieNode copy = new CompactTrieNode(partial, nodeEpoch);
+        if (hasData(node)) {
+            copy.isWordEnd = true;
+            copy.data = node.getData().copy(); // never shared with nodes a snapshot may still change in place
+        }
+        copy.adjustSubtreeCount(node.subtreeCount());
+        for (CompactTrieNode child : children) { // ascending key order
+            copy.putChild(child.partialCharAt(0), compactCopy(child, child.partial(), nodeEpoch, created));
+            created[0]++;
+        }
+        copy.refreshMaxWeight();
+        return copy;
+    }
+
+    // Returns the children of node with data below them, in ascending key order
+    private static List<CompactTrieNode> liveChildren(CompactTrieNode node) {
+        List<CompactTrieNode> children = node.children();
+        children.removeIf(child -> child.subtreeCount() == 0);
+        return children;
+    }
+
+    // Returns true if entities are indexed under the key ending at node
+    private static boolean hasData(CompactTrieNode node) {
+        return node.isWordEnd && node.dataSize() > 0;
+    }
+
+    // Adds the nodes of the subtree below and including node to count[0]
+    private static void countNodes(CompactTrieNode node, int[] count) {
+        count[0]++;
+        node.forEachChild(child -> countNodes(child, count));
+    }
+
+    // Adds the fragmentation of the subtree below and including node to counts: nodes, dead nodes, empty data lists,
+    // and total edge length
+    private static void measure(CompactTrieNode node, int[] counts) {
+        counts[0]++;
+        if (!hasData(node) && node.childCount() < 2) {
+            counts[1]++;
+        }
+        if (node.hasEmptyData()) {
+            counts[2]++;
+        }
+        counts[3] += node.partialLength();
+        node.forEachChild(child -> measure(child, counts));
+    }
+
+    // Adds the footprint of the subtree below and including node to counts: nodes, node bytes, edge bytes, and posting
+    // bytes
+    private static void measureBytes(CompactTrieNode node, long[] counts) {
+        counts[0]++;
+        counts[1] += node.estimatedBytes();
+        counts[2] += node.partialBytes();
+        counts[3] += node.dataBytes();
+        node.forEachChild(child -> measureBytes(child, counts));
+    }
+
+    // Returns the bytes of the keys cached for the entities indexed under field and of the nodes they end at, 0 for
+    // snapshots which cache none
+    private long keyBytes(F field) {
+        if (indexedKeys == null) {
+            return 0;
+        }
+        String[][] fieldKeys = indexedKeys[field.ordinal()];
+        long bytes = HeapSize.array(fieldKeys.length, HeapSize.REFERENCE);
+        for (String[] keys : fieldKeys) {
+            if (keys != null) {
+                bytes += HeapSize.array(keys.length, HeapSize.REFERENCE);
+                for (String key : keys) {
+                    bytes += HeapSize.string(key);
+                }
+            }
+        }
+        if (keyNodes != null) {
+            CompactTrieNode[][] fieldNodes = keyNodes[field.ordinal()];
+            bytes += HeapSize.array(fieldNodes.length, HeapSize.REFERENCE);
+            for (CompactTrieNode[] nodes : fieldNodes) {
+                if (nodes != null) {
+                    bytes += HeapSize.array(nodes.length, HeapSize.REFERENCE);
+                }
+            }
+        }
+        return bytes;
     }
 
-    /**
-     * Searches for all entities with an attribute starting with a given prefix
-     * @param prefix    The prefix to search for
-     * @return          A set of entities with attributes starting with the prefix
-     */
-    public Set<T> searchAllWithPrefix(String prefix) {
-        Set<T> result = new HashSet<>();
-
-        searchAllWithPrefix(prefix, null, result);
-        return result;
+    // Ends an edit started with beginWrite, whether or not it was published
+    private void endWrite() {
+        if (isConcurrent) {
+            writeLock.unlock();
+        }
     }
 
-    /**
-     * Recursively prints each node of the tree to visualize each node's children
-     */
-    public void printChildren() {
-        printChildren(root, 0);
+    // Returns the child of a node being edited found with key, first replacing it with a copy if it belongs to an
+    // earlier epoch, or null if there is no child for key
+    private CompactTrieNode editableChild(CompactTrieNode node, char key) {
+        CompactTrieNode child = node.getChild(key);
+        if (child != null && child.epoch != epoch) {
+            child = child.copy(epoch);
+            node.putChild(key, child);
+        }
+        return child;
     }
 
-    // PRIVATE METHODS
-    // search algorithm retrieving the data associated with a full word key in this trie, or null
-    private CompactTrieNode<T, F> searchNode(String word) {
+    // search algorithm retrieving the node below root representing a full word key, or null
+    private CompactTrieNode searchNode(CompactTrieNode root, String word) {
         // iterate nodes until finding the node representing the word or there are no more nodes that match word[i:end]
-        CompactTrieNode<T, F> node = root;
+        CompactTrieNode node = root;
         int i = 0;
         while (i < word.length()) {
             // use the first letter of the word[i:end] substring as key to find the next node
             // if i=0 and word is "Michael", use "M" to find the next node (which may be any string starting with "M")
-            Character key = word.charAt(i);
-            CompactTrieNode<T, F> childNode = node.children.get(key);
+            char key = word.charAt(i);
+            CompactTrieNode childNode = node.getChild(key);
 
             // TERMINATE If a node wasn't found for the key, there are no nodes that represent the word
             if (childNode == null) {
@@ -173,8 +1331,8 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
                - this node represents TARGET WORD if i + # of shared chars is same length as the target word.
              - NO MATCH If the shared # of chars differs, it means this node is longer than the word
               for example if the word is "Alex" and this node is "Alexander", there can be no "Alex" beyond this node.*/
-            int commonPrefixLen = commonPrefixLength(node.prefixPartial, word.substring(i));
-            if (commonPrefixLen != node.prefixPartial.length()) { return null; } // NO MATCH
+            int commonPrefixLen = commonPrefixLength(node, word, i);
+            if (commonPrefixLen != node.partialLength()) { return null; } // NO MATCH
             // NODE CONTAINS WORD PORTION
             i+= commonPrefixLen;
             if (i == word.length()) { // NODE REPRESENTS TARGET WORD
@@ -186,22 +1344,85 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
     }
 
     // used for public prefix search method to add all search matches to the supplied result
-    // Traverses the list until reaching a node that represents a word starting with the entire prefix,
-    // Then traverses each subtree of the node, adding any data to result.
-    private void searchAllWithPrefix(String prefix, F field, Set<T> results) {
-        if (!isCaseSensitive) {
-            prefix = prefix.toLowerCase();
+    private void searchAllWithPrefix(CharSequence prefix, F field, PostingList results) {
+        for (CompactTrieNode node : prefixNodes(prefix, field)) {
+            addAllFrom(node, results);
+        }
+    }
+
+    // Returns the union of the data of every key below each of nodes
+    private PostingList postingsBelow(List<CompactTrieNode> nodes) {
+        PostingList postings = new PostingList();
+        for (CompactTrieNode node : nodes) {
+            addAllFrom(node, postings);
         }
+        return postings;
+    }
+
+    // Returns a lazy stream of the distinct entities below the prefix nodes found for field
+    private Stream<T> streamBelow(List<CompactTrieNode> nodes, F field) {
+        if (nodes.isEmpty()) {
+            return Stream.empty();
+        }
+        boolean isDistinct = isDistinctBelow(nodes, field);
+        Stream<T> stream = StreamSupport.stream(new CompactTrieSpliterator<>(nodes, isDistinct, ordinals), false);
+        // across several fields or tokens, an entity is found once for each of its keys starting with prefix
+        return isDistinct ? stream : stream.distinct();
+    }
+
+    // Returns one page of the distinct entities below the prefix nodes found for field, in ascending or descending key
+    // order
+    private List<T> pageBelow(List<CompactTrieNode> nodes, F field, int limit, int offset, boolean isDescending) {
+        if (nodes.isEmpty() || limit == 0) {
+            return new ArrayList<>();
+        }
+        PrefixPage page = new PrefixPage(isDistinctBelow(nodes, field), limit, offset, isDescending);
+        if (isDescending) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                page.visit(nodes.get(i));
+            }
+        } else {
+            nodes.forEach(page::visit);
+        }
+        return page.results();
+    }
+
+    // Returns the node below which every key starting with prefix is found in the tree of each searched field, skipping
+    // fields without such keys. The roots of every field are read from the same edit.
+    private List<CompactTrieNode> prefixNodes(CharSequence prefix, F field) {
+        return prefixNodes(roots, prefix, field);
+    }
+
+    // Returns the prefix node of each searched field from the given roots, skipping fields without such keys
+    private List<CompactTrieNode> prefixNodes(CompactTrieNode[] roots, CharSequence prefix, F field) {
+        List<CompactTrieNode> nodes = new ArrayList<>();
+        QueryKey queryKey = new QueryKey(prefix);
+        for (F searchField : searchFields(roots, field)) {
+            String key = queryKey.of(searchField);
+            if (key.isEmpty() && !prefix.isEmpty()) {
+                continue; // nothing in prefix is part of this field's keys, such as letters searched in digits
+            }
+            CompactTrieNode node = prefixNode(roots[searchField.ordinal()], key);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    // Traverses the list until reaching a node below root that represents a word starting with the entire prefix, and
+    // returns it, or null if no key starts with prefix. Every descendant of the returned node starts with prefix.
+    private CompactTrieNode prefixNode(CompactTrieNode root, String prefix) {
         // Iterate nodes until finding the node that represents a word starting with the prefix.
-        CompactTrieNode<T, F> node = root;
+        CompactTrieNode node = root;
         int i = 0;
         while (i < prefix.length()) {
             // use the first letter of the word[i:end] substring as key to find the next node
             // if i=0 and word is "Michael", use "M" to find the next node (which may be any string starting with "M")
-            Character key = prefix.charAt(i);
-            CompactTrieNode<T, F> childNode = node.children.get(key);
+            char key = prefix.charAt(i);
+            CompactTrieNode childNode = node.getChild(key);
             if (childNode == null) {  // TERMINATE If a node wasn't found for the key, there are no nodes for the prefix
-                return;
+                return null;
             }
             node = childNode; // If a child is linked to the key, iterate this node to the child
 
@@ -214,156 +1435,927 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
               - NO MATCHES if remaining prefix doesn't start with this nodes partial.
 
             - if this node is shorter than the substring */
-            String remaining = prefix.substring(i); // remainder of prefix to check if this node partial starts with
-            if (node.prefixPartial.length() > remaining.length()) { // MAY CONTAIN PREFIX
-                if (node.prefixPartial.startsWith(remaining)) {
+            int remaining = prefix.length() - i; // length of the remainder of prefix this node partial must start with
+            if (node.partialLength() > remaining) { // MAY CONTAIN PREFIX
+                if (commonPrefixLength(node, prefix, i) == remaining) {
                     break; // CONTAINS PREFIX - EXIT LOOP
                 } else {
-                    return; // NO MATCHES - terminate
+                    return null; // NO MATCHES - terminate
                 }
             } else { // MAY CONTAIN PORTION of prefix
-                if (remaining.startsWith(node.prefixPartial)) {
-                    i += node.prefixPartial.length(); // ITERATE remainder of prefix
+                if (commonPrefixLength(node, prefix, i) == node.partialLength()) {
+                    i += node.partialLength(); // ITERATE remainder of prefix
                 } else {
-                    return; // NO MATCHES - terminate
+                    return null; // NO MATCHES - terminate
                 }
             }
         }
 
         // At this point the loop has been iterated until this node starts with the target prefix. All descendents of
-        // this node is a match for the search prefix and should be added to the set
-        addAllFrom(node, field, results);
+        // this node is a match for the search prefix
+        return node;
+    }
+
+    // removes the keys of an objects attribute from the tree of its field below root, if they are indexed. A key whose
+    // node is still cached is removed from that node directly, any other key is found by walking from root.
+    private void delete(CompactTrieNode root, int ordinal, F field, String[] keys) {
+        CompactTrieNode[] nodes = cachedNodes(field, ordinal);
+        for (int i = 0; i < keys.length; i++) {
+            String word = keys[i];
+            if (nodes != null && i < nodes.length && nodes[i] != null && endsWord(nodes[i], root, word, ordinal)) {
+                deleteAt(nodes[i], ordinal, field, word);
+                continue;
+            }
+            delete(root, ordinal, field, word, 0, null); // counts on the path only change if the key is found
+        }
+        cacheKeys(field, ordinal, null, null);
+    }
+
+    // Returns true if node still ends word below root, holds the object, and may be changed in place: following parent
+    // links up from node reaches root through nodes of this epoch whose partial prefixes spell word. Compares
+    // characters but never looks up a child.
+    private boolean endsWord(CompactTrieNode node, CompactTrieNode root, String word, int ordinal) {
+        if (!node.isWordEnd || !node.containsObject(ordinal) || root.epoch != epoch) {
+            return false;
+        }
+        int end = word.length();
+        for (CompactTrieNode n = node; n != root; n = n.parent) {
+            String partial = n.prefixPartial;
+            end -= partial.length();
+            if (n.parent == null || n.epoch != epoch || partial.isEmpty() || end < 0
+                    || !word.regionMatches(end, partial, 0, partial.length())) {
+                return false; // unlinked, copied, or merged since it was cached
+            }
+        }
+        return end == 0;
+    }
+
+    // Removes the object from node, the word end of word, then unlinks the nodes left empty and merges single children
+    // up through parent links, as the walking delete does on its way back up
+    private void deleteAt(CompactTrieNode node, int ordinal, F field, String word) {
+        for (CompactTrieNode n = node; n != null; n = n.parent) {
+            n.adjustSubtreeCount(-1); // the object is indexed in the subtree of every node on the path
+        }
+        node.removeObject(ordinal);
+        for (CompactTrieNode n = node; n != null && n.refreshMaxWeight(); ) { // until the heaviest key is elsewhere
+            n = n.parent;
+        }
+        if (listener != null) listener.onDelete(word, field);
+        if (node.data != null && !node.data.isEmpty()) {
+            return;
+        }
+        node.isWordEnd = false;
+        if (listener != null) listener.onKeyRemoved();
+        if (!node.hasNoChildren()) { // left without data until compacted
+            leftoverNodes++;
+            return;
+        }
+
+        CompactTrieNode child = node;
+        CompactTrieNode parent = node.parent;
+        while (true) {
+            parent.removeChild(child.prefixPartial.charAt(0));
+            if (listener != null) listener.onNodeRemoved();
+            if (parent.isWordEnd || parent.parent == null) { // the root keeps an empty prefix and is never merged
+                return;
+            }
+            if (parent.childCount() == 1) {
+                mergeWithOnlyChild(parent);
+            }
+            if (!parent.hasNoChildren() || parent.isWordEnd) {
+                return;
+            }
+            child = parent;
+            parent = parent.parent;
+        }
     }
 
-    // removes an objects attribute associated with the field from the trie as a key.
-    // if multiple objects have matching attributes, it simply deletes the values from the leaf node's data
-    private boolean delete(CompactTrieNode<T, F> node, T object, F field, String word, int index, CompactTrieNode<T, F> parentNode) {
-        if (!isCaseSensitive) {
-            word = word.toLowerCase();
+    // merges the only child of node, which holds no data, into node
+    private void mergeWithOnlyChild(CompactTrieNode node) {
+        CompactTrieNode child = node.firstChild();
+        if (child.epoch != epoch) { // never take the children and data of a node readers can reach
+            child = child.copy(epoch);
         }
+        node.prefixPartial += child.prefixPartial;
+        node.takeChildrenFrom(child);
+        node.takeDataFrom(child);
+        child.parent = null; // no longer in the tree, so a cached handle to it is found by walking
+        if (listener != null) {
+            listener.onMerge(node.prefixPartial);
+            listener.onNodeRemoved();
+        }
+    }
+
+    // outcome of the walking delete below a node: the key was not found, or it was removed and the node is kept or
+    // left empty and should be unlinked by its parent
+    private enum Removal { NOT_FOUND, KEPT, EMPTIED }
+
+    // removes an indexed objects attribute associated with the field from the trie as a key.
+    // if multiple objects have matching attributes, it simply deletes the values from the leaf node's data.
+    // Subtree counts and weights are only changed on the way back up, once the key was found holding the object.
+    private Removal delete(CompactTrieNode node, int ordinal, F field, String word, int index,
+                           CompactTrieNode parentNode) {
         //  The target word has been traversed and if it is an end, removal should be handled
         if (index == word.length()) {
             // If this node is a word end, remove target data
-            if (node.isWordEnd) {
-                node.removeObject(field, object);
+            if (!node.isWordEnd || !node.removeObject(ordinal)) {
+                return Removal.NOT_FOUND; // the target word does not index the object in this trie
+            }
+            node.adjustSubtreeCount(-1);
+            node.refreshMaxWeight();
+            if (listener != null) listener.onDelete(word, field);
 
-                // If this node still has data, don't delete it.
-                if (node.data != null && !node.data.isEmpty()) {
-                    return false;
-                }
+            // If this node still has data, don't delete it.
+            if (node.data != null && !node.data.isEmpty()) {
+                return Removal.KEPT;
+            }
 
-                // If node has no more data, it is no longer a word End
-                node.isWordEnd = false;
+            // If node has no more data, it is no longer a word End
+            node.isWordEnd = false;
+            if (listener != null) listener.onKeyRemoved();
 
-                // If the node has children, it cannot be deleted.
-                return node.children.isEmpty();
+            // If the node has children, it cannot be deleted and is left without data until compacted.
+            if (!node.hasNoChildren()) {
+                leftoverNodes++;
+                return Removal.KEPT;
             }
-            return false; // the target word does not exist as a key in this trie
+            return Removal.EMPTIED;
         }
 
         // traverse until target word is found and delete if marked for deletion, merging single branches upwards
-        Character key = word.charAt(index);
-        CompactTrieNode<T, F> childNode = node.children.get(key); // finds child node with partial word starting with key
+        char key = word.charAt(index);
+        CompactTrieNode childNode = editableChild(node, key); // finds child node with partial word starting with key
 
-        if (childNode == null) { return false;} // no values exist with the specified prefix, nothing to delete
+        if (childNode == null) { return Removal.NOT_FOUND;} // no values exist with the specified prefix
 
-        int commonPrefixLen = commonPrefixLength(childNode.prefixPartial, word.substring(index));
+        int commonPrefixLen = commonPrefixLength(childNode.prefixPartial, word, index);
         if (commonPrefixLen != childNode.prefixPartial.length()) { // word does not exist if
-            return false;
+            return Removal.NOT_FOUND;
         }
 
-        boolean deleteChild = // recursively traverse until a target node if found, true if it should be deleted.
-                delete(childNode, object, field, word, index + commonPrefixLen, node);
+        int childWeight = childNode.maxWeight();
+        Removal removal = // recursively traverse until a target node if found
+                delete(childNode, ordinal, field, word, index + commonPrefixLen, node);
+        if (removal == Removal.NOT_FOUND) {
+            return removal;
+        }
+        node.adjustSubtreeCount(-1); // the object is indexed in the subtree of every node on the path
+        if (childNode.maxWeight() != childWeight && node.maxWeight() == childWeight) { // the heaviest key lost weight
+            node.refreshMaxWeight();
+        }
 
         // Merge any values with this node if necessary, and remove reference to the deleted node
-        if (deleteChild) {
-            System.out.println("Deleting node: " + childNode);
-            node.children.remove(key);// remove the child node reference from this node
+        if (removal == Removal.EMPTIED) {
+            node.removeChild(key);// remove the child node reference from this node
+            if (listener != null) listener.onNodeRemoved();
 
-            if (node.isWordEnd) { return false; } //  don't merge if this node acts as a word end
+            if (node.isWordEnd) { return Removal.KEPT; } //  don't merge if this node acts as a word end
 
-            // If this node now has only one child and is not a word end, merge child up.
-            if (node.children.size() == 1) {
-                CompactTrieNode<T, F> child = node.children.entrySet().iterator().next().getValue();
-
-                // merge child into current node
-                node.prefixPartial += child.prefixPartial;
-                node.children = child.children;
-                node.isWordEnd = child.isWordEnd;
-                node.data = child.data;
+            // If this node now has only one child and is not a word end, merge child up. The root keeps an empty
+            // prefix and is never merged.
+            if (parentNode != null && node.childCount() == 1) {
+                mergeWithOnlyChild(node); // merge child into current node
             }
         }
-        return node.children.isEmpty() && !node.isWordEnd; // delete this node if empty
+        return node.hasNoChildren() && !node.isWordEnd ? Removal.EMPTIED : Removal.KEPT; // delete this node if empty
     }
 
 
-    // Insertion algorithm that adds nodes associated with the word found by this objects field attribute, with the
-    // object being stored in the final leaf node, associated with the field.
-    private void insert(T object, F field) {
-        String word = object.getFieldValue(field); // the key that will be used to retrieve this object
-        if (!isCaseSensitive) word = word.toLowerCase();
-        System.out.println("Inserting: " + word + " as " + field);
-        CompactTrieNode<T, F> node = root;
+    // indexes each key of an objects attribute in the tree of its field below root
+    private void insert(CompactTrieNode root, int ordinal, F field, String[] keys) {
+        CompactTrieNode[] nodes = new CompactTrieNode[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            nodes[i] = insertKey(root, ordinal, field, keys[i]);
+        }
+        String[] cached = cachedKeys(field, ordinal);
+        if (cached != null && !Arrays.equals(cached, keys)) { // inserted again after changing without an update
+            Set<String> union = new LinkedHashSet<>(Arrays.asList(cached));
+            union.addAll(Arrays.asList(keys));
+            List<String> inserted = Arrays.asList(keys);
+            CompactTrieNode[] insertedNodes = nodes;
+            keys = union.toArray(new String[0]);
+            nodes = new CompactTrieNode[keys.length]; // keys kept from before are found by walking
+            for (int i = 0; i < keys.length; i++) {
+                int at = inserted.indexOf(keys[i]);
+                nodes[i] = at >= 0 ? insertedNodes[at] : null;
+            }
+        }
+        cacheKeys(field, ordinal, keys, nodes);
+    }
+
+    // Insertion algorithm that adds nodes below the root of field associated with the word, a key of this objects field
+    // attribute, with the object being stored in the final leaf node. Returns the node the word ends at.
+    private CompactTrieNode insertKey(CompactTrieNode root, int ordinal, F field, String word) {
+        CompactTrieNode node = root;
+        int depth = 0; // number of nodes below the root traversed to reach the word end
+        List<CompactTrieNode> path = new ArrayList<>(); // nodes whose subtree gains the object
+        path.add(root);
+        boolean isAdded = false;
 
         // insert this object by iterating each node based on the substring of the full word
         int i = 0;
         while (i < word.length()) {
-            Character key = word.charAt(i); // char used to find the next node.
-            CompactTrieNode<T, F> childNode = node.children.get(key); // finds child node with partial word starting with key
+            char key = word.charAt(i); // char used to find the next node.
+            CompactTrieNode childNode = editableChild(node, key); // finds child node with partial word starting with key
 
             // CASE 1: this node doesn't have a child node found with the key.
             // create a child node storing the remainder of the word if this node doesn't have a child found with key.
             if (childNode == null) {
-                System.out.println("   Child not found for key-" + key + ". Creating new child for parent-" + node + ": ");
-                CompactTrieNode<T, F> newNode = new CompactTrieNode<>(word.substring(i));
+                CompactTrieNode newNode = new CompactTrieNode(word.substring(i), epoch);
                 newNode.isWordEnd = true;
-                newNode.addObject(object, field); // because new node is a word ending node it contains the object/field.
-                node.children.put(key, newNode); // point to new node using key in this node's children.
-                System.out.println("      Child " + newNode + " added to parent " + node + " for key: " + key);
+                newNode.addObject(ordinal); // because new node is a word ending node it contains the object.
+                node.putChild(key, newNode); // point to new node using key in this node's children.
+                path.add(newNode);
+                isAdded = true;
+                if (listener != null) {
+                    listener.onNodeCreated();
+                    listener.onKeyAdded();
+                    listener.onInsert(word, field, depth + 1, 1);
+                }
                 break; // INSERTION COMPLETE
             }
 
             // CASE 2: this node has a child node found with the key
             // swap this node to the child node and compare length of its partial prefix value and the remainder of the word [i:end]
-            System.out.println("    Swapping to child found for " + key + ": " + childNode);
             node = childNode;
-            int commonPrefixLen = commonPrefixLength(node.prefixPartial, word.substring(i));
+            depth++;
+            path.add(node);
+            int commonPrefixLen = commonPrefixLength(node.prefixPartial, word, i);
             i+= commonPrefixLen; // skip all prefix letters shared with this node in the iteration
 
             // CASE 2a: the current node's prefix partial has remaining letters not shared by word[i:end]
             // split this node into two with the first (parent) containing letters shared by word[i:end], and the second
             // (child) containing this node's unique letters and values
             if (commonPrefixLen < node.prefixPartial.length()) {
-                System.out.println("    Common prefix for node (\"" + node.prefixPartial + "\") and target \"" + word + "\" is smaller than node's prefix. Splitting node.");
                 // new child node copies this node's existing children and data
-                CompactTrieNode<T, F> newChildNode = new CompactTrieNode<>(node.prefixPartial.substring(commonPrefixLen));
-                newChildNode.isWordEnd = node.isWordEnd;
-                newChildNode.children = node.children;
-                newChildNode.data = node.data; // copy reference to associated field/object map
+                CompactTrieNode newChildNode = new CompactTrieNode(node.prefixPartial.substring(commonPrefixLen), epoch);
+                newChildNode.takeChildrenFrom(node);
+                newChildNode.takeDataFrom(node); // move reference to associated object set
+                newChildNode.adjustSubtreeCount(node.subtreeCount()); // the new child holds this node's whole subtree
+                newChildNode.raiseMaxWeight(node.maxWeight());
 
                 // replace the attributes of this node with new substring and data,add newChildNode as child
-                node.data = null; // dereference this node's data
                 node.prefixPartial = node.prefixPartial.substring(0, commonPrefixLen);
-                node.children = new HashMap<>();
-                node.children.put(newChildNode.prefixPartial.charAt(0), newChildNode); // reference child with first char
-
-                System.out.println("        Child" + newChildNode + " added for " + node + "with key: " + newChildNode.prefixPartial.charAt(0));
+                node.putChild(newChildNode.prefixPartial.charAt(0), newChildNode); // reference child with first char
+                if (listener != null) {
+                    listener.onSplit(word.substring(0, i), newChildNode.prefixPartial);
+                    listener.onNodeCreated();
+                }
 
                 // this node is the end of the word we are inserting if it's length matches the inserted word, data should be inserted if true.
                 node.isWordEnd = (i == word.length());
                 if (node.isWordEnd) {
-                    System.out.println("        Word end found for " + word + ". Adding data to node...");
-                    node.addObject(object, field);
-                    System.out.println("            Data added: " + node);
+                    isAdded = node.addObject(ordinal);
+                    if (listener != null) {
+                        listener.onKeyAdded();
+                        listener.onInsert(word, field, depth, 1);
+                    }
                 }
             } else if (commonPrefixLen == node.prefixPartial.length() && i == word.length()) { // this node is the end of the word, add data
-                System.out.println("        Word end found for " + word + ". Adding data to node...");
-                node.addObject(object, field);
-                System.out.println("            Data added: " + node);
+                if (!node.isWordEnd) { // may be a node left behind by a split
+                    node.isWordEnd = true;
+                    if (listener != null) listener.onKeyAdded();
+                }
+                isAdded = node.addObject(ordinal);
+                if (listener != null) listener.onInsert(word, field, depth, node.data.size());
             }
             // CASE 2b: there are remaining letters of the word we are inserting, looping again will create the new node
             // for the remainder of our word.
         }
+        CompactTrieNode wordEnd = path.get(path.size() - 1);
+        if (isAdded) { // inserting an object twice does not count it twice
+            for (CompactTrieNode pathNode : path) {
+                pathNode.adjustSubtreeCount(1);
+                pathNode.raiseMaxWeight(wordEnd.data.size());
+            }
+        }
+        return wordEnd;
+    }
+
+    // a key indexing object under a field, gathered by bulkLoad
+    private record KeyEntry(String key, int ordinal) {}
+
+    // Converts a search to the key of each searched field, normalizing it once for each distinct normalizer rather than
+    // once for each field. Fields share a normalizer unless one was set with setKeyNormalizer.
+    private class QueryKey {
+        private final CharSequence query;
+        private KeyNormalizer normalizer; // normalizer of the last key returned
+        private String key;
+
+        QueryKey(CharSequence query) {
+            this.query = query;
+        }
+
+        String of(F field) {
+            KeyNormalizer fieldNormalizer = normalizers[field.ordinal()];
+            if (fieldNormalizer != normalizer) {
+                normalizer = fieldNormalizer;
+                key = keyOf(field, query);
+            }
+            return key;
+        }
+    }
+
+    // the prefix nodes matching one token of a query, with the number of keys below them
+    private record TokenMatch(List<CompactTrieNode> nodes, int count) {}
+
+    // Finds the k heaviest distinct keys starting with prefix in the trees of the searched fields, best first. A node
+    // is queued with the weight of its heaviest key, which no key below it exceeds, and its path, which every key below
+    // it starts with, so a node polled before a key cannot hide a key that should come first.
+    private List<ValueCount> heaviestKeys(CharSequence prefix, F field, int k) {
+        CompactTrieNode[] roots = this.roots;
+        QueryKey queryKey = new QueryKey(prefix);
+        PriorityQueue<RankedKey> queue = new PriorityQueue<>();
+        for (F searchField : searchFields(roots, field)) {
+            String key = queryKey.of(searchField);
+            if (key.isEmpty() && !prefix.isEmpty()) {
+                continue; // nothing in prefix is part of this field's keys
+            }
+            CompactTrieNode root = roots[searchField.ordinal()];
+            CompactTrieNode node = prefixNode(root, key);
+            if (node != null && node.maxWeight() > 0) {
+                queue.add(new RankedKey(node.maxWeight(), pathTo(root, key), node));
+            }
+        }
+        return heaviestKeys(queue, k);
+    }
+
+    // Polls the k heaviest distinct keys from a queue of nodes ranked by the weight of their heaviest key, opening a
+    // node only when it reaches the head of the queue
+    private static List<ValueCount> heaviestKeys(PriorityQueue<RankedKey> queue, int k) {
+        Map<String, ValueCount> values = new LinkedHashMap<>(); // a key found in several fields keeps its heaviest
+        while (!queue.isEmpty() && values.size() < k) {
+            RankedKey ranked = queue.poll();
+            CompactTrieNode node = ranked.node();
+            if (node == null) {
+                values.putIfAbsent(ranked.key(), new ValueCount(ranked.key(), ranked.count()));
+                continue;
+            }
+            if (hasData(node)) {
+                queue.add(new RankedKey(node.dataSize(), ranked.key(), null));
+            }
+            node.forEachChild(child -> {
+                if (child.maxWeight() > 0) {
+                    queue.add(new RankedKey(child.maxWeight(), ranked.key() + child.partial(), child));
+                }
+            });
+        }
+        return new ArrayList<>(values.values());
+    }
+
+    // A key, or a node whose keys all start with key, ranked for heaviestKeys: the greatest weight first, then the
+    // smallest key, then a key before a node on the same path. node is null for a key.
+    private record RankedKey(int count, String key, CompactTrieNode node) implements Comparable<RankedKey> {
+        @Override
+        public int compareTo(RankedKey other) {
+            if (count != other.count) {
+                return Integer.compare(other.count, count);
+            }
+            int order = key.compareTo(other.key);
+            if (order != 0) {
+                return order;
+            }
+            return Boolean.compare(node != null, other.node != null);
+        }
+    }
+
+    // Returns the whole key of the prefix node of key below root, the path of partial prefixes leading to it. The node
+    // is recognized by where the path passes key's end rather than by identity.
+    private static String pathTo(CompactTrieNode root, String key) {
+        StringBuilder path = new StringBuilder();
+        for (CompactTrieNode node = root; path.length() < key.length(); ) {
+            node = node.getChild(key.charAt(path.length()));
+            path.append(node.partial());
+        }
+        return path.toString();
+    }
+
+    // Returns the prefix nodes of each distinct token of query, reading the roots of every field from the same edit
+    private List<TokenMatch> tokenMatches(String query, F field) {
+        CompactTrieNode[] roots = this.roots;
+        KeyTokenizer tokenizer = rootOf(roots, field) == null ? KeyTokenizer.WORDS : tokenizers[field.ordinal()];
+        List<TokenMatch> matches = new ArrayList<>();
+        for (String token : new LinkedHashSet<>(tokenizer.tokenize(query))) {
+            List<CompactTrieNode> nodes = prefixNodes(roots, token, field);
+            int count = 0;
+            for (CompactTrieNode node : nodes) {
+                count += node.subtreeCount();
+            }
+            matches.add(new TokenMatch(nodes, count));
+        }
+        return matches;
+    }
+
+    // Bulk-load algorithm creating the children of parent from sorted entries[from:to), which share their first
+    // offset characters. Each run of keys sharing the character at offset becomes one child whose partial prefix is the
+    // run's longest common prefix; keys ending there become its data and the rest become its children.
+    private void buildChildren(CompactTrieNode parent, F field, List<KeyEntry> entries,
+                               int from, int to, int offset, int depth) {
+        int start = from;
+        while (start < to) {
+            char key = entries.get(start).key().charAt(offset);
+            int end = start + 1;
+            while (end < to && entries.get(end).key().charAt(offset) == key) {
+                end++;
+            }
+
+            // in sorted order the first and last keys of the run share the least with each other
+            String first = entries.get(start).key();
+            String last = entries.get(end - 1).key();
+            int prefixEnd = offset + 1;
+            while (prefixEnd < first.length() && first.charAt(prefixEnd) == last.charAt(prefixEnd)) {
+                prefixEnd++;
+            }
+            CompactTrieNode node = new CompactTrieNode(first.substring(offset, prefixEnd), epoch);
+            parent.putChild(key, node); // runs arrive in ascending key order
+            if (listener != null) listener.onNodeCreated();
+
+            // keys equal to the common prefix sort before every longer key of the run
+            int childStart = start;
+            while (childStart < end && entries.get(childStart).key().length() == prefixEnd) {
+                KeyEntry entry = entries.get(childStart++);
+                if (node.addObject(entry.ordinal())) {
+                    node.adjustSubtreeCount(1);
+                }
+                cacheNode(field, entry.ordinal(), entry.key(), node);
+                if (listener != null) {
+                    listener.onInsert(entry.key(), field, depth, node.data.size());
+                }
+            }
+            if (childStart > start) {
+                node.isWordEnd = true;
+                if (listener != null) listener.onKeyAdded();
+            }
+            buildChildren(node, field, entries, childStart, end, prefixEnd, depth + 1);
+            parent.adjustSubtreeCount(node.subtreeCount()); // counts are complete once every child of node is built
+            node.raiseMaxWeight(node.isWordEnd ? node.data.size() : 0);
+            parent.raiseMaxWeight(node.maxWeight());
+            start = end;
+        }
+    }
+
+    // Collects one page of a prefix search in key order, stopping once the page is full. Within the tree of one field
+    // that is not tokenized each entity is indexed at most once below the prefix, so subtrees that lie entirely before
+    // the page are skipped by their counts. Across several fields or tokens an entity may be indexed under several keys,
+    // so entities are collected until the page is full.
+    private class PrefixPage {
+        private final boolean isDistinct; // true when each entity is indexed at most once below the prefix
+        private final int limit;
+        private final int dropped; // distinct entities found before the page when entities may repeat
+        private int skip;          // matches left to skip before the page starts when entities are distinct
+        private final boolean isDescending; // children from the greatest key down, each before its parent's data
+        private final Set<T> found = new LinkedHashSet<>();
+
+        PrefixPage(boolean isDistinct, int limit, int offset, boolean isDescending) {
+            this.isDistinct = isDistinct;
+            this.limit = limit;
+            this.dropped = isDistinct ? 0 : offset;
+            this.skip = isDistinct ? offset : 0;
+            this.isDescending = isDescending;
+        }
+
+        void visit(CompactTrieNode node) {
+            if (isFull()) {
+                return;
+            }
+            if (isDistinct) {
+                int count = node.subtreeCount();
+                if (skip >= count) { // the page starts after this subtree
+                    skip -= count;
+                    return;
+                }
+            }
+            if (isDescending) { // a key comes after every longer key starting with it
+                node.forEachChildDescending(this::visit);
+            }
+            if (node.isWordEnd) {
+                addAll(node.dataIterator());
+            }
+            if (!isDescending) {
+                node.forEachChild(this::visit);
+            }
+        }
+
+        private void addAll(PrimitiveIterator.OfInt iterator) {
+            while (iterator.hasNext()) {
+                T object = ordinals.get(iterator.nextInt());
+                if (isFull()) {
+                    return;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    found.add(object);
+                }
+            }
+        }
+
+        private boolean isFull() {
+            return found.size() - dropped >= limit; // dropped + limit may overflow
+        }
+
+        List<T> results() {
+            List<T> results = new ArrayList<>(found);
+            return new ArrayList<>(results.subList(Math.min(dropped, results.size()), results.size()));
+        }
+    }
+
+    /**
+     * A cursor over the entities with an attribute starting with a query that grows and shrinks one character at a
+     * time, returned by {@link #cursor(Enum)}. For each searched field the cursor keeps the path of nodes from the root
+     * to the node of its query, and moves that path only by the characters that changed: appending a character
+     * compares it with the next character of the current node's partial prefix or follows one edge, and deleting one
+     * pops the nodes past the shorter query. The query is converted to keys by each field's normalizer as it changes,
+     * so a cursor matches exactly what {@link #streamWithPrefix(CharSequence, Enum)} would match for its query.
+     * <p>
+     * Paths are walked lazily when results are read, so several characters appended at once cost a single walk. The
+     * cursor also keeps the entities it last returned: a query reaching the same nodes returns them again, and a query
+     * extending the last one narrows them to the entities with a key starting with the longer key instead of
+     * collecting every posting below the new nodes. An edit of the trie invalidates every path and the kept entities,
+     * and the next read walks the query again from the current roots, so a cursor never reads nodes an edit may have
+     * changed or detached. A cursor of a snapshot is never invalidated. A cursor may only be used by one thread at a
+     * time.</p>
+     */
+    public class PrefixCursor {
+        private final F field;
+        private final StringBuilder query = new StringBuilder();
+        private final List<KeyPath> paths = new ArrayList<>(); // path in the tree of each searched field
+        private int walkedEdits = -1; // edit count of the trie when the paths were started, -1 before the first walk
+        private String[] walkedKeys = new String[0]; // key of each path on the last walk, null for a skipped field
+        private final List<KeyPath> reached = new ArrayList<>(); // paths that found a node on the last walk
+        private PostingList found; // entities last returned, null until results are first read
+        private String[] foundKeys; // walkedKeys of the walk found was read for
+        private List<CompactTrieNode> foundNodes; // nodes found was read from
+        private int foundEdits; // edit count of the trie when found was read
+
+        private PrefixCursor(F field) {
+            this.field = field;
+        }
+
+        /**
+         * Appends a character to the query
+         * @param c the character typed
+         * @return this cursor
+         */
+        public PrefixCursor append(char c) {
+            query.append(c);
+            return this;
+        }
+
+        /**
+         * Appends characters to the query
+         * @param text the characters typed
+         * @return this cursor
+         */
+        public PrefixCursor append(CharSequence text) {
+            query.append(text);
+            return this;
+        }
+
+        /**
+         * Removes the last character of the query
+         * @return false if the query was already empty
+         */
+        public boolean backspace() {
+            if (query.isEmpty()) {
+                return false;
+            }
+            query.setLength(query.length() - 1);
+            return true;
+        }
+
+        /**
+         * Replaces the query, such as with the text of a search box after any edit. Only the nodes past the prefix the
+         * new query shares with the current one are walked again.
+         * @param text the new query
+         * @return this cursor
+         */
+        public PrefixCursor setQuery(CharSequence text) {
+            int common = 0;
+            int max = Math.min(query.length(), text.length());
+            while (common < max && query.charAt(common) == text.charAt(common)) {
+                common++;
+            }
+            query.setLength(common);
+            query.append(text, common, text.length());
+            return this;
+        }
+
+        /** @return the current query */
+        public String query() {
+            return query.toString();
+        }
+
+        /**
+         * Counts the entities with an attribute starting with the query from the subtree counts of the nodes the
+         * cursor has reached, or from the entities it keeps for a tokenized field. Without a field, an entity is
+         * counted once for each of its attributes starting with the query, as with
+         * {@link #countWithPrefix(CharSequence, Enum)}.
+         * @return the number of attributes starting with the query
+         */
+        public int count() {
+            if (field != null && isTokenized(field)) {
+                return postings().size();
+            }
+            List<CompactTrieNode> nodes = nodes();
+            int count = 0;
+            for (CompactTrieNode node : nodes) {
+                count += node.subtreeCount();
+            }
+            return count;
+        }
+
+        /**
+         * Returns the entities with an attribute starting with the query. After an append, only the entities returned
+         * for the shorter query are checked.
+         * @return a read-only set of the entities with an attribute starting with the query
+         */
+        public Set<T> results() {
+            return ordinals.asSet(postings());
+        }
+
+        /**
+         * Returns a lazy stream of the entities with an attribute starting with the query, read in the same way as
+         * {@link #streamWithPrefix(CharSequence, Enum)}
+         * @return a stream of the distinct entities with attributes starting with the query
+         */
+        public Stream<T> stream() {
+            return streamBelow(nodes(), field);
+        }
+
+        /**
+         * Returns one page of the entities with an attribute starting with the query, collected in the same way as
+         * {@link #searchWithPrefix(CharSequence, Enum, int, int)}
+         * @param limit  The largest number of entities to return
+         * @param offset The number of matching entities to skip before the page
+         * @return a list of at most limit distinct entities with attributes starting with the query
+         * @throws IllegalArgumentException if limit or offset is negative
+         */
+        public List<T> page(int limit, int offset) {
+            return page(limit, offset, false);
+        }
+
+        /**
+         * Returns one page of the entities with an attribute starting with the query, collected in the same way as
+         * {@link #searchWithPrefix(CharSequence, Enum, int, int, boolean)}
+         * @param limit        The largest number of entities to return
+         * @param offset       The number of matching entities to skip before the page
+         * @param isDescending true to page from the greatest key down
+         * @return a list of at most limit distinct entities with attributes starting with the query
+         * @throws IllegalArgumentException if limit or offset is negative
+         */
+        public List<T> page(int limit, int offset, boolean isDescending) {
+            if (limit < 0 || offset < 0) {
+                throw new IllegalArgumentException("Invalid page, limit " + limit + " and offset " + offset
+                        + " must not be negative.");
+            }
+            return pageBelow(nodes(), field, limit, offset, isDescending);
+        }
+
+        /**
+         * Returns the k best completions of the query, found as {@link #suggest(CharSequence, Enum, int)} finds them
+         * but starting from the nodes the cursor has reached rather than from the roots
+         * @param k The largest number of completions to return
+         * @return At most k distinct keys starting with the query, the heaviest first and keys of equal weight in
+         *         ascending order
+         * @throws IllegalArgumentException if k is negative
+         */
+        public List<String> suggest(int k) {
+            if (k < 0) {
+                throw new IllegalArgumentException("Invalid number of suggestions " + k + ", must not be negative.");
+            }
+            nodes();
+            PriorityQueue<RankedKey> queue = new PriorityQueue<>();
+            for (KeyPath path : reached) {
+                CompactTrieNode node = path.node();
+                if (node.maxWeight() > 0) {
+                    queue.add(new RankedKey(node.maxWeight(), path.nodeKey(), node));
+                }
+            }
+            List<String> suggestions = new ArrayList<>();
+            for (ValueCount value : heaviestKeys(queue, k)) {
+                suggestions.add(value.value());
+            }
+            return suggestions;
+        }
+
+        // Moves the path of each searched field to the key of the query, first starting every path again from the
+        // current roots if the trie was edited since they were walked, and returns the node each path ends at
+        private List<CompactTrieNode> nodes() {
+            int edits = editCount; // read before the roots, so an edit published in between is walked again next time
+            if (edits != walkedEdits) {
+                CompactTrieNode[] roots = CompactTrie.this.roots;
+                paths.clear();
+                for (F searchField : searchFields(roots, field)) {
+                    paths.add(new KeyPath(searchField, roots[searchField.ordinal()]));
+                }
+                walkedEdits = edits;
+            }
+            List<CompactTrieNode> nodes = new ArrayList<>(paths.size());
+            QueryKey queryKey = new QueryKey(query);
+            walkedKeys = new String[paths.size()];
+            reached.clear();
+            for (int i = 0; i < paths.size(); i++) {
+                KeyPath path = paths.get(i);
+                String key = queryKey.of(path.field);
+                if (key.isEmpty() && !query.isEmpty()) {
+                    continue; // nothing in the query is part of this field's keys
+                }
+                walkedKeys[i] = key;
+                CompactTrieNode node = path.moveTo(key);
+                if (node != null) {
+                    nodes.add(node);
+                    reached.add(path);
+                }
+            }
+            return nodes;
+        }
+
+        // Returns the entities matching the query: those last returned if the query reaches the same nodes, those
+        // last returned narrowed to the longer keys if the query extends theirs, or else every posting below the nodes
+        private PostingList postings() {
+            List<CompactTrieNode> nodes = nodes();
+            boolean isKept = found != null && foundEdits == walkedEdits;
+            if (!isKept || !isSameNodes(nodes)) {
+                found = isKept && extendsFoundKeys() ? narrow(found) : postingsBelow(nodes);
+            }
+            foundKeys = walkedKeys;
+            foundNodes = nodes;
+            foundEdits = walkedEdits;
+            return found;
+        }
+
+        // Returns true if nodes are the very nodes the kept entities were read from, in the same order
+        private boolean isSameNodes(List<CompactTrieNode> nodes) {
+            if (nodes.size() != foundNodes.size()) {
+                return false;
+            }
+            for (int i = 0; i < nodes.size(); i++) {
+                if (nodes.get(i) != foundNodes.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Returns true if every key of the last walk starts with the key of the same field the kept entities were
+        // read for, so no entity matches the query without being kept. A field skipped since then only matches less.
+        private boolean extendsFoundKeys() {
+            for (int i = 0; i < walkedKeys.length; i++) {
+                if (walkedKeys[i] != null && (foundKeys[i] == null || !walkedKeys[i].startsWith(foundKeys[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Keeps the entities of postings with a key starting with the key of the query in one of the searched fields
+        private PostingList narrow(PostingList postings) {
+            PostingList narrowed = new PostingList();
+            for (PrimitiveIterator.OfInt iterator = postings.iterator(); iterator.hasNext(); ) {
+                int ordinal = iterator.nextInt();
+                for (int i = 0; i < walkedKeys.length; i++) {
+                    if (walkedKeys[i] != null && hasKeyStartingWith(paths.get(i).field, ordinal, walkedKeys[i])) {
+                        narrowed.add(ordinal); // ordinals are read in ascending order, so each is appended
+                        break;
+                    }
+                }
+            }
+            return narrowed;
+        }
+    }
+
+    // The path of nodes from the root of one field's tree to the node of a key, kept by a PrefixCursor so the key can
+    // be lengthened or shortened from where the path ends instead of from the root
+    private class KeyPath {
+        private final F field;
+        private CompactTrieNode[] nodes = new CompactTrieNode[8]; // nodes[0] is the root, nodes[depth] the last node
+        private int[] ends = new int[8]; // ends[d] = length of the key through the partial prefix of nodes[d]
+        private int depth;
+        private String key = "";
+        private int matched; // length of the longest prefix of key found below the root, never past ends[depth]
+
+        KeyPath(F field, CompactTrieNode root) {
+            this.field = field;
+            this.nodes[0] = root;
+        }
+
+        // Moves the path to newKey, keeping the nodes of the prefix it shares with the current key, and returns the
+        // node below which every key starting with newKey is found, or null if no key starts with newKey
+        CompactTrieNode moveTo(String newKey) {
+            // step back to the node holding the last shared character, or the root if none are shared
+            int common = Math.min(matched, commonPrefixLength(key, newKey, 0));
+            while (depth > 0 && ends[depth - 1] >= common) {
+                depth--;
+            }
+            matched = common;
+
+            // step forward one character at a time, within the last node's partial or along the edge to a child
+            while (matched < newKey.length()) {
+                char c = newKey.charAt(matched);
+                CompactTrieNode node = nodes[depth];
+                if (matched == ends[depth]) { // end of the node's partial, follow the edge starting with c
+                    CompactTrieNode child = node.getChild(c);
+                    if (child == null) {
+                        break;
+                    }
+                    push(child, matched + child.partialLength());
+                } else if (node.partialCharAt(node.partialLength() - (ends[depth] - matched)) != c) {
+                    break;
+                }
+                matched++;
+            }
+            key = newKey;
+            return matched == key.length() ? nodes[depth] : null;
+        }
+
+        // Returns the last node of the path
+        CompactTrieNode node() {
+            return nodes[depth];
+        }
+
+        // Returns the whole key of the last node, the partial prefixes along the path, which may extend past key
+        String nodeKey() {
+            StringBuilder nodeKey = new StringBuilder(ends[depth]);
+            for (int d = 1; d <= depth; d++) {
+                nodeKey.append(nodes[d].partial());
+            }
+            return nodeKey.toString();
+        }
+
+        private void push(CompactTrieNode node, int end) {
+            if (++depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                ends = Arrays.copyOf(ends, depth * 2);
+            }
+            nodes[depth] = node;
+            ends[depth] = end;
+        }
+    }
+
+    // Walks the trie depth-first alongside the edit distance table between the query and each key, with one row of the
+    // table per key character. Rows are reused by key depth so the walk allocates nothing per node.
+    private class FuzzySearch {
+        private final String query;
+        private final int maxEdits;
+        private final PostingList results;
+        private int[][] rows;   // rows[d][i] = edits between the first d key characters and the first i query characters
+        private char[] keyPath; // key characters on the path to the current node
+
+        FuzzySearch(String query, int maxEdits, PostingList results) {
+            this.query = query;
+            this.maxEdits = maxEdits;
+            this.results = results;
+            rows = new int[query.length() + maxEdits + 2][query.length() + 1];
+            keyPath = new char[rows.length];
+            for (int i = 0; i <= query.length(); i++) {
+                rows[0][i] = i; // an empty key needs an insertion for every query character
+            }
+        }
+
+        // computes a row for each character of node's partial prefix, starting after depth key characters
+        void visit(CompactTrieNode node, int depth) {
+            int length = node.partialLength();
+            for (int c = 0; c < length; c++) {
+                int d = depth + c + 1;
+                if (d == rows.length) {
+                    rows = Arrays.copyOf(rows, rows.length * 2);
+                    keyPath = Arrays.copyOf(keyPath, rows.length);
+                }
+                if (rows[d] == null) {
+                    rows[d] = new int[query.length() + 1];
+                }
+                keyPath[d - 1] = node.partialCharAt(c);
+                if (computeRow(d) > maxEdits) {
+                    return; // every key below needs too many edits
+                }
+            }
+
+            int d = depth + length;
+            if (node.isWordEnd && rows[d][query.length()] <= maxEdits) {
+                node.addDataTo(results);
+            }
+            node.forEachChild(child -> visit(child, d));
+        }
+
+        // fills rows[d] from the rows above it and returns the smallest value in the row
+        private int computeRow(int d) {
+            int[] row = rows[d], above = rows[d - 1];
+            char keyChar = keyPath[d - 1];
+            row[0] = d;
+            int min = d;
+            for (int i = 1; i <= query.length(); i++) {
+                char queryChar = query.charAt(i - 1);
+                int edits = Math.min(Math.min(row[i - 1], above[i]) + 1,              // insertion, deletion
+                        above[i - 1] + (queryChar == keyChar ? 0 : 1));                // substitution
+                if (d > 1 && i > 1 && queryChar == keyPath[d - 2] && query.charAt(i - 2) == keyChar) {
+                    edits = Math.min(edits, rows[d - 2][i - 2] + 1);                  // transposition
+                }
+                row[i] = edits;
+                min = Math.min(min, edits);
+            }
+            return min;
+        }
     }
 
     // HELPER METHODS //
@@ -375,9 +2367,24 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
      * @return length of the longest shared prefix.
      */
     public int commonPrefixLength(String str1, String str2) {
+        return commonPrefixLength(str1, str2, 0);
+    }
+
+    // length of the longest prefix shared by node's partial prefix and word[offset:end], compared in place
+    private static int commonPrefixLength(CompactTrieNode node, String word, int offset) {
+        int max = Math.min(node.partialLength(), word.length() - offset);
         int length = 0;
-        while (length < Math.min(str1.length(), str2.length())
-                && str1.charAt(length) == str2.charAt(length)) {
+        while (length < max && node.partialCharAt(length) == word.charAt(offset + length)) {
+            length++;
+        }
+        return length;
+    }
+
+    // length of the longest prefix shared by partial and word[offset:end], compared in place without a substring
+    private static int commonPrefixLength(String partial, String word, int offset) {
+        int max = Math.min(partial.length(), word.length() - offset);
+        int length = 0;
+        while (length < max && partial.charAt(length) == word.charAt(offset + length)) {
             length++;
         }
         return length;
@@ -386,36 +2393,32 @@ public class CompactTrie<T extends Entity<F>, F extends Enum<F>> {
     /**
      * @see #printChildren()
      */
-    private void printChildren(CompactTrieNode<T, F> node, int index) {
+    private void printChildren(CompactTrieNode node, int index) {
         for (int i = index; i > 0; i--) {
             System.out.print("|  ");
         }
         System.out.print(node + "\n");
         index++;
-        for (CompactTrieNode<T, F> entry : node.children.values()) {
+        for (CompactTrieNode entry : node.children()) {
             printChildren(entry, index);
         }
     }
 
-    // helper method to add all objects from this current node and its descendents to the set, filtered by field type
-    private void addAllFrom(CompactTrieNode<T, F> node, F fieldType, Set<T> results) {
-        Stack<CompactTrieNode<T, F>> stack = new Stack<>();
+    // helper method to add all objects from this current node and its descendents to the set
+    private void addAllFrom(CompactTrieNode node, PostingList results) {
+        Stack<CompactTrieNode> stack = new Stack<>();
+        Consumer<CompactTrieNode> pushChild = stack::push;
         stack.push(node);
         // Pushes each node's children to a stack to be iterated through until traversing all descendents
         // any node containing data is added to the set
         while (!stack.isEmpty()) {
-            CompactTrieNode<T, F> currNode = stack.pop();
-            // If the current node is a word end, add its data for the given field if specified, or all fields
-            if (currNode.isWordEnd && currNode.data != null) {
-                Set<T> nodeData = currNode.getData(fieldType);
-                if (nodeData != null) {
-                    results.addAll(nodeData);
-                }
+            CompactTrieNode currNode = stack.pop();
+            // If the current node is a word end, add its data
+            if (currNode.isWordEnd) {
+                currNode.addDataTo(results);
             }
             // push current node's children to the stack to process
-            for (CompactTrieNode<T, F> childNode : currNode.children.values()) {
-                stack.push(childNode);
-            }
+            currNode.forEachChild(pushChild);
         }
     }
 }
@@ -1,63 +1,494 @@
 package edu.snhu.dayplanner.service;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+
+/**
+ * A single node of a {@link CompactTrie}, holding a partial prefix, the data of any word ending at this node, and
+ * links to child nodes found through the first character of each child's partial prefix ("Next letter"). Each field
+ * of a trie is indexed in a separate tree of nodes, so a node's data holds the objects of a single field. Objects are
+ * held as a {@link PostingList} of the ordinals their {@link EntityOrdinals} table assigned them.
+ * <p>
+ * Children are stored with primitive {@code char} keys in one of several adaptive layouts, switched automatically as
+ * children are added and removed:</p>
+ * <ul>
+ * <li>no arrays at all for leaves without children</li>
+ * <li>inline sorted arrays of up to {@value #SMALL_CAPACITY} children, searched linearly</li>
+ * <li>sorted arrays of up to {@value #SORTED_CAPACITY} children, searched with a binary search</li>
+ * <li>a dense table indexed directly by {@code key - denseBase} for wide nodes whose keys span no more than
+ * {@value #DENSE_SPAN} characters</li>
+ * </ul>
+ * Every layout keeps children in ascending key order when iterated.
+ * <p>
+ * Each node records the write epoch of the {@link CompactTrie} that created it. A trie only modifies nodes of its
+ * current epoch in place; nodes of earlier epochs may be visible to readers and are copied with
+ * {@link #copy(int)} before being changed.</p>
+ * <p>
+ * Each node also counts the data of its whole subtree, so the number of keys below a prefix is known without
+ * visiting the subtree. It also keeps the weight of the heaviest key in its subtree, the most objects indexed under any
+ * one word below it, so the heaviest keys below a prefix are found without visiting lighter subtrees. The trie keeps
+ * both current as it inserts and deletes data.</p>
+ * <p>
+ * Nodes that are only read, such as nodes of a {@link TrieImage} that are never copied to the heap, are read through
+ * the accessors of their partial prefix and data rather than the fields, so a subclass may read them in place.</p>
+ */
+public class CompactTrieNode {
+    static final int SMALL_CAPACITY = 4;     // children searched linearly
+    static final int SORTED_CAPACITY = 32;   // children searched with binary search before becoming dense
+    static final int DENSE_SPAN = 256;       // widest range of keys a dense table may cover
+    private static final int DENSE_SHRINK = 24; // dense tables below this many children return to sorted arrays
+    private static final PrimitiveIterator.OfInt NO_DATA = new PostingList().iterator(); // never advances
 
-public class CompactTrieNode<T, F extends Enum<F>> {
     // Allows children node to be found through the associated character "Next letter".
-    public Map<Character, CompactTrieNode<T, F>> children = new HashMap<>();
+    private char[] childKeys;                     // sorted keys, null when empty or dense
+    private CompactTrieNode[] childNodes;      // nodes parallel to childKeys, or the dense table
+    private char denseBase;                       // key of childNodes[0] when dense
+    private int childCount;
+    int epoch;                    // write epoch of the trie when this node was created or copied
+    private boolean isDataShared; // data is still referenced by the node this was copied from
+    private int subtreeCount;     // objects in the data of this node and its descendants
+    private int maxWeight;        // most objects in the data of any one word end of this node and its descendants
+    // node this was last linked below, null once unlinked. Only the writer reads it, and only trusts it for nodes of
+    // its current epoch, since copies made for earlier epochs leave the children they share linked to the original.
+    CompactTrieNode parent;
+
     public boolean isWordEnd = false; // denotes if this node is a complete word
-    public Map<F, Set<T>> data; // represents a words associated Fields and all objects associated with that field.
+    public PostingList data; // ordinals of all objects with an attribute matching the word ending at this node
     public String prefixPartial;
 
     public CompactTrieNode(String keyPartial) {
         this.prefixPartial = keyPartial;
         data = null;
     }
-    public CompactTrieNode(String keyPartial, F field, T object) {
-        this.prefixPartial = keyPartial;
-        data = new HashMap<F, Set<T>>();
-        addObject(object, field);
+    CompactTrieNode(String keyPartial, int epoch) {
+        this(keyPartial);
+        this.epoch = epoch;
+    }
+
+    // CHILDREN
+    /**
+     * Returns the child whose partial prefix starts with key, or null if there is none
+     * @param key first character of the child's partial prefix
+     */
+    public CompactTrieNode getChild(char key) {
+        if (childCount == 0) {
+            return null;
+        }
+        if (childKeys == null) { // dense table
+            int slot = key - denseBase;
+            return slot >= 0 && slot < childNodes.length ? childNodes[slot] : null;
+        }
+        int index = indexOf(key);
+        return index >= 0 ? childNodes[index] : null;
+    }
+
+    /**
+     * Links child to this node with key, replacing any child already linked to key.
+     * @param key first character of the child's partial prefix
+     * @param child node to link
+     */
+    public void putChild(char key, CompactTrieNode child) {
+        child.parent = this;
+        if (childKeys == null && childNodes != null) { // dense table
+            int slot = key - denseBase;
+            if (slot >= 0 && slot < childNodes.length) {
+                if (childNodes[slot] == null) childCount++;
+                childNodes[slot] = child;
+                return;
+            }
+            toSorted(childCount + 1); // key falls outside of the table's span
+        }
+
+        int index = indexOf(key);
+        if (index >= 0) { // replace existing child
+            childNodes[index] = child;
+            return;
+        }
+        index = -(index + 1); // insertion point keeping keys sorted
+
+        if (childKeys == null || childCount == childKeys.length) {
+            if (childCount >= SORTED_CAPACITY && toDense(key)) {
+                childNodes[key - denseBase] = child;
+                childCount++;
+                return;
+            }
+            int capacity = childCount < SMALL_CAPACITY ? SMALL_CAPACITY : childCount * 2;
+            childKeys = childKeys == null ? new char[capacity] : Arrays.copyOf(childKeys, capacity);
+            childNodes = childNodes == null ? new CompactTrieNode[capacity] : Arrays.copyOf(childNodes, capacity);
+        }
+        System.arraycopy(childKeys, index, childKeys, index + 1, childCount - index);
+        System.arraycopy(childNodes, index, childNodes, index + 1, childCount - index);
+        childKeys[index] = key;
+        childNodes[index] = child;
+        childCount++;
+    }
+
+    /**
+     * Removes the child linked to key if it exists, shrinking the child layout when it is sparse enough.
+     * @param key first character of the child's partial prefix
+     * @return the child that was removed or null
+     */
+    public CompactTrieNode removeChild(char key) {
+        if (childCount == 0) {
+            return null;
+        }
+        CompactTrieNode removed;
+        if (childKeys == null) { // dense table
+            int slot = key - denseBase;
+            if (slot < 0 || slot >= childNodes.length || childNodes[slot] == null) {
+                return null;
+            }
+            removed = childNodes[slot];
+            removed.parent = null;
+            childNodes[slot] = null;
+            childCount--;
+            if (childCount < DENSE_SHRINK) {
+                toSorted(childCount);
+            }
+            return removed;
+        }
+
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        removed = childNodes[index];
+        removed.parent = null;
+        System.arraycopy(childKeys, index + 1, childKeys, index, childCount - index - 1);
+        System.arraycopy(childNodes, index + 1, childNodes, index, childCount - index - 1);
+        childCount--;
+        childNodes[childCount] = null;
+
+        if (childCount == 0) { // leaves hold no arrays
+            childKeys = null;
+            childNodes = null;
+        } else if (childKeys.length > SMALL_CAPACITY && childCount <= childKeys.length / 4) {
+            int capacity = Math.max(SMALL_CAPACITY, childCount * 2);
+            childKeys = Arrays.copyOf(childKeys, capacity);
+            childNodes = Arrays.copyOf(childNodes, capacity);
+        }
+        return removed;
+    }
+
+    /** @return the number of children linked to this node */
+    public int childCount() {
+        return childCount;
+    }
+
+    /** @return true if this node has no children */
+    public boolean hasNoChildren() {
+        return childCount == 0;
+    }
+
+    /**
+     * @return the estimated heap bytes of this node and its child arrays, not counting its partial prefix, its data,
+     * or its children
+     */
+    long estimatedBytes() {
+        long bytes = HeapSize.object(5 * HeapSize.REFERENCE + 2 + 4 * HeapSize.INT + 2);
+        if (childKeys != null) {
+            bytes += HeapSize.array(childKeys.length, 2);
+        }
+        if (childNodes != null) {
+            bytes += HeapSize.array(childNodes.length, HeapSize.REFERENCE);
+        }
+        return bytes;
+    }
+
+    /** @return the only child of this node, or the child with the lowest key if there are several, or null */
+    public CompactTrieNode firstChild() {
+        if (childCount == 0) {
+            return null;
+        }
+        if (childKeys != null) {
+            return childNodes[0];
+        }
+        for (CompactTrieNode child : childNodes) {
+            if (child != null) return child;
+        }
+        return null;
+    }
+
+    /** @return the children of this node in ascending key order */
+    public List<CompactTrieNode> children() {
+        List<CompactTrieNode> result = new ArrayList<>(childCount);
+        if (childCount == 0) {
+            return result;
+        }
+        if (childKeys != null) {
+            result.addAll(Arrays.asList(childNodes).subList(0, childCount));
+        } else {
+            for (CompactTrieNode child : childNodes) {
+                if (child != null) result.add(child);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Performs action for each child of this node in ascending key order without allocating a list of children
+     * @param action called with each child
+     */
+    public void forEachChild(Consumer<CompactTrieNode> action) {
+        if (childCount == 0) {
+            return;
+        }
+        int length = childKeys != null ? childCount : childNodes.length;
+        for (int i = 0; i < length; i++) {
+            if (childNodes[i] != null) action.accept(childNodes[i]);
+        }
+    }
+
+    /**
+     * Performs action for each child of this node in descending key order without allocating a list of children
+     * @param action called with each child
+     */
+    public void forEachChildDescending(Consumer<CompactTrieNode> action) {
+        if (childCount == 0) {
+            return;
+        }
+        int length = childKeys != null ? childCount : childNodes.length;
+        for (int i = length - 1; i >= 0; i--) {
+            if (childNodes[i] != null) action.accept(childNodes[i]);
+        }
     }
 
-    // removes an object associated with a specified field. If that field has no associations, removes field from data.
-    public void removeObject(F field, T object) {
-        Set<T> objects = data.get(field);
-        if (objects != null) {
-            objects.remove(object);
-            if (objects.isEmpty()) {
-                data.remove(field);
+    /**
+     * Moves every child of other to this node, leaving other without children. Any children this node had are
+     * dropped.
+     * @param other node giving up its children
+     */
+    public void takeChildrenFrom(CompactTrieNode other) {
+        childKeys = other.childKeys;
+        childNodes = other.childNodes;
+        denseBase = other.denseBase;
+        childCount = other.childCount;
+        other.childKeys = null;
+        other.childNodes = null;
+        other.childCount = 0;
+        forEachChild(child -> child.parent = this);
+    }
+
+    /**
+     * Returns a copy of this node for the given write epoch, sharing its children and data with this node. Child
+     * links are copied so the copy may link new children, and data is copied the first time the copy changes it.
+     * @param epoch write epoch that owns the copy
+     */
+    CompactTrieNode copy(int epoch) {
+        CompactTrieNode copy = new CompactTrieNode(prefixPartial, epoch);
+        copy.childKeys = childKeys == null ? null : childKeys.clone();
+        copy.childNodes = childNodes == null ? null : childNodes.clone();
+        copy.denseBase = denseBase;
+        copy.childCount = childCount;
+        copy.isWordEnd = isWordEnd;
+        copy.data = data;
+        copy.isDataShared = data != null;
+        copy.subtreeCount = subtreeCount;
+        copy.maxWeight = maxWeight;
+        return copy;
+    }
+
+    // search for key in the sorted child keys, returns the index or -(insertion point + 1) like Arrays.binarySearch
+    private int indexOf(char key) {
+        if (childKeys == null) {
+            return -1;
+        }
+        if (childCount <= SMALL_CAPACITY) { // scan inline keys
+            for (int i = 0; i < childCount; i++) {
+                if (childKeys[i] == key) return i;
+                if (childKeys[i] > key) return -(i + 1);
+            }
+            return -(childCount + 1);
+        }
+        return Arrays.binarySearch(childKeys, 0, childCount, key);
+    }
+
+    // converts full sorted arrays to a dense table if every key including newKey fits within DENSE_SPAN
+    private boolean toDense(char newKey) {
+        char low = (char) Math.min(childKeys[0], newKey);
+        char high = (char) Math.max(childKeys[childCount - 1], newKey);
+        if (high - low >= DENSE_SPAN) {
+            return false;
+        }
+        CompactTrieNode[] table = new CompactTrieNode[high - low + 1];
+        for (int i = 0; i < childCount; i++) {
+            table[childKeys[i] - low] = childNodes[i];
+        }
+        childKeys = null;
+        childNodes = table;
+        denseBase = low;
+        return true;
+    }
+
+    // converts a dense table back to sorted arrays with room for at least capacity children
+    private void toSorted(int capacity) {
+        capacity = Math.max(SMALL_CAPACITY, capacity);
+        char[] keys = new char[capacity];
+        CompactTrieNode[] nodes = new CompactTrieNode[capacity];
+        int count = 0;
+        for (int slot = 0; slot < childNodes.length; slot++) {
+            if (childNodes[slot] != null) {
+                keys[count] = (char) (denseBase + slot);
+                nodes[count++] = childNodes[slot];
             }
         }
+        childKeys = keys;
+        childNodes = nodes;
+    }
+
+    // PARTIAL PREFIX
+    /** @return the number of characters in this node's partial prefix */
+    int partialLength() {
+        return prefixPartial.length();
+    }
+
+    /**
+     * @param index position within this node's partial prefix
+     * @return the character of this node's partial prefix at index
+     */
+    char partialCharAt(int index) {
+        return prefixPartial.charAt(index);
+    }
+
+    /** @return this node's partial prefix as a String */
+    String partial() {
+        return prefixPartial;
+    }
+
+    /** @return the estimated heap bytes of this node's partial prefix */
+    long partialBytes() {
+        return HeapSize.string(prefixPartial);
+    }
+
+    // SUBTREE COUNTS
+    /** @return the number of objects in the data of this node and every descendant */
+    public int subtreeCount() {
+        return subtreeCount;
+    }
+
+    /**
+     * Changes the subtree count by delta after objects are added to or removed from this subtree
+     * @param delta the change in the number of objects
+     */
+    void adjustSubtreeCount(int delta) {
+        subtreeCount += delta;
+    }
+
+    /** @return the number of objects in the data of the word end of this subtree holding the most objects */
+    public int maxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Raises the greatest key weight of this subtree to weight if it is greater, after objects are added to a key below
+     * @param weight the number of objects now indexed under a key in this subtree
+     */
+    void raiseMaxWeight(int weight) {
+        if (weight > maxWeight) {
+            maxWeight = weight;
+        }
+    }
+
+    /**
+     * Recomputes the greatest key weight of this subtree from this node's data and its children's greatest weights,
+     * after objects are removed from a key below
+     * @return true if the weight changed
+     */
+    boolean refreshMaxWeight() {
+        int weight = isWordEnd && data != null ? data.size() : 0;
+        int[] heaviest = {weight};
+        forEachChild(child -> heaviest[0] = Math.max(heaviest[0], child.maxWeight()));
+        boolean isChanged = heaviest[0] != maxWeight;
+        maxWeight = heaviest[0];
+        return isChanged;
+    }
+
+    // DATA
+    /**
+     * Moves the data and word end status of other to this node, leaving other without data.
+     * @param other node giving up its data
+     */
+    public void takeDataFrom(CompactTrieNode other) {
+        data = other.data;
+        isDataShared = other.isDataShared;
+        isWordEnd = other.isWordEnd;
+        other.data = null;
+        other.isDataShared = false;
+        other.isWordEnd = false;
+    }
+
+    // copies data still shared with the node this was copied from, so changes are not visible through that node
+    private void ownData() {
+        if (isDataShared) {
+            data = data.copy();
+            isDataShared = false;
+        }
+    }
+
+    // removes an object's ordinal from this node's data, returns true if it was in the data
+    public boolean removeObject(int ordinal) {
+        if (data == null || !data.contains(ordinal)) {
+            return false;
+        }
+        ownData();
+        return data.remove(ordinal);
     }
 
-    // adds an object associated with a specified field to this Node
-    public void addObject(T object, F field) {
-        // initialize hashmap if null
+    // adds an object's ordinal to this node's data, returns false if it was already in the data
+    public boolean addObject(int ordinal) {
+        // initialize the list with the ordinal if null
         if (data == null) {
-            data = new HashMap<>();
+            data = new PostingList(ordinal);
+            return true;
         }
-        // initialize arraylist if field is new, then adds object to the arraylist.
-        data.computeIfAbsent(field, k -> new HashSet<T>()).add(object);
+        ownData();
+        return data.add(ordinal);
+    }
+
+    // returns true if an object's ordinal is in this node's data
+    public boolean containsObject(int ordinal) {
+        return data != null && data.contains(ordinal);
+    }
+
+    // returns the ordinals stored in this node, or null. The list is owned by this node and must not be changed.
+    public PostingList getData() {
+        return data;
+    }
+
+    /** @return the number of objects in this node's data */
+    int dataSize() {
+        return data == null ? 0 : data.size();
     }
 
-    // returns a copy of the list of objects stored in this node associated with the specified field or null
-    public Set<T> getData(F field) {
-        if (field == null) {
-            return data == null ? null : data.values().stream()
-                    .flatMap(Set::stream)// combines each list in data to a single List
-                    .collect(Collectors.toSet()); // convert stream to set
-        } else return data == null ? null : data.get(field);
+    /** @return true if this node holds a data list that every object has been removed from */
+    boolean hasEmptyData() {
+        return data != null && data.isEmpty();
+    }
+
+    /** @return the ordinals in this node's data in ascending order, without copying the data */
+    PrimitiveIterator.OfInt dataIterator() {
+        return data == null ? NO_DATA : data.iterator();
+    }
+
+    /**
+     * Adds the ordinals of this node's data to results
+     * @param results the postings to add to
+     */
+    void addDataTo(PostingList results) {
+        if (data != null) {
+            results.addAll(data);
+        }
     }
 
-    // returns all objects stored in this node regardless of associated field, without duplicates, or null.
-    public Set<T> getData() {
-        return getData(null);
+    /** @return the estimated heap bytes of this node's data */
+    long dataBytes() {
+        return data == null ? 0 : data.estimatedBytes();
     }
 
     @Override
     public String toString() {
-        String ret = "(\"" + prefixPartial + "\"";
+        String ret = "(\"" + partial() + "\"";
+        PostingList data = getData();
         if (data != null) {
             ret += " Data: " + data;
         }
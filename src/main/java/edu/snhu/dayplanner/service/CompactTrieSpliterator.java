@@ -0,0 +1,111 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over the data of one or more {@link CompactTrie} subtrees, visiting nodes of each subtree in
+ * ascending key order and reading each node's data in place without copying it into a new collection.
+ * <p>
+ * The spliterator holds the subtrees it has yet to visit. Splitting hands the data being read and the first half of
+ * those subtrees to the new spliterator, so both halves keep key order and can be traversed in parallel. Sizes come
+ * from the subtree counts of each node, so the size of each half is exact.</p>
+ * <p>
+ * An object is returned once for each key it is indexed with in the subtrees. Within the tree of a field that is not
+ * tokenized an object has only one key, so the objects of a single such subtree are distinct. The nodes must not
+ * change while the spliterator is in use, which holds for nodes reachable from a snapshot or from a concurrent trie's
+ * published roots.</p>
+ *
+ * @param <T> The type of entity stored in the trie
+ */
+class CompactTrieSpliterator<T> implements Spliterator<T> {
+    private static final PrimitiveIterator.OfInt EMPTY = new PostingList().iterator();
+
+    private final boolean isDistinct;             // true when no object is indexed twice in the subtrees
+    private final Deque<CompactTrieNode> pending; // subtrees not yet visited, next subtree first
+    private final EntityOrdinals<T> ordinals;     // entities of the ordinals held by the nodes
+    private PrimitiveIterator.OfInt objects = EMPTY; // ordinals of the current node left to read
+    private long size; // objects left to return
+
+    /**
+     * Creates a spliterator over every object in the subtrees of nodes, read one subtree after another
+     * @param nodes the roots of the subtrees, each from the tree of a different field
+     * @param isDistinct true if each object is indexed at most once in the subtrees
+     * @param ordinals the table that assigned the ordinals held by the nodes
+     */
+    CompactTrieSpliterator(List<CompactTrieNode> nodes, boolean isDistinct, EntityOrdinals<T> ordinals) {
+        this.isDistinct = isDistinct;
+        this.ordinals = ordinals;
+        this.pending = new ArrayDeque<>(nodes);
+        for (CompactTrieNode node : nodes) {
+            this.size += node.subtreeCount();
+        }
+    }
+
+    private CompactTrieSpliterator(boolean isDistinct, EntityOrdinals<T> ordinals, Deque<CompactTrieNode> pending,
+                                   PrimitiveIterator.OfInt objects, long size) {
+        this.isDistinct = isDistinct;
+        this.ordinals = ordinals;
+        this.pending = pending;
+        this.objects = objects;
+        this.size = size;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (!objects.hasNext()) {
+            if (!pending.isEmpty()) {
+                visitNext();
+            } else {
+                return false;
+            }
+        }
+        size--;
+        action.accept(ordinals.get(objects.nextInt()));
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        // expand single subtrees until there are several to share, while this spliterator holds no unread data
+        while (pending.size() == 1 && !objects.hasNext()) {
+            visitNext();
+        }
+        if (pending.size() < 2) {
+            return null;
+        }
+
+        // the prefix, including any data being read, goes to the new spliterator
+        Deque<CompactTrieNode> prefix = new ArrayDeque<>();
+        for (int n = pending.size() / 2; n > 0; n--) {
+            prefix.add(pending.poll());
+        }
+        long suffixSize = 0;
+        for (CompactTrieNode node : pending) {
+            suffixSize += node.subtreeCount();
+        }
+        Spliterator<T> split = new CompactTrieSpliterator<>(isDistinct, ordinals, prefix, objects,
+                size - suffixSize);
+        objects = EMPTY;
+        size = suffixSize;
+        return split;
+    }
+
+    @Override
+    public long estimateSize() {
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        int characteristics = ORDERED | NONNULL | SIZED | SUBSIZED;
+        return isDistinct ? characteristics | DISTINCT : characteristics;
+    }
+
+    // moves to the next pending node, reading its data next and visiting its children before the other subtrees
+    private void visitNext() {
+        CompactTrieNode node = pending.poll();
+        node.forEachChildDescending(pending::push); // the lowest key is pushed last, so it is visited first
+        objects = node.dataIterator();
+    }
+}
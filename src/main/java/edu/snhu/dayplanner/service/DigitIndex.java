@@ -0,0 +1,302 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * An index of entities by a fixed-length string of digits, such as a phone number, answering exact, prefix and suffix
+ * lookups without boxing or hashing. Each key is packed into a {@code long} and held in two sorted primitive arrays,
+ * one of the keys and one of the keys with their digits reversed, so the entities starting or ending with k digits
+ * are a contiguous range found by binary search in O(log n + results).
+ * <p>
+ * Queries may be formatted: every character that is not an ASCII digit is skipped, so {@code "(555) 123-4567"} is
+ * looked up as {@code 5551234567}. Adding or removing an entity shifts the arrays, costing O(n), which suits keys
+ * that are read far more often than they are written. Entities added together with {@link #addAll(Collection)} are
+ * sorted once and merged into the arrays, costing O(n log n) for the whole batch.</p>
+ *
+ * @param <T> The type of entity stored in this index
+ */
+public class DigitIndex<T extends Entity<?>> {
+    private final int length;                   // digits in every key
+    private final long[] powers;                // powers[k] = 10^k for k in [0, length]
+    private final Function<T, String> keyOf;
+    private final Column forward = new Column(); // keys as written, for exact and prefix lookups
+    private final Column reverse = new Column(); // keys with their digits reversed, for suffix lookups
+    private final Map<String, Long> indexedKeys = new HashMap<>(); // id -> key the entity is indexed at
+
+    /**
+     * Initializes an empty index
+     * @param length the number of digits in every key, at most 18
+     * @param keyOf returns the key an entity is indexed at
+     * @throws IllegalArgumentException if length is not within [1, 18]
+     */
+    public DigitIndex(int length, Function<T, String> keyOf) {
+        if (length < 1 || length > 18) {
+            throw new IllegalArgumentException("Invalid length, " + length + ", must be within [1, 18].");
+        }
+        this.length = length;
+        this.keyOf = keyOf;
+        this.powers = new long[length + 1];
+        powers[0] = 1;
+        for (int i = 1; i <= length; i++) {
+            powers[i] = powers[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Indexes an entity at its current key, moving it if it was indexed at another key. An entity whose key does not
+     * hold exactly length digits is not indexed.
+     * @param object the entity to index
+     */
+    public void add(T object) {
+        long key = pack(keyOf.apply(object));
+        Long indexedKey = indexedKeys.get(object.getId());
+        if (indexedKey != null && indexedKey == key) {
+            return; // unchanged
+        }
+        if (indexedKey != null) {
+            removeAt(indexedKey, object);
+        }
+        if (key < 0) {
+            indexedKeys.remove(object.getId());
+            return;
+        }
+        indexedKeys.put(object.getId(), key);
+        forward.insert(key, object);
+        reverse.insert(reverse(key), object);
+    }
+
+    /**
+     * Indexes every entity at its current key, as {@link #add(Entity)} would one at a time. Entities new to this index
+     * are sorted by key once and merged into the arrays in a single pass; entities already indexed are moved one at a
+     * time.
+     * @param objects the entities to index, in the order entities of equal keys are kept
+     */
+    public void addAll(Collection<? extends T> objects) {
+        long[] keys = new long[objects.size()];
+        Object[] added = new Object[objects.size()];
+        int count = 0;
+        for (T object : objects) {
+            if (indexedKeys.containsKey(object.getId())) {
+                add(object);
+                continue;
+            }
+            long key = pack(keyOf.apply(object));
+            if (key >= 0) {
+                indexedKeys.put(object.getId(), key);
+                keys[count] = key;
+                added[count++] = object;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        forward.insertAll(keys, added, count);
+        long[] reversed = new long[count];
+        for (int i = 0; i < count; i++) {
+            reversed[i] = reverse(keys[i]);
+        }
+        reverse.insertAll(reversed, added, count);
+    }
+
+    /**
+     * Removes an entity from the key it was indexed at
+     * @param object the entity to remove
+     * @return false if the entity was not indexed
+     */
+    public boolean remove(T object) {
+        Long indexedKey = indexedKeys.remove(object.getId());
+        if (indexedKey == null) {
+            return false;
+        }
+        removeAt(indexedKey, object);
+        return true;
+    }
+
+    /**
+     * Returns the entities whose key is exactly the digits of query
+     * @param query the key to find, may contain formatting characters
+     * @return a list of the entities at the key, empty if there are none or query does not hold length digits
+     */
+    public List<T> find(CharSequence query) {
+        return digitCount(query) == length ? findByPrefix(query) : new ArrayList<>(0);
+    }
+
+    /**
+     * Returns the entities whose key starts with the digits of query, in ascending order of key
+     * @param query the leading digits to find, may contain formatting characters
+     * @return a list of the matching entities, every entity if query holds no digits, or none if it holds more
+     * than length
+     */
+    public List<T> findByPrefix(CharSequence query) {
+        int digits = digitCount(query);
+        if (digits > length) {
+            return new ArrayList<>(0);
+        }
+        long value = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            }
+        }
+        return forward.range(value * powers[length - digits], (value + 1) * powers[length - digits]);
+    }
+
+    /**
+     * Returns the entities whose key ends with the digits of query, in ascending order of reversed key
+     * @param query the trailing digits to find, may contain formatting characters
+     * @return a list of the matching entities, every entity if query holds no digits, or none if it holds more
+     * than length
+     */
+    public List<T> findBySuffix(CharSequence query) {
+        int digits = digitCount(query);
+        if (digits > length) {
+            return new ArrayList<>(0);
+        }
+        long value = 0; // the digits of query in reverse, the leading digits of the reversed key
+        for (int i = query.length() - 1; i >= 0; i--) {
+            char c = query.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            }
+        }
+        return reverse.range(value * powers[length - digits], (value + 1) * powers[length - digits]);
+    }
+
+    /** @return the number of indexed entities */
+    public int size() {
+        return forward.size;
+    }
+
+    // removes object from both columns at key
+    private void removeAt(long key, T object) {
+        forward.remove(key, object);
+        reverse.remove(reverse(key), object);
+    }
+
+    // returns the digits of key as a number, or -1 if key is null or does not hold exactly length digits
+    private long pack(String key) {
+        if (key == null || key.length() != length) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // returns key with its length digits, including leading zeros, in reverse order
+    private long reverse(long key) {
+        long reversed = 0;
+        for (int i = 0; i < length; i++) {
+            reversed = reversed * 10 + key % 10;
+            key /= 10;
+        }
+        return reversed;
+    }
+
+    // returns the number of ASCII digits in query
+    private static int digitCount(CharSequence query) {
+        int digits = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            }
+        }
+        return digits;
+    }
+
+    // packed keys in ascending order with the entity at each, entities of equal keys in the order they were added
+    private class Column {
+        private long[] keys = new long[16];
+        private Object[] objects = new Object[16];
+        private int size;
+
+        // inserts object after every entity at key
+        void insert(long key, T object) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                objects = Arrays.copyOf(objects, size * 2);
+            }
+            int at = firstAtOrAbove(key + 1);
+            System.arraycopy(keys, at, keys, at + 1, size - at);
+            System.arraycopy(objects, at, objects, at + 1, size - at);
+            keys[at] = key;
+            objects[at] = object;
+            size++;
+        }
+
+        // inserts the first count entities of added at the unsorted keys beside them, each after any entity already
+        // at its key and entities of equal keys in the order given, with one sort and one merge
+        void insertAll(long[] addedKeys, Object[] added, int count) {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> addedKeys[i])); // stable, equal keys keep their order
+
+            long[] mergedKeys = new long[Math.max(keys.length, size + count)];
+            Object[] mergedObjects = new Object[mergedKeys.length];
+            int i = 0;
+            int j = 0;
+            for (int at = 0; at < size + count; at++) {
+                if (j == count || (i < size && keys[i] <= addedKeys[order[j]])) {
+                    mergedKeys[at] = keys[i];
+                    mergedObjects[at] = objects[i++];
+                } else {
+                    mergedKeys[at] = addedKeys[order[j]];
+                    mergedObjects[at] = added[order[j++]];
+                }
+            }
+            keys = mergedKeys;
+            objects = mergedObjects;
+            size += count;
+        }
+
+        // removes object from key, if it is there
+        void remove(long key, T object) {
+            for (int at = firstAtOrAbove(key); at < size && keys[at] == key; at++) {
+                if (objects[at] == object) {
+                    System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+                    System.arraycopy(objects, at + 1, objects, at, size - at - 1);
+                    objects[--size] = null;
+                    return;
+                }
+            }
+        }
+
+        // returns the entities at keys in [from, to)
+        @SuppressWarnings("unchecked") // only entities of type T are inserted
+        List<T> range(long from, long to) {
+            int start = firstAtOrAbove(from);
+            int end = firstAtOrAbove(to);
+            List<T> found = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                found.add((T) objects[i]);
+            }
+            return found;
+        }
+
+        // returns the index of the first key not below key, or size if every key is below it
+        int firstAtOrAbove(long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
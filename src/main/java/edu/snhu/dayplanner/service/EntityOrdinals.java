@@ -0,0 +1,208 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns each entity a dense {@code int} ordinal, so indexes such as {@link CompactTrie} and {@link SubstringIndex}
+ * can store their postings as compact {@link PostingList}s of ordinals rather than sets of entity references. Indexes
+ * of a {@link Service} share one table, so postings from different indexes can be combined directly.
+ * <p>
+ * Ordinals are assigned in order starting from 0 the first time an entity is indexed. Once every index has removed an
+ * entity, {@link #release} forgets it and its ordinal is reused by the next entity assigned one, so the table and the
+ * per-ordinal tables of indexes only grow with the number of entities indexed at once. A snapshot reads its own
+ * {@link #snapshot() view} of the table, which the table copies before changing an entity the view may still read,
+ * so a snapshot always finds the entities it indexed. Ordinals may be looked up from any thread; assignment and
+ * release are synchronized.</p>
+ *
+ * @param <T> The type of entity given ordinals
+ */
+public class EntityOrdinals<T> {
+    private final Map<T, Integer> ordinals;
+    private volatile Object[] entities; // entity of each ordinal, replaced when it grows or is copied for snapshots
+    private int size;
+    private int[] released = new int[0]; // ordinals free to be reused, the last released first
+    private int releasedCount;
+    private boolean isShared; // entities is read by a snapshot view and copied before any ordinal in it changes
+    private final boolean isSnapshot;
+    // ordinal of each entity of a snapshot view's frozen table by identity, built by the first entity the live
+    // ordinals no longer find there, null until then and on the table itself
+    private volatile Map<Object, Integer> frozenOrdinals;
+
+    public EntityOrdinals() {
+        this.ordinals = new ConcurrentHashMap<>();
+        this.entities = new Object[16];
+        this.isSnapshot = false;
+    }
+
+    // Initializes a read-only view of source's entities, which must never be changed again
+    private EntityOrdinals(EntityOrdinals<T> source, Object[] entities, int size) {
+        this.ordinals = source.ordinals;
+        this.entities = entities;
+        this.size = size;
+        this.isSnapshot = true;
+    }
+
+    /**
+     * Returns the ordinal of entity, assigning a released ordinal or the next ordinal if it has none
+     * @param entity the entity to find
+     * @return the ordinal of entity
+     * @throws UnsupportedOperationException if this table is a snapshot view
+     */
+    public synchronized int ordinalOf(T entity) {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Snapshots of EntityOrdinals are read-only");
+        }
+        Integer ordinal = ordinals.get(entity);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        if (releasedCount > 0) {
+            int reused = released[--releasedCount];
+            editableEntities()[reused] = entity;
+            ordinals.put(entity, reused);
+            return reused;
+        }
+        Object[] table = entities;
+        if (size == table.length) {
+            table = Arrays.copyOf(table, size * 2);
+        }
+        table[size] = entity; // past the end of any snapshot view, so never read by one
+        entities = table; // publishes the entity before its ordinal can be read from postings
+        ordinals.put(entity, size);
+        return size++;
+    }
+
+    /**
+     * Forgets entity so its ordinal can be assigned to another entity. Every index sharing this table must already
+     * have removed the entity, so no posting outside a snapshot holds its ordinal.
+     * @param entity the entity to forget
+     * @return true if entity had an ordinal
+     * @throws UnsupportedOperationException if this table is a snapshot view
+     */
+    public synchronized boolean release(T entity) {
+        if (isSnapshot) {
+            throw new UnsupportedOperationException("Snapshots of EntityOrdinals are read-only");
+        }
+        Integer ordinal = ordinals.remove(entity);
+        if (ordinal == null) {
+            return false;
+        }
+        editableEntities()[ordinal] = null;
+        if (releasedCount == released.length) {
+            released = Arrays.copyOf(released, Math.max(8, releasedCount * 2));
+        }
+        released[releasedCount++] = ordinal;
+        return true;
+    }
+
+    // Returns the entities table, first replacing it with a copy if a snapshot view may still read it
+    private Object[] editableEntities() {
+        if (isShared) {
+            entities = entities.clone();
+            isShared = false;
+        }
+        return entities;
+    }
+
+    /**
+     * Returns a read-only view of this table as it is now, in constant time, for a snapshot of an index to read
+     * entities through. Entities released afterward stay readable through the view.
+     * @return a view of the entity of each ordinal assigned now
+     */
+    public synchronized EntityOrdinals<T> snapshot() {
+        if (isSnapshot) {
+            return this;
+        }
+        isShared = true;
+        return new EntityOrdinals<>(this, entities, size);
+    }
+
+    /**
+     * @param entity the entity to find
+     * @return the ordinal of entity, or -1 if it has none
+     */
+    public int find(Object entity) {
+        if (entity == null) {
+            return -1;
+        }
+        Integer ordinal = ordinals.get(entity);
+        if (!isSnapshot) {
+            return ordinal == null ? -1 : ordinal;
+        }
+        Object[] table = entities;
+        if (ordinal != null && ordinal < size && table[ordinal] == entity) {
+            return ordinal;
+        }
+        ordinal = frozenOrdinals().get(entity); // released since the view was taken, or never assigned
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    // Returns the ordinal of each entity of a snapshot view, indexing its table once. Threads racing to index it each
+    // build an equal map.
+    private Map<Object, Integer> frozenOrdinals() {
+        Map<Object, Integer> frozen = frozenOrdinals;
+        if (frozen == null) {
+            Object[] table = entities;
+            frozen = new IdentityHashMap<>(size);
+            for (int i = 0; i < size; i++) {
+                if (table[i] != null) {
+                    frozen.put(table[i], i);
+                }
+            }
+            frozenOrdinals = frozen;
+        }
+        return frozen;
+    }
+
+    /**
+     * @param ordinal an assigned ordinal
+     * @return the entity given ordinal, or null if it was released
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int ordinal) {
+        return (T) entities[ordinal];
+    }
+
+    /** @return the number of ordinals in use or released for reuse, one more than the largest ordinal */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns a read-only view of postings as a set of entities. The view reads postings as it is used, so it changes
+     * if postings changes.
+     * @param postings ordinals assigned by this table
+     * @return a set of the entities given each ordinal in postings
+     */
+    public Set<T> asSet(PostingList postings) {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<T> iterator() {
+                PrimitiveIterator.OfInt iterator = postings.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return get(iterator.nextInt());
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                int ordinal = find(o);
+                return ordinal >= 0 && postings.contains(ordinal);
+            }
+
+            @Override
+            public int size() {
+                return postings.size();
+            }
+        };
+    }
+}
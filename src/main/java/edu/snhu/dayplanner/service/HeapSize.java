@@ -0,0 +1,69 @@
+package edu.snhu.dayplanner.service;
+
+/**
+ * Estimates of the heap bytes held by objects, assuming a 64-bit JVM with compressed references and compact strings:
+ * 12 byte object headers, 16 byte array headers, 4 byte references, and sizes rounded up to 8 bytes. The estimates
+ * are for sizing heaps and comparing structures, not exact measurements.
+ */
+final class HeapSize {
+    static final int REFERENCE = 4;
+    static final int INT = 4;
+    static final int HASH_MAP_ENTRY = object(INT + 3 * REFERENCE); // hash, key, value, and next entry
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int STRING = object(INT + 2 + REFERENCE); // hash, coder, hashIsZero, and value array
+
+    private HeapSize() {
+    }
+
+    /**
+     * @param fieldBytes the bytes of the object's fields
+     * @return the bytes of an object with fields totalling fieldBytes
+     */
+    static int object(int fieldBytes) {
+        return (int) align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * @param length the number of elements in the array
+     * @param elementBytes the bytes of each element
+     * @return the bytes of an array
+     */
+    static long array(int length, int elementBytes) {
+        return align(ARRAY_HEADER + (long) length * elementBytes);
+    }
+
+    /**
+     * @param string a string, or null
+     * @return the bytes of string and its character array, one byte per character unless a character needs two, or 0
+     * for null
+     */
+    static long string(String string) {
+        if (string == null) {
+            return 0;
+        }
+        int charBytes = 1;
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                charBytes = 2;
+                break;
+            }
+        }
+        return STRING + array(string.length(), charBytes);
+    }
+
+    /**
+     * @param size the number of entries in the map
+     * @return the bytes of a {@link java.util.HashMap} or {@link java.util.HashSet} holding size entries at the default
+     * load factor, not counting the keys and values themselves
+     */
+    static long hashMap(int size) {
+        int buckets = size == 0 ? 0 : Integer.highestOneBit(Math.max(16, (int) Math.ceil(size / 0.75)) - 1) << 1;
+        return object(6 * INT) + array(buckets, REFERENCE) + (long) size * HASH_MAP_ENTRY;
+    }
+
+    // rounds bytes up to the 8 byte alignment of objects
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.snhu.dayplanner.service;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Converts attribute values and search text into the keys a {@link CompactTrie} indexes and searches. Each field of a
+ * trie may declare its own normalizer with {@link CompactTrie#setKeyNormalizer(Enum, KeyNormalizer)}, so a phone
+ * number can ignore punctuation while a name ignores case. Attributes and searches are normalized the same way, so
+ * equal keys always match.
+ * <p>
+ * Normalizers are stages chained into a pipeline with {@link #andThen(KeyNormalizer)}. A trie runs a field's pipeline
+ * once for each key it indexes, caching the result until the key is removed, and once for each search. Each stage
+ * returns its input unchanged, without allocating, when there is nothing to convert.</p>
+ */
+@FunctionalInterface
+public interface KeyNormalizer {
+    /** Keeps values unchanged, for case-sensitive fields */
+    KeyNormalizer IDENTITY = value -> value;
+    /** Lowercases values the same way in every locale so searches ignore case */
+    KeyNormalizer LOWERCASE = value -> value.toLowerCase(Locale.ROOT);
+    /** Keeps only the digits of values, so "(555) 123" is searched as "555123" */
+    KeyNormalizer DIGITS = value -> {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') { // copy the digits only once something must be dropped
+                StringBuilder digits = new StringBuilder(value.length() - 1).append(value, 0, i);
+                for (int j = i + 1; j < value.length(); j++) {
+                    char c = value.charAt(j);
+                    if (c >= '0' && c <= '9') {
+                        digits.append(c);
+                    }
+                }
+                return digits.toString();
+            }
+        }
+        return value;
+    };
+    /** Decomposes characters and drops their accents, so "José" is searched as "Jose" */
+    KeyNormalizer STRIP_ACCENTS = value -> {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) { // only characters outside ASCII may decompose
+                return Normalizer.normalize(value, Normalizer.Form.NFKD).replaceAll("\\p{M}", "");
+            }
+        }
+        return value;
+    };
+    /** Trims values and replaces each run of whitespace with a single space */
+    KeyNormalizer COLLAPSE_WHITESPACE = value -> {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c) && (c != ' ' || i == 0 || i == value.length() - 1
+                    || Character.isWhitespace(value.charAt(i + 1)))) {
+                return String.join(" ", value.trim().split("\\s+"));
+            }
+        }
+        return value;
+    };
+    /** Strips accents, collapses whitespace, and lowercases values, the default for each case-insensitive field */
+    KeyNormalizer FOLD = STRIP_ACCENTS.andThen(COLLAPSE_WHITESPACE).andThen(LOWERCASE);
+
+    /**
+     * Returns the key for a value
+     * @param value an attribute value or search text
+     * @return the normalized key
+     */
+    String normalize(String value);
+
+    /**
+     * Returns a pipeline normalizing values with this normalizer and then with next
+     * @param next the stage run on the output of this normalizer
+     * @return the combined normalizer
+     */
+    default KeyNormalizer andThen(KeyNormalizer next) {
+        return value -> next.normalize(normalize(value));
+    }
+}
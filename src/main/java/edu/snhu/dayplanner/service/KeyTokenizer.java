@@ -0,0 +1,38 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits attribute values and search text into the tokens a {@link CompactTrie} indexes separately. Each field of a
+ * trie may declare its own tokenizer with {@link CompactTrie#setKeyTokenizer(Enum, KeyTokenizer)}, so a description
+ * is found by any of its words while a name is indexed whole. Each token is then converted to a key by the field's
+ * {@link KeyNormalizer}.
+ */
+@FunctionalInterface
+public interface KeyTokenizer {
+    /** Keeps each value as a single token, the default for each field */
+    KeyTokenizer WHOLE_VALUE = List::of;
+    /** Splits values into runs of letters and digits, so "get snow off the porch" is found by "porch" */
+    KeyTokenizer WORDS = value -> {
+        List<String> words = new ArrayList<>();
+        int start = -1; // index of the first character of the current word, -1 between words
+        for (int i = 0; i <= value.length(); i++) {
+            boolean isWordChar = i < value.length() && Character.isLetterOrDigit(value.charAt(i));
+            if (isWordChar && start < 0) {
+                start = i;
+            } else if (!isWordChar && start >= 0) {
+                words.add(value.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    };
+
+    /**
+     * Returns the tokens of a value in the order they appear
+     * @param value an attribute value or search text
+     * @return the tokens of value, empty if it has none
+     */
+    List<String> tokenize(String value);
+}
@@ -0,0 +1,184 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accounts for the heap bytes a {@link Service} holds for its entities, broken down by indexed field: the nodes, edge
+ * strings, and posting lists of its {@link CompactTrie}, the keys the trie caches per entity, and the attribute strings
+ * of the entities themselves, plus the tables mapping ids and ordinals to entities. Every figure is an estimate made
+ * with {@link HeapSize}.
+ * <p>
+ * Entity counts and attribute bytes are counters the service keeps current as entities are added, updated, and
+ * deleted. Trie figures are those of the last {@link Service#measureFootprint()}, which only walks the trie if it was
+ * edited since it was last measured, so the footprint is cheap enough to sample periodically. Figures may be read from
+ * any thread, such as a JMX client through {@link MemoryFootprintMBean}.</p>
+ *
+ * @param <F> The enum type defining fields in the entities
+ */
+public class MemoryFootprint<F extends Enum<F>> implements MemoryFootprintMBean {
+    private final List<F> fields;
+    private final AtomicLongArray attributeBytes; // bytes of attribute strings by field ordinal
+    private final AtomicLong idBytes = new AtomicLong();
+    private final AtomicInteger entityCount = new AtomicInteger();
+    private volatile Map<F, CompactTrie.FieldFootprint> trie = Map.of(); // empty until measured
+    private volatile int ordinalCount; // entities assigned an ordinal when the trie was last measured
+
+    /**
+     * Initializes an empty footprint
+     * @param fields the fields indexed by the service
+     */
+    MemoryFootprint(List<F> fields) {
+        this.fields = fields;
+        this.attributeBytes = new AtomicLongArray(fields.stream().mapToInt(Enum::ordinal).max().orElse(-1) + 1);
+    }
+
+    /**
+     * @param field an indexed field
+     * @return the footprint of the tree of field as last measured, with no nodes if it was never measured
+     */
+    public CompactTrie.FieldFootprint getTrieFootprint(F field) {
+        return trie.getOrDefault(field, new CompactTrie.FieldFootprint(0, 0, 0, 0, 0));
+    }
+
+    /**
+     * @param field an indexed field
+     * @return the bytes of the attribute strings of field in the stored entities
+     */
+    public long getAttributeBytes(F field) {
+        return attributeBytes.get(field.ordinal());
+    }
+
+    /**
+     * @param field an indexed field
+     * @return the bytes of the tree of field, its cached keys, and its attribute strings
+     */
+    public long getBytes(F field) {
+        return getTrieFootprint(field).totalBytes() + getAttributeBytes(field);
+    }
+
+    /**
+     * @param field an indexed field
+     * @return the bytes of field divided by the number of entities, 0 without entities
+     */
+    public double getBytesPerEntity(F field) {
+        int entities = entityCount.get();
+        return entities == 0 ? 0 : (double) getBytes(field) / entities;
+    }
+
+    // SERVICE EVENTS
+    // counts the id and indexed attributes of an entity added to the service
+    void added(Entity<F> entity) {
+        entityCount.incrementAndGet();
+        idBytes.addAndGet(HeapSize.string(entity.getId()));
+        for (F field : fields) {
+            attributeBytes.addAndGet(field.ordinal(), HeapSize.string(entity.getFieldValue(field)));
+        }
+    }
+
+    // stops counting the id and indexed attributes of an entity deleted from the service
+    void removed(Entity<F> entity) {
+        entityCount.decrementAndGet();
+        idBytes.addAndGet(-HeapSize.string(entity.getId()));
+        for (F field : fields) {
+            attributeBytes.addAndGet(field.ordinal(), -HeapSize.string(entity.getFieldValue(field)));
+        }
+    }
+
+    // counts the new attribute of field in place of the old one
+    void changed(F field, String oldValue, String newValue) {
+        attributeBytes.addAndGet(field.ordinal(), HeapSize.string(newValue) - HeapSize.string(oldValue));
+    }
+
+    // replaces the trie figures with those just measured
+    void measured(Map<F, CompactTrie.FieldFootprint> trie, int ordinalCount) {
+        this.trie = trie;
+        this.ordinalCount = ordinalCount;
+    }
+
+    // MBEAN ATTRIBUTES
+    @Override
+    public int getEntityCount() {
+        return entityCount.get();
+    }
+
+    @Override
+    public long getNodeCount() {
+        return trie.values().stream().mapToLong(CompactTrie.FieldFootprint::nodeCount).sum();
+    }
+
+    @Override
+    public long getNodeBytes() {
+        return trie.values().stream().mapToLong(CompactTrie.FieldFootprint::nodeBytes).sum();
+    }
+
+    @Override
+    public long getEdgeBytes() {
+        return trie.values().stream().mapToLong(CompactTrie.FieldFootprint::edgeBytes).sum();
+    }
+
+    @Override
+    public long getPostingBytes() {
+        return trie.values().stream().mapToLong(CompactTrie.FieldFootprint::postingBytes).sum();
+    }
+
+    @Override
+    public long getKeyBytes() {
+        return trie.values().stream().mapToLong(CompactTrie.FieldFootprint::keyBytes).sum();
+    }
+
+    @Override
+    public long getAttributeBytes() {
+        long bytes = 0;
+        for (F field : fields) {
+            bytes += attributeBytes.get(field.ordinal());
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getEntityTableBytes() {
+        int ordinals = ordinalCount;
+        // id -> entity map, entity -> boxed ordinal map, and ordinal -> entity array
+        return HeapSize.hashMap(entityCount.get()) + idBytes.get() + HeapSize.hashMap(ordinals)
+                + (long) ordinals * HeapSize.object(HeapSize.INT) + HeapSize.array(ordinals, HeapSize.REFERENCE);
+    }
+
+    @Override
+    public long getTotalBytes() {
+        long bytes = getAttributeBytes() + getEntityTableBytes();
+        for (CompactTrie.FieldFootprint field : trie.values()) {
+            bytes += field.totalBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public double getBytesPerEntity() {
+        int entities = entityCount.get();
+        return entities == 0 ? 0 : (double) getTotalBytes() / entities;
+    }
+
+    @Override
+    public String[] getFieldSummaries() {
+        String[] summaries = new String[fields.size()];
+        for (int i = 0; i < summaries.length; i++) {
+            F field = fields.get(i);
+            CompactTrie.FieldFootprint tree = getTrieFootprint(field);
+            summaries[i] = field + ": nodes=" + tree.nodeCount() + ", nodeBytes=" + tree.nodeBytes() + ", edgeBytes="
+                    + tree.edgeBytes() + ", postingBytes=" + tree.postingBytes() + ", keyBytes=" + tree.keyBytes()
+                    + ", attributeBytes=" + getAttributeBytes(field) + ", bytesPerEntity="
+                    + getBytesPerEntity(field);
+        }
+        return summaries;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryFootprint(entities=" + getEntityCount() + ", nodes=" + getNodeCount() + ", totalBytes="
+                + getTotalBytes() + ", bytesPerEntity=" + getBytesPerEntity() + ")";
+    }
+}
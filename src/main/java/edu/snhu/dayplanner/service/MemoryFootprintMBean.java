@@ -0,0 +1,41 @@
+package edu.snhu.dayplanner.service;
+
+/**
+ * Management interface exposing the estimated heap footprint of a {@link Service} through JMX. Trie figures are those
+ * of the service's last {@link Service#measureFootprint()}.
+ * @see MemoryFootprint
+ */
+public interface MemoryFootprintMBean {
+    /** @return the number of entities stored by the service */
+    int getEntityCount();
+
+    /** @return the number of nodes below the roots of every field's tree */
+    long getNodeCount();
+
+    /** @return the bytes of the trie's nodes and their child arrays */
+    long getNodeBytes();
+
+    /** @return the bytes of the partial prefix strings of the trie's nodes */
+    long getEdgeBytes();
+
+    /** @return the bytes of the posting lists of entity ordinals held by the trie's nodes */
+    long getPostingBytes();
+
+    /** @return the bytes of the keys the trie caches for each indexed entity */
+    long getKeyBytes();
+
+    /** @return the bytes of the indexed attribute strings of the stored entities */
+    long getAttributeBytes();
+
+    /** @return the bytes of the tables mapping ids and ordinals to entities, including the id strings */
+    long getEntityTableBytes();
+
+    /** @return the bytes of the trie, attribute strings, and entity tables together */
+    long getTotalBytes();
+
+    /** @return the total bytes divided by the number of entities, 0 without entities */
+    double getBytesPerEntity();
+
+    /** @return a line per indexed field giving the bytes of its tree, keys, and attributes and its bytes per entity */
+    String[] getFieldSummaries();
+}
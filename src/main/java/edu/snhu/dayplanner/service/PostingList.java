@@ -0,0 +1,416 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of entity ordinals assigned by {@link EntityOrdinals}, stored in whichever of two layouts is smaller:
+ * <ul>
+ *     <li>Sparse: a sorted {@code int} array, four bytes per ordinal. Most keys are owned by a single entity, so most
+ *     lists hold an array of one ordinal.</li>
+ *     <li>Dense: a bitmap with one bit per ordinal between the lowest and highest ordinal held.</li>
+ * </ul>
+ * Lists switch layout as ordinals are added and removed, with a margin between the two switch points so a list near
+ * the boundary does not switch back and forth. {@link #and} and {@link #or} combine two lists without visiting
+ * entities, a word at a time when both lists are dense.
+ * <p>
+ * Ordinals are iterated in ascending order. A list is not thread-safe; lists reachable by readers of a concurrent
+ * {@link CompactTrie} are copied before they are changed.</p>
+ */
+public final class PostingList {
+    static final int MIN_DENSE_SIZE = 64; // smaller lists stay sparse however close their ordinals are
+
+    private int[] values; // sorted ordinals while sparse, null while dense
+    private long[] words; // bits of ordinals from base while dense, null while sparse
+    private int base;     // ordinal of the first bit of words, a multiple of 64
+    private int size;
+
+    /** Creates an empty list */
+    public PostingList() {
+        values = new int[0];
+    }
+
+    /**
+     * Creates a list holding a single ordinal
+     * @param ordinal the ordinal to hold
+     */
+    public PostingList(int ordinal) {
+        values = new int[] {ordinal};
+        size = 1;
+    }
+
+    // QUERIES
+    /** @return the number of ordinals in this list */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if this list holds no ordinals */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the estimated heap bytes of this list and its array of ordinals or bitmap words */
+    long estimatedBytes() {
+        long bytes = HeapSize.object(2 * HeapSize.REFERENCE + 2 * HeapSize.INT);
+        return bytes + (words != null ? HeapSize.array(words.length, 8) : HeapSize.array(values.length, HeapSize.INT));
+    }
+
+    /** @return true if this list is stored as a bitmap */
+    public boolean isDense() {
+        return words != null;
+    }
+
+    /**
+     * @param ordinal the ordinal to find
+     * @return true if this list holds ordinal
+     */
+    public boolean contains(int ordinal) {
+        if (words == null) {
+            return Arrays.binarySearch(values, 0, size, ordinal) >= 0;
+        }
+        int bit = ordinal - base;
+        return bit >= 0 && bit < words.length * 64 && (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /** @return an iterator over the ordinals of this list in ascending order */
+    public PrimitiveIterator.OfInt iterator() {
+        return words == null ? new SparseIterator() : new DenseIterator();
+    }
+
+    /**
+     * Performs action for each ordinal of this list in ascending order
+     * @param action called with each ordinal
+     */
+    public void forEach(IntConsumer action) {
+        if (words == null) {
+            for (int i = 0; i < size; i++) {
+                action.accept(values[i]);
+            }
+            return;
+        }
+        for (int w = 0; w < words.length; w++) {
+            for (long word = words[w]; word != 0; word &= word - 1) {
+                action.accept(base + w * 64 + Long.numberOfTrailingZeros(word));
+            }
+        }
+    }
+
+    /** @return a list holding the same ordinals that may be changed without changing this list */
+    public PostingList copy() {
+        PostingList copy = new PostingList();
+        copy.values = values == null ? null : Arrays.copyOf(values, size);
+        copy.words = words == null ? null : words.clone();
+        copy.base = base;
+        copy.size = size;
+        return copy;
+    }
+
+    // CHANGES
+    /**
+     * Adds an ordinal to this list
+     * @param ordinal a non-negative ordinal
+     * @return false if the list already held ordinal
+     */
+    public boolean add(int ordinal) {
+        if (words == null) {
+            int index = Arrays.binarySearch(values, 0, size, ordinal);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                // lists of a few ordinals grow by one so singletons stay exact, larger lists grow by half
+                values = Arrays.copyOf(values, size < 8 ? size + 1 : size + (size >> 1));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = ordinal;
+            size++;
+            if (size >= MIN_DENSE_SIZE && bitmapBits(values[0], values[size - 1]) * 2 <= size * 32L) {
+                toDense();
+            }
+            return true;
+        }
+        int bit = ordinal - base;
+        if (bit < 0 || bit >= words.length * 64) {
+            cover(ordinal);
+            bit = ordinal - base;
+        }
+        long mask = 1L << bit;
+        if ((words[bit >>> 6] & mask) != 0) {
+            return false;
+        }
+        words[bit >>> 6] |= mask;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an ordinal from this list
+     * @param ordinal the ordinal to remove
+     * @return false if the list did not hold ordinal
+     */
+    public boolean remove(int ordinal) {
+        if (words == null) {
+            int index = Arrays.binarySearch(values, 0, size, ordinal);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return true;
+        }
+        if (!contains(ordinal)) {
+            return false;
+        }
+        int bit = ordinal - base;
+        words[bit >>> 6] &= ~(1L << bit);
+        size--;
+        if (size < MIN_DENSE_SIZE / 2 || size * 32L * 2 <= words.length * 64L) {
+            toSparse();
+        }
+        return true;
+    }
+
+    /**
+     * Adds every ordinal of other to this list
+     * @param other the list whose ordinals are added
+     */
+    public void addAll(PostingList other) {
+        if (other.words != null || (words != null && other.size > MIN_DENSE_SIZE)) {
+            PostingList union = or(this, other);
+            values = union.values;
+            words = union.words;
+            base = union.base;
+            size = union.size;
+        } else {
+            other.forEach(this::add);
+        }
+    }
+
+    // SET OPERATIONS
+    /**
+     * Returns a new list holding the ordinals held by both a and b
+     * @param a a list
+     * @param b another list
+     * @return the intersection of a and b
+     */
+    public static PostingList and(PostingList a, PostingList b) {
+        boolean isSameLayout = (a.words == null) == (b.words == null);
+        if (isSameLayout ? a.size > b.size : a.words != null) {
+            // filter a sparse list through a dense one, or the smaller list through the larger
+            PostingList swap = a;
+            a = b;
+            b = swap;
+        }
+        PostingList result = new PostingList();
+        if (a.words == null) {
+            int[] matches = new int[a.size];
+            int count = 0;
+            for (int i = 0; i < a.size; i++) {
+                if (b.contains(a.values[i])) {
+                    matches[count++] = a.values[i];
+                }
+            }
+            result.values = matches;
+            result.size = count;
+            return result;
+        }
+        // both dense: AND the words over the range the two bitmaps share
+        int low = Math.max(a.base, b.base);
+        int high = Math.min(a.base + a.words.length * 64, b.base + b.words.length * 64);
+        if (low >= high) {
+            return result;
+        }
+        result.values = null;
+        result.base = low;
+        result.words = new long[(high - low) >>> 6];
+        for (int w = 0; w < result.words.length; w++) {
+            long word = a.words[((low - a.base) >>> 6) + w] & b.words[((low - b.base) >>> 6) + w];
+            result.words[w] = word;
+            result.size += Long.bitCount(word);
+        }
+        result.compact();
+        return result;
+    }
+
+    /**
+     * Returns a new list holding the ordinals held by a, b, or both
+     * @param a a list
+     * @param b another list
+     * @return the union of a and b
+     */
+    public static PostingList or(PostingList a, PostingList b) {
+        PostingList result = new PostingList();
+        if (a.words == null && b.words == null) {
+            int[] merged = new int[a.size + b.size];
+            int i = 0, j = 0, count = 0;
+            while (i < a.size || j < b.size) {
+                if (j == b.size || (i < a.size && a.values[i] < b.values[j])) {
+                    merged[count++] = a.values[i++];
+                } else if (i == a.size || b.values[j] < a.values[i]) {
+                    merged[count++] = b.values[j++];
+                } else { // held by both
+                    merged[count++] = a.values[i++];
+                    j++;
+                }
+            }
+            result.values = merged;
+            result.size = count;
+            result.compact();
+            return result;
+        }
+        // at least one dense list: OR into a bitmap covering both
+        int low = Math.min(a.lowest(), b.lowest()) & ~63;
+        int high = Math.max(a.highest(), b.highest());
+        result.values = null;
+        result.base = low;
+        result.words = new long[((high - low) >>> 6) + 1];
+        for (PostingList list : new PostingList[] {a, b}) {
+            if (list.words != null) {
+                int offset = (list.base - low) >>> 6;
+                for (int w = 0; w < list.words.length; w++) {
+                    result.words[offset + w] |= list.words[w];
+                }
+            } else {
+                for (int i = 0; i < list.size; i++) {
+                    int bit = list.values[i] - low;
+                    result.words[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+        for (long word : result.words) {
+            result.size += Long.bitCount(word);
+        }
+        result.compact();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        forEach(ordinal -> builder.append(builder.length() > 1 ? ", " : "").append(ordinal));
+        return builder.append(']').toString();
+    }
+
+    // PRIVATE HELPER METHODS
+    // the number of bits a bitmap holding ordinals from low to high needs, rounded to whole words
+    private static long bitmapBits(int low, int high) {
+        return (((long) high >>> 6) - ((long) low >>> 6) + 1) * 64;
+    }
+
+    // lowest ordinal held, or Integer.MAX_VALUE when empty
+    private int lowest() {
+        if (size == 0) {
+            return Integer.MAX_VALUE;
+        }
+        if (words == null) {
+            return values[0];
+        }
+        int w = 0;
+        while (words[w] == 0) w++;
+        return base + w * 64 + Long.numberOfTrailingZeros(words[w]);
+    }
+
+    // highest ordinal held, or -1 when empty
+    private int highest() {
+        if (size == 0) {
+            return -1;
+        }
+        if (words == null) {
+            return values[size - 1];
+        }
+        int w = words.length - 1;
+        while (words[w] == 0) w--;
+        return base + w * 64 + 63 - Long.numberOfLeadingZeros(words[w]);
+    }
+
+    // switches a result to whichever layout is smaller for its ordinals
+    private void compact() {
+        if (words == null) {
+            values = Arrays.copyOf(values, size);
+            if (size >= MIN_DENSE_SIZE && bitmapBits(values[0], values[size - 1]) * 2 <= size * 32L) {
+                toDense();
+            }
+        } else if (size < MIN_DENSE_SIZE || size * 32L * 2 <= bitmapBits(lowest(), highest())) {
+            toSparse();
+        }
+    }
+
+    private void toDense() {
+        int low = values[0] & ~63;
+        long[] bitmap = new long[(int) (bitmapBits(values[0], values[size - 1]) >>> 6)];
+        for (int i = 0; i < size; i++) {
+            int bit = values[i] - low;
+            bitmap[bit >>> 6] |= 1L << bit;
+        }
+        base = low;
+        words = bitmap;
+        values = null;
+    }
+
+    private void toSparse() {
+        int[] sparse = new int[size];
+        int[] count = {0};
+        forEach(ordinal -> sparse[count[0]++] = ordinal);
+        values = sparse;
+        words = null;
+        base = 0;
+    }
+
+    // grows the bitmap so its range includes ordinal
+    private void cover(int ordinal) {
+        int low = Math.min(base, ordinal & ~63);
+        int high = Math.max(base + words.length * 64 - 1, ordinal);
+        long[] grown = new long[(int) (bitmapBits(low, high) >>> 6)];
+        System.arraycopy(words, 0, grown, (base - low) >>> 6, words.length);
+        words = grown;
+        base = low;
+    }
+
+    private class SparseIterator implements PrimitiveIterator.OfInt {
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public int nextInt() {
+            if (index >= size) {
+                throw new NoSuchElementException();
+            }
+            return values[index++];
+        }
+    }
+
+    private class DenseIterator implements PrimitiveIterator.OfInt {
+        private int w = -1;
+        private long word; // bits of words[w] not yet returned
+
+        @Override
+        public boolean hasNext() {
+            while (word == 0) {
+                if (++w >= words.length) {
+                    w = words.length; // stay exhausted
+                    return false;
+                }
+                word = words[w];
+            }
+            return true;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int ordinal = base + w * 64 + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+            return ordinal;
+        }
+    }
+}
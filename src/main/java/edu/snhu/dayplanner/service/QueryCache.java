@@ -0,0 +1,165 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of search results kept by a {@link Service} in front of its indexes, so a search repeated while the
+ * searched attributes are unchanged is answered with a single map lookup. When the cache is full, the least recently
+ * used result is evicted.
+ * <p>
+ * Results are invalidated by field. The cache numbers each change reported by its service, and records for each field
+ * the last change affecting it; a result stays valid while no field it searched has changed since it was stored.
+ * Adding or deleting an entity changes every field, while updating one attribute changes only its field, so searches
+ * of other fields remain cached. Stale results are dropped when they are next looked up or when they are evicted.</p>
+ * <p>
+ * Counters may be read from any thread, such as a JMX client through {@link QueryCacheMBean}.</p>
+ *
+ * @param <T> The type of entity returned by cached searches
+ * @param <F> The enum type defining fields in the entities
+ */
+public class QueryCache<T, F extends Enum<F>> implements QueryCacheMBean {
+    /** The kind of search a result was returned by */
+    public enum Mode { PREFIX, PREFIX_DESCENDING, TOKENS, CONTAINS, FUZZY }
+
+    private final int capacity;
+    private final Map<Key, Result> results; // in access order, least recently used first
+    private final long[] changedAt; // number of the last change to each field by field ordinal, 0 if never changed
+    private long changes;           // changes reported, numbering the latest one
+    private long lastChange;        // number of the last change to any field
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // a search, with the page size or edit distance it was bounded by, or 0
+    private record Key(Mode mode, String text, Enum<?> field, int bound) {}
+
+    // the results of a search and the number of the last change made before they were found
+    private record Result(Collection<?> objects, long storedAt) {}
+
+    /**
+     * Initializes an empty cache for searches of the given fields
+     * @param fields the fields searches may be restricted to
+     * @param capacity the largest number of results to hold
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public QueryCache(List<F> fields, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity, " + capacity + ", must be positive.");
+        }
+        this.capacity = capacity;
+        this.changedAt = new long[fields.stream().mapToInt(Enum::ordinal).max().orElse(-1) + 1];
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                if (size() <= QueryCache.this.capacity) {
+                    return false;
+                }
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached results of a search, first running it and caching its results if none are cached or a field
+     * it searches has changed since they were. The results are shared with later lookups and must not be changed.
+     * @param mode the kind of search
+     * @param text the searched text, already normalized if searches of differing text return the same results
+     * @param field the searched field, or null if every field is searched
+     * @param bound the page size or edit distance bounding the search, or 0
+     * @param search runs the search, returning read-only results
+     * @return the results of the search
+     * @param <R> the type of collection returned by the search
+     */
+    @SuppressWarnings("unchecked") // a key is only ever stored with results of the search it describes
+    public synchronized <R extends Collection<T>> R get(Mode mode, String text, F field, int bound,
+                                                         Supplier<R> search) {
+        Key key = new Key(mode, text, field, bound);
+        Result result = results.get(key);
+        if (result != null) {
+            if (result.storedAt() >= (field == null ? lastChange : changedAt[field.ordinal()])) {
+                hits.incrementAndGet();
+                return (R) result.objects();
+            }
+            results.remove(key);
+            invalidations.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        R objects = search.get();
+        results.put(key, new Result(objects, changes));
+        return objects;
+    }
+
+    /**
+     * Records a change to the attributes of field, invalidating the results of every search of field or of every field
+     * @param field the changed field
+     */
+    public synchronized void changed(F field) {
+        changedAt[field.ordinal()] = lastChange = ++changes;
+    }
+
+    /** Records a change to the attributes of every field, such as an entity being added or deleted */
+    public synchronized void changedAll() {
+        lastChange = ++changes;
+        Arrays.fill(changedAt, lastChange);
+    }
+
+    // MBEAN ATTRIBUTES
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return results.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache(size=" + getSize() + ", capacity=" + capacity + ", hits=" + getHits() + ", misses="
+                + getMisses() + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + ")";
+    }
+}
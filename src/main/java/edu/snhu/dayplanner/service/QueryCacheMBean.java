@@ -0,0 +1,31 @@
+package edu.snhu.dayplanner.service;
+
+/**
+ * Management interface exposing the effectiveness of a {@link QueryCache} through JMX.
+ * @see QueryCache
+ */
+public interface QueryCacheMBean {
+    /** @return the number of searches answered from the cache */
+    long getHits();
+
+    /** @return the number of searches run because no valid result was cached */
+    long getMisses();
+
+    /** @return the fraction of searches answered from the cache, 0 before any search */
+    double getHitRatio();
+
+    /** @return the number of results evicted to make room for newer ones */
+    long getEvictions();
+
+    /** @return the number of results dropped because a field they searched had changed */
+    long getInvalidations();
+
+    /** @return the number of results held, including stale results not yet dropped */
+    int getSize();
+
+    /** @return the largest number of results held at once */
+    int getCapacity();
+
+    /** Resets the hit, miss, eviction, and invalidation counts. Cached results are kept. */
+    void reset();
+}
@@ -1,14 +1,28 @@
 package edu.snhu.dayplanner.service;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 /**
  * Description:
  * This abstract class provides common functionality to use or implement in
  * each service class. Supports storage of type T (extends entity),
  * includes functions to add, remove, and update T objects.
+ * <p>
+ * Searches made through the service are answered from a {@link QueryCache} while the searched fields are unchanged.
+ * The cache only learns of changes made through the service, so the {@code entityTrie} must only be edited through
+ * {@code add}, {@code delete}, and {@code updateField}.</p>
  * @param <T> Type of object to be managed by this service.
  * @param <F> An enum implementation that should contain the fields of T (T.Field)
  */
@@ -19,10 +33,237 @@ public abstract class Service<T extends Entity<F>, F extends Enum<F>> {
      * (Use entity extensions (Task, Contact, Appointment))
      */
     private final Map<String, T> entityMap = new HashMap<>();
+    private final List<F> fields; // fields indexed for searching
+    private final EntityOrdinals<T> entityOrdinals = new EntityOrdinals<>(); // shared by every index of this service
     public final CompactTrie<T, F> entityTrie;
+    private final TrieMetrics<F> trieMetrics = new TrieMetrics<>();
+    private SubstringIndex<T, F> substringIndex; // built by the first contains search, null until then
+    private static final String INDEX_IMAGE_SUFFIX = ".idx"; // appended to a data file's path to name its trie images
+    private static final int QUERY_CACHE_CAPACITY = 256; // most recently used searches whose results are kept
+    // nodes deletes and updates may leave behind before the trie is rebuilt without them, on another thread
+    private static final int COMPACTION_THRESHOLD = 1024;
+    private final QueryCache<T, F> queryCache;
+    private final MemoryFootprint<F> memoryFootprint;
 
     protected Service(List<F> fields) {
-        entityTrie = new CompactTrie<>(fields);
+        this.fields = fields;
+        entityTrie = new CompactTrie<>(fields, false, false, entityOrdinals);
+        entityTrie.setListener(trieMetrics);
+        entityTrie.setCompactionThreshold(COMPACTION_THRESHOLD);
+        queryCache = new QueryCache<>(fields, QUERY_CACHE_CAPACITY);
+        memoryFootprint = new MemoryFootprint<>(fields);
+    }
+
+    /**
+     * @return live structural counters of this service's {@code entityTrie}
+     */
+    public TrieMetrics<F> getTrieMetrics() {
+        return trieMetrics;
+    }
+
+    /**
+     * @return the cache answering searches made through this service, with its hit, eviction, and size counters
+     */
+    public QueryCache<T, F> getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * @return the estimated heap bytes held by this service, with trie figures as of the last
+     *         {@link #measureFootprint()}
+     */
+    public MemoryFootprint<F> getMemoryFootprint() {
+        return memoryFootprint;
+    }
+
+    /**
+     * Measures the heap bytes held by this service's {@code entityTrie}, walking the trie only if it was edited since
+     * it was last measured, and updates the footprint with the result. Like any other use of the trie, it must be
+     * called from the thread editing this service.
+     * @return the footprint of this service
+     */
+    public MemoryFootprint<F> measureFootprint() {
+        memoryFootprint.measured(entityTrie.footprint(), entityOrdinals.size());
+        return memoryFootprint;
+    }
+
+    /**
+     * Returns every stored entity with an attribute containing the supplied text anywhere, ignoring case and accents.
+     * @param text the text to find within attributes
+     * @param field the field to search, or null to search all indexed fields
+     * @return a read-only set of matching entities, empty if none match
+     */
+    public Set<T> searchContaining(String text, F field) {
+        return queryCache.get(QueryCache.Mode.CONTAINS, text, field, 0, () -> {
+            if (substringIndex == null) { // startup only pays for the index once it is first searched
+                substringIndex = new SubstringIndex<>(fields, entityOrdinals);
+                for (T object : entityMap.values()) {
+                    substringIndex.add(object);
+                }
+            }
+            return Collections.unmodifiableSet(new LinkedHashSet<>(substringIndex.searchContaining(text, field)));
+        });
+    }
+
+    /**
+     * Returns the first stored entities with an attribute starting with prefix, in ascending order of their attributes.
+     * @param prefix the prefix to search for
+     * @param field the field to search, or null to search all indexed fields
+     * @param limit the largest number of entities to return
+     * @return a read-only list of at most limit matching entities
+     * @see CompactTrie#searchWithPrefix(CharSequence, Enum, int, int)
+     */
+    public List<T> searchWithPrefix(String prefix, F field, int limit) {
+        return searchWithPrefix(prefix, field, limit, false);
+    }
+
+    /**
+     * Returns the first stored entities with an attribute starting with prefix, in ascending or descending order of
+     * their attributes, read in order from the {@code entityTrie} rather than sorted.
+     * @param prefix the prefix to search for
+     * @param field the field to search, or null to search all indexed fields
+     * @param limit the largest number of entities to return
+     * @param isDescending true to return entities from the greatest attribute down
+     * @return a read-only list of at most limit matching entities
+     * @see CompactTrie#searchWithPrefix(CharSequence, Enum, int, int, boolean)
+     */
+    public List<T> searchWithPrefix(String prefix, F field, int limit, boolean isDescending) {
+        QueryCache.Mode mode = isDescending ? QueryCache.Mode.PREFIX_DESCENDING : QueryCache.Mode.PREFIX;
+        return queryCache.get(mode, keysOf(prefix, field), field, limit,
+                () -> List.copyOf(entityTrie.searchWithPrefix(prefix, field, limit, 0, isDescending)));
+    }
+
+    /**
+     * Returns every stored entity matching each token of query at the start of a word.
+     * @param query the keywords to search for
+     * @param field the field to search, or null to search all indexed fields
+     * @return a read-only set of matching entities, empty if none match
+     * @see CompactTrie#searchAllTokens(String, Enum)
+     */
+    public Set<T> searchAllTokens(String query, F field) {
+        return queryCache.get(QueryCache.Mode.TOKENS, query, field, 0,
+                () -> Collections.unmodifiableSet(new LinkedHashSet<>(entityTrie.searchAllTokens(query, field))));
+    }
+
+    /**
+     * Returns every stored entity with an attribute within maxEdits edits of query.
+     * @param query the attribute value to search for, possibly misspelled
+     * @param maxEdits the largest number of edits allowed
+     * @param field the field to search, or null to search all indexed fields
+     * @return a read-only set of matching entities, empty if none match
+     * @see CompactTrie#searchFuzzy(CharSequence, int, Enum)
+     */
+    public Set<T> searchFuzzy(CharSequence query, int maxEdits, F field) {
+        return queryCache.get(QueryCache.Mode.FUZZY, keysOf(query.toString(), field), field, maxEdits,
+                () -> Collections.unmodifiableSet(
+                        new LinkedHashSet<>(entityTrie.searchFuzzy(query, maxEdits, field))));
+    }
+
+    /**
+     * Counts the stored entities with an attribute starting with prefix in each indexed field, without gathering them.
+     * @param prefix the prefix to count
+     * @return the number of matching entities by field, leaving out fields without matches
+     * @see CompactTrie#facets(CharSequence)
+     */
+    public Map<F, Integer> facets(String prefix) {
+        return entityTrie.facets(prefix);
+    }
+
+    /**
+     * Returns the distinct attributes of field starting with prefix shared by the most stored entities.
+     * @param prefix the prefix to search for
+     * @param field the indexed field to search
+     * @param k the largest number of attributes to return
+     * @return at most k attributes as indexed with the number of entities sharing each, the most common first
+     * @see CompactTrie#topValues(CharSequence, Enum, int)
+     */
+    public List<CompactTrie.ValueCount> topValues(String prefix, F field, int k) {
+        return entityTrie.topValues(prefix, field, k);
+    }
+
+    /**
+     * Returns the most common completions of prefix among the indexed attributes, for a live autocomplete list. Its
+     * cost depends on k rather than on the number of stored entities, so it may be called as each character is typed.
+     * @param prefix the text typed so far
+     * @param field the indexed field to complete from, or null to complete from every field
+     * @param k the largest number of completions to return
+     * @return at most k distinct attributes as indexed, those shared by the most entities first
+     * @see CompactTrie#suggest(CharSequence, Enum, int)
+     */
+    public List<String> suggest(String prefix, F field, int k) {
+        return entityTrie.suggest(prefix, field, k);
+    }
+
+    /**
+     * Returns a cursor over the stored entities with an attribute starting with text typed into a search box. Each
+     * change of the text is followed from where the last one left off rather than searched from the root, and the
+     * cursor walks the index again after any add, delete or update.
+     * @param field the field to search, or null to search all indexed fields
+     * @return a new cursor with an empty query
+     * @see CompactTrie#cursor(Enum)
+     */
+    public CompactTrie<T, F>.PrefixCursor cursor(F field) {
+        return entityTrie.cursor(field);
+    }
+
+    /**
+     * Registers this service's management beans with the platform MBean server so index health and cache
+     * effectiveness can be watched through JMX. Beans are named after the service class, replacing any beans
+     * registered by a previous instance.
+     */
+    public void registerMBeans() {
+        registerMBean("TrieMetrics", trieMetrics);
+        registerMBean("QueryCache", queryCache);
+        registerMBean("MemoryFootprint", memoryFootprint);
+    }
+
+    // registers bean under type, replacing the bean of that type registered by a previous instance of this service
+    private void registerMBean(String type, Object bean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName("edu.snhu.dayplanner:type=" + type + ",service="
+                    + getClass().getSimpleName());
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        } catch (JMException e) {
+            System.out.println(getClass().getSimpleName() + ": Could not register management beans ("
+                    + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Returns the keys the {@code entityTrie} searches for a query, one for each distinct normalizer of the searched
+     * fields, such as "jose" for "Jos\u00e9 ". Suggestions are keys, so these tell which part of one was typed.
+     * @param query the search text
+     * @param field the field to search, or null to search all indexed fields
+     * @return the distinct keys of query, in field order
+     */
+    public List<String> searchKeysOf(String query, F field) {
+        Set<String> keys = new LinkedHashSet<>();
+        KeyNormalizer previous = null;
+        for (F searchField : field == null ? fields : List.of(field)) {
+            KeyNormalizer normalizer = entityTrie.getKeyNormalizer(searchField);
+            if (normalizer != previous) { // fields share a normalizer unless one was set
+                keys.add(normalizer.normalize(query));
+                previous = normalizer;
+            }
+        }
+        return List.copyOf(keys);
+    }
+
+    // Converts a query to the key each searched field's normalizer searches the trie for, so queries the trie cannot
+    // tell apart, such as "Jon" and "jon ", share one cached result. Only an empty query has an empty result.
+    private String keysOf(String query, F field) {
+        if (query.isEmpty()) {
+            return query;
+        }
+        StringBuilder keys = new StringBuilder();
+        for (String key : searchKeysOf(query, field)) {
+            keys.append(key).append('\0');
+        }
+        return keys.toString();
     }
 
     /**
@@ -42,6 +283,17 @@ public abstract class Service<T extends Entity<F>, F extends Enum<F>> {
         return new ArrayList<>(entityMap.values());
     }
 
+    /**
+     * Returns every stored entity in ascending or descending order of its attribute of field, such as an alphabetical
+     * list of contacts, read in order from the {@code entityTrie} rather than sorted.
+     * @param field the indexed field to order entities by
+     * @param isDescending true to order entities from the greatest attribute down
+     * @return a read-only list of the stored entities with a key in field
+     */
+    public List<T> getAllOrderedBy(F field, boolean isDescending) {
+        return searchWithPrefix("", field, Integer.MAX_VALUE, isDescending);
+    }
+
     /**
      * Adds an object to the service storage, mapped to its id.
      * @param object object to add to service.
@@ -49,17 +301,106 @@ public abstract class Service<T extends Entity<F>, F extends Enum<F>> {
     public T add(T object) {
         entityMap.put(object.getId(), object);
         entityTrie.insert(object);
+        if (substringIndex != null) substringIndex.add(object);
+        queryCache.changedAll();
+        memoryFootprint.added(object);
+        onIndexed(object);
         return object;
     }
 
     /**
      * Adds a list of objects to the service storage, mapped to their id.
+     * Objects are indexed together with {@code CompactTrie.bulkLoad}, which builds an empty trie in a single pass.
      * @param objects list of objects to add to service
      */
     public void addAll(List<T> objects) {
         for (T object : objects) {
-            add(object);
+            entityMap.put(object.getId(), object);
+            if (substringIndex != null) substringIndex.add(object);
+            memoryFootprint.added(object);
         }
+        entityTrie.bulkLoad(objects);
+        queryCache.changedAll();
+        onAllIndexed(objects);
+    }
+
+    /**
+     * Adds a list of objects read from the data file at dataFilePath, in the order they were read. If this service is
+     * still empty and the file has a trie image saved by {@link #writeIndexImage} that still matches it, the
+     * {@code entityTrie} is opened from the memory-mapped image instead of being built from the objects, and searches
+     * read nodes from the image as they reach them. Otherwise the objects are added with {@code addAll}.
+     * @param dataFilePath the data file objects were read from
+     * @param objects every object read from the data file, in file order
+     */
+    protected void addAllFromFile(String dataFilePath, List<T> objects) {
+        if (entityMap.isEmpty() && entityOrdinals.size() == 0) { // image postings are file positions, ordinals must match
+            try {
+                TrieImage image = TrieImage.open(imagePathOf(dataFilePath), Paths.get(dataFilePath), entityTrie,
+                        objects.size());
+                if (image != null) {
+                    for (T object : objects) {
+                        entityMap.put(object.getId(), object);
+                        entityOrdinals.ordinalOf(object);
+                        memoryFootprint.added(object);
+                    }
+                    entityTrie.loadImage(image);
+                    queryCache.changedAll();
+                    onAllIndexed(objects);
+                    return;
+                }
+            } catch (IOException e) {
+                System.out.println(getClass().getSimpleName() + ": Could not open index image of " + dataFilePath
+                        + " (" + e.getMessage() + ")");
+            }
+        }
+        addAll(objects);
+    }
+
+    /**
+     * Saves an image of the {@code entityTrie} next to the data file at dataFilePath, so the next
+     * {@link #addAllFromFile} of that file can open the trie instead of rebuilding it. The data file must already hold
+     * items in the given order. An image that cannot be written is reported and skipped; the trie is then rebuilt at
+     * the next startup.
+     * @param dataFilePath the data file items were just written to
+     * @param items every stored object, in the order they were written
+     */
+    protected void writeIndexImage(String dataFilePath, List<T> items) {
+        try {
+            TrieImage.write(imagePathOf(dataFilePath), Paths.get(dataFilePath), entityTrie, items);
+        } catch (IOException e) {
+            System.out.println(getClass().getSimpleName() + ": Could not write index image of " + dataFilePath
+                    + " (" + e.getMessage() + ")");
+        }
+    }
+
+    // path the generations of the trie image saved alongside the data file at dataFilePath are named after
+    private static Path imagePathOf(String dataFilePath) {
+        return Paths.get(dataFilePath + INDEX_IMAGE_SUFFIX);
+    }
+
+    /**
+     * Called after object is added to this service and after any of its attributes is updated, so subclasses can keep
+     * indexes of their own, such as a sorted index of dates. An object may be reported again without having changed.
+     * @param object the object added or updated
+     */
+    protected void onIndexed(T object) {
+    }
+
+    /**
+     * Called after objects are added to this service together, by {@code addAll} or from a data file, in place of
+     * {@link #onIndexed} for each, so subclasses can build indexes of their own in bulk. Calls {@code onIndexed} for
+     * each object by default.
+     * @param objects the objects added, in the order they were added
+     */
+    protected void onAllIndexed(List<T> objects) {
+        objects.forEach(this::onIndexed);
+    }
+
+    /**
+     * Called after object is deleted from this service, so subclasses can remove it from indexes of their own.
+     * @param object the object deleted
+     */
+    protected void onDeleted(T object) {
     }
 
     /**
@@ -82,7 +423,15 @@ public abstract class Service<T extends Entity<F>, F extends Enum<F>> {
      */
     public T delete(T object) {
         entityTrie.delete(object);
-        return entityMap.remove(object.getId());
+        if (substringIndex != null) substringIndex.delete(object);
+        entityOrdinals.release(object); // no index holds its ordinal now, so it can be reused
+        queryCache.changedAll();
+        onDeleted(object);
+        T removed = entityMap.remove(object.getId());
+        if (removed != null) { // an object deleted twice is only uncounted once
+            memoryFootprint.removed(removed);
+        }
+        return removed;
     }
     /**
      * Removes object of type T found with given id from storage
@@ -95,7 +444,8 @@ public abstract class Service<T extends Entity<F>, F extends Enum<F>> {
     }
 
     /**
-     * Update specified field of object found with id to new value.
+     * Update specified field of object found with id to new value. Updating a field that is not indexed, such as one
+     * that sets other fields, re-indexes every field of the object.
      * @param id Unique identifier of the object being updated
      * @param field specified field of object being modified, see {@code updateField} implementation in T
      * @param value new value to change specified field to value to
@@ -103,9 +453,28 @@ public abstract class Service<T extends Entity<F>, F extends Enum<F>> {
      */
     public void updateField(String id, F field, String value) {
         T entity = getById(id);
+        if (!fields.contains(field)) {
+            entityTrie.delete(entity);
+            if (substringIndex != null) substringIndex.delete(entity);
+            memoryFootprint.removed(entity);
+            try {
+                entity.updateField(field, value);
+            } finally { // an invalid value leaves the object unchanged and still indexed
+                entityTrie.insert(entity);
+                if (substringIndex != null) substringIndex.add(entity);
+                memoryFootprint.added(entity);
+                queryCache.changedAll();
+                onIndexed(entity);
+            }
+            return;
+        }
         String oldValue = entity.getFieldValue(field);
         entity.updateField(field, value);
         entityTrie.update(entity, field, oldValue);
+        if (substringIndex != null) substringIndex.update(entity, field, oldValue);
+        queryCache.changed(field);
+        memoryFootprint.changed(field, oldValue, entity.getFieldValue(field));
+        onIndexed(entity);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.*;
+
+/**
+ * An n-gram posting index used to find entities with attributes containing a search text anywhere, not only at the
+ * start like {@code CompactTrie}. Every attribute returned by {@code T.getFieldValue(F)} for the supplied fields is
+ * lowercased without accents and split into its overlapping three-character grams, and each gram maps to the entities
+ * of each field whose attribute contains it, held as a {@link PostingList} of entity ordinals. Attributes shorter than
+ * a gram are indexed whole.
+ * <p>
+ * A search of three or more characters intersects the postings of the grams in the search text, starting from the
+ * smallest, with {@link PostingList#and}, and checks the few remaining candidates with {@code String.contains}. A
+ * shorter search unions the postings of every gram containing it, which are bounded by the number of distinct grams
+ * rather than the number of entities.
+ * </p>
+ *
+ * @param <T> The type of entity stored in this index
+ * @param <F> The enum type defining fields in the entity, used to retrieve attributes.
+ */
+public class SubstringIndex<T extends Entity<F>, F extends Enum<F>> {
+    private static final int GRAM_LENGTH = 3;
+    // case and accents are ignored, whitespace is kept since it may be part of the searched text
+    private static final KeyNormalizer TEXT_FOLD = KeyNormalizer.STRIP_ACCENTS.andThen(KeyNormalizer.LOWERCASE);
+
+    private final List<F> fields;
+    private final EntityOrdinals<T> ordinals;
+    private final Map<String, Map<F, PostingList>> postings = new HashMap<>(); // gram -> field -> entity ordinals
+
+    /**
+     * Initializes an empty index with a list of fields.
+     * @param fields list of enum values representing fields that can be indexed and searched.
+     *               String values must be returned by {@code T.getFieldValue(F)}
+     */
+    public SubstringIndex(List<F> fields) {
+        this(fields, new EntityOrdinals<>());
+    }
+
+    /**
+     * Initializes an empty index with a list of fields, storing entities by the ordinals of a shared table.
+     * @param fields list of enum values representing fields that can be indexed and searched.
+     *               String values must be returned by {@code T.getFieldValue(F)}
+     * @param ordinals table assigning the ordinals entities are stored by
+     */
+    public SubstringIndex(List<F> fields, EntityOrdinals<T> ordinals) {
+        this.fields = fields;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * Indexes the attribute of every field of the supplied object.
+     * @param object the entity to index
+     */
+    public void add(T object) {
+        int ordinal = ordinals.ordinalOf(object);
+        for (F field : fields) {
+            add(ordinal, field, object.getFieldValue(field));
+        }
+    }
+
+    /**
+     * Removes the attribute of every field of the supplied object from this index.
+     * @param object the entity to remove
+     */
+    public void delete(T object) {
+        int ordinal = ordinals.find(object);
+        if (ordinal < 0) { // never indexed
+            return;
+        }
+        for (F field : fields) {
+            delete(ordinal, field, object.getFieldValue(field));
+        }
+    }
+
+    /**
+     * Re-indexes an object whose field has been changed from oldValue to its current value.
+     * @param object the updated entity
+     * @param field the field that was updated
+     * @param oldValue the attribute the object was indexed with before the update
+     */
+    public void update(T object, F field, String oldValue) {
+        if (!fields.contains(field)) {
+            return;
+        }
+        int ordinal = ordinals.ordinalOf(object);
+        delete(ordinal, field, oldValue);
+        add(ordinal, field, object.getFieldValue(field));
+    }
+
+    /**
+     * Returns every entity with an attribute of the given field containing the supplied text, ignoring case and
+     * accents.
+     * @param text the text to find within attributes
+     * @param field the field to search, or null to search all fields
+     * @return a set of matching entities, empty if none match
+     */
+    public Set<T> searchContaining(String text, F field) {
+        String query = TEXT_FOLD.normalize(text);
+        List<F> searchFields = (field == null) ? fields : List.of(field);
+        if (query.length() < GRAM_LENGTH) {
+            // any shorter text is inside one of the grams, or is an attribute shorter than a gram
+            PostingList matches = new PostingList();
+            for (Map.Entry<String, Map<F, PostingList>> entry : postings.entrySet()) {
+                if (entry.getKey().contains(query)) {
+                    for (F searchField : searchFields) {
+                        PostingList fieldPostings = entry.getValue().get(searchField);
+                        if (fieldPostings != null) {
+                            matches.addAll(fieldPostings);
+                        }
+                    }
+                }
+            }
+            return new HashSet<>(ordinals.asSet(matches));
+        }
+        Set<T> results = new HashSet<>();
+        for (F searchField : searchFields) {
+            candidates(query, searchField).forEach(ordinal -> {
+                T candidate = ordinals.get(ordinal);
+                if (TEXT_FOLD.normalize(candidate.getFieldValue(searchField)).contains(query)) {
+                    results.add(candidate);
+                }
+            });
+        }
+        return results;
+    }
+
+    /**
+     * Returns every entity with any attribute containing the supplied text, ignoring case and accents.
+     * @param text the text to find within attributes
+     * @return a set of matching entities, empty if none match
+     */
+    public Set<T> searchContaining(String text) {
+        return searchContaining(text, null);
+    }
+
+    // PRIVATE HELPER METHODS
+    // Returns the ordinals of field's entities holding every gram of query, intersecting the smallest postings first,
+    // may include false matches
+    private PostingList candidates(String query, F field) {
+        List<PostingList> gramPostings = new ArrayList<>();
+        for (String gram : gramsOf(query)) {
+            Map<F, PostingList> fieldPostings = postings.get(gram);
+            PostingList entities = (fieldPostings == null) ? null : fieldPostings.get(field);
+            if (entities == null) {
+                return new PostingList();
+            }
+            gramPostings.add(entities);
+        }
+        gramPostings.sort(Comparator.comparingInt(PostingList::size));
+        PostingList candidates = gramPostings.get(0);
+        for (int i = 1; i < gramPostings.size() && !candidates.isEmpty(); i++) {
+            candidates = PostingList.and(candidates, gramPostings.get(i));
+        }
+        return candidates;
+    }
+
+    private void add(int ordinal, F field, String value) {
+        for (String gram : gramsOf(TEXT_FOLD.normalize(value))) {
+            postings.computeIfAbsent(gram, g -> new EnumMap<>(field.getDeclaringClass()))
+                    .computeIfAbsent(field, f -> new PostingList())
+                    .add(ordinal);
+        }
+    }
+
+    private void delete(int ordinal, F field, String value) {
+        for (String gram : gramsOf(TEXT_FOLD.normalize(value))) {
+            Map<F, PostingList> fieldPostings = postings.get(gram);
+            if (fieldPostings == null) {
+                continue;
+            }
+            PostingList entities = fieldPostings.get(field);
+            if (entities != null && entities.remove(ordinal) && entities.isEmpty()) {
+                fieldPostings.remove(field);
+                if (fieldPostings.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    // Returns the distinct overlapping grams of value, or value itself when it is shorter than a gram
+    private static Set<String> gramsOf(String value) {
+        if (value.length() < GRAM_LENGTH) {
+            return value.isEmpty() ? Set.of() : Set.of(value);
+        }
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,110 @@
+package edu.snhu.dayplanner.service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * An index of entities sorted by a point in time, such as the date of an appointment, answering range and "next"
+ * queries without scanning every entity. Entities are held in a {@link TreeMap} from each indexed time to the entities
+ * at that time, so finding the k entities of a range costs O(log n + k).
+ * <p>
+ * The time each entity is indexed at is remembered, so an entity whose time changed is moved, and a deleted entity is
+ * removed, without reading its old time from the entity again.</p>
+ *
+ * @param <T> The type of entity stored in this index
+ */
+public class TimeIndex<T extends Entity<?>> {
+    private final Function<T, LocalDateTime> timeOf;
+    private final NavigableMap<LocalDateTime, List<T>> entities = new TreeMap<>(); // time -> entities at that time
+    private final Map<String, LocalDateTime> indexedTimes = new HashMap<>();     // id -> time the entity is indexed at
+
+    /**
+     * Initializes an empty index
+     * @param timeOf returns the time an entity is indexed at
+     */
+    public TimeIndex(Function<T, LocalDateTime> timeOf) {
+        this.timeOf = timeOf;
+    }
+
+    /**
+     * Indexes an entity at its current time, moving it if it was indexed at another time
+     * @param object the entity to index
+     */
+    public void add(T object) {
+        LocalDateTime time = timeOf.apply(object);
+        LocalDateTime indexedTime = indexedTimes.put(object.getId(), time);
+        if (time.equals(indexedTime)) {
+            return; // unchanged
+        }
+        if (indexedTime != null) {
+            removeAt(indexedTime, object);
+        }
+        entities.computeIfAbsent(time, t -> new ArrayList<>(1)).add(object);
+    }
+
+    /**
+     * Removes an entity from the time it was indexed at
+     * @param object the entity to remove
+     * @return false if the entity was not indexed
+     */
+    public boolean remove(T object) {
+        LocalDateTime indexedTime = indexedTimes.remove(object.getId());
+        if (indexedTime == null) {
+            return false;
+        }
+        removeAt(indexedTime, object);
+        return true;
+    }
+
+    /**
+     * Returns the entities indexed at or after from and before to, in ascending order of time
+     * @param from the earliest time to return
+     * @param to the time after the last time to return
+     * @return a list of the entities in the range, empty if there are none or to is not after from
+     */
+    public List<T> findBetween(LocalDateTime from, LocalDateTime to) {
+        List<T> found = new ArrayList<>();
+        if (from.isBefore(to)) {
+            entities.subMap(from, true, to, false).values().forEach(found::addAll);
+        }
+        return found;
+    }
+
+    /**
+     * Returns the first count entities indexed at or after from, in ascending order of time
+     * @param from the earliest time to return
+     * @param count the largest number of entities to return
+     * @return a list of at most count entities
+     * @throws IllegalArgumentException if count is negative
+     */
+    public List<T> findNext(LocalDateTime from, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid count, " + count + ", must not be negative.");
+        }
+        List<T> found = new ArrayList<>(Math.min(count, indexedTimes.size()));
+        for (List<T> atTime : entities.tailMap(from, true).values()) {
+            for (T object : atTime) {
+                if (found.size() == count) {
+                    return found;
+                }
+                found.add(object);
+            }
+        }
+        return found;
+    }
+
+    /** @return the number of indexed entities */
+    public int size() {
+        return indexedTimes.size();
+    }
+
+    // removes object from the entities at time, dropping the time once no entity is left there
+    private void removeAt(LocalDateTime time, T object) {
+        List<T> atTime = entities.get(time);
+        atTime.remove(object);
+        if (atTime.isEmpty()) {
+            entities.remove(time);
+        }
+    }
+}
@@ -0,0 +1,620 @@
+package edu.snhu.dayplanner.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A read-only binary image of the trees of a {@link CompactTrie}, saved next to the data file its entities were
+ * written to so the trie can be opened at startup instead of rebuilt. The image is memory-mapped and searched in place:
+ * labels are compared and postings read straight from the mapped file, and a node object is only created the first
+ * time a search reaches it.
+ * <p>
+ * Every field's tree is flattened breadth-first into one table of fixed-size node records, so the children of a node
+ * are consecutive records. Each record holds the offset and length of the node's partial prefix in a table of edge
+ * label characters, the offset and length of its entity ordinals in a table of postings, its subtree count, the index
+ * and number of its children, and the weight of the heaviest key below it. Postings store each entity's position in
+ * the data file rather than its ordinal, so the service assigns ordinals in file order when it reads the data file
+ * back.</p>
+ * <p>
+ * The header stamps the image with the size and modification time of the data file, the number of entities written,
+ * and the keys each field's tokenizer and normalizer give a sample value. An image is only opened when every stamp
+ * still matches, so a data file changed by anything else, or fields keyed differently, cause the trie to be rebuilt
+ * instead.</p>
+ * <p>
+ * Opened nodes are never modified. A trie editing an opened image copies each node on its path first, the same way it
+ * edits nodes shared with a snapshot, so unchanged subtrees stay in the mapped file.</p>
+ * <p>
+ * Each write saves a new generation of the image under a fresh file name, the image path followed by a generation
+ * number, and opening reads the newest. An image still mapped by a running trie is never replaced, which some
+ * platforms refuse, and older generations are deleted once the file system allows it.</p>
+ */
+final class TrieImage {
+    private static final int MAGIC = 0x44505449; // "DPTI"
+    private static final int VERSION = 3;
+    private static final int NODE_INTS = 8;      // ints in each node record
+    private static final int FIXED_HEADER_BYTES = 32; // magic through field count
+    private static final String PROBE = " Ab  1-\u00c9x"; // stamps how each field's tokenizer and normalizer key it
+
+    // node record layout
+    private static final int LABEL_START = 0;
+    private static final int LABEL_LENGTH = 1;
+    private static final int POSTING_START = 2;
+    private static final int POSTING_COUNT = 3;
+    private static final int SUBTREE_COUNT = 4;
+    private static final int FIRST_CHILD = 5;
+    private static final int CHILD_COUNT = 6;
+    private static final int MAX_WEIGHT = 7;
+
+    private final ByteBuffer buffer;
+    private final int nodesOffset;    // byte offset of the node table
+    private final int labelsOffset;   // byte offset of the edge label characters
+    private final int postingsOffset; // byte offset of the postings
+    private final int[] rootIndexes;  // node index of each field's root, in the order of the trie's fields
+    private final int nodeCount;
+    private final int keyCount;
+    private final AtomicReferenceArray<MappedTrieNode> nodes; // each node once it is reached, null until then
+
+    private TrieImage(ByteBuffer buffer, int nodesOffset, int labelsOffset, int postingsOffset, int[] rootIndexes,
+                      int nodeCount, int keyCount) {
+        this.buffer = buffer;
+        this.nodesOffset = nodesOffset;
+        this.labelsOffset = labelsOffset;
+        this.postingsOffset = postingsOffset;
+        this.rootIndexes = rootIndexes;
+        this.nodeCount = nodeCount;
+        this.keyCount = keyCount;
+        this.nodes = new AtomicReferenceArray<>(nodeCount);
+    }
+
+    // WRITING
+    /**
+     * Writes an image of trie as the next generation of imagePath, then deletes the older generations that can be
+     * deleted. The data file must already hold the entities in the given order.
+     * @param imagePath the path the generations of the image are named after
+     * @param dataPath the data file the entities were written to
+     * @param trie the trie to save
+     * @param entities the entities of trie in the order they were written to the data file
+     * @throws IOException if the image could not be written
+     */
+    static <T extends Entity<F>, F extends Enum<F>> void write(Path imagePath, Path dataPath, CompactTrie<T, F> trie,
+                                                               List<T> entities) throws IOException {
+        // position of each entity in the data file by ordinal
+        EntityOrdinals<T> ordinals = trie.getOrdinals();
+        int[] positions = new int[ordinals.size()];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < entities.size(); i++) {
+            int ordinal = ordinals.find(entities.get(i));
+            if (ordinal >= 0) {
+                positions[ordinal] = i;
+            }
+        }
+
+        // flatten each field's tree breadth-first, so the children of each node are consecutive
+        List<F> fields = trie.getFields();
+        List<CompactTrieNode> nodes = new ArrayList<>();
+        List<Integer> firstChildren = new ArrayList<>();
+        int[] rootIndexes = new int[fields.size()];
+        for (int f = 0; f < fields.size(); f++) {
+            rootIndexes[f] = nodes.size();
+            nodes.add(trie.rootOf(fields.get(f)));
+            for (int i = rootIndexes[f]; i < nodes.size(); i++) {
+                firstChildren.add(nodes.size());
+                nodes.addAll(nodes.get(i).children());
+            }
+        }
+
+        NavigableMap<Long, Path> generations = generationsOf(imagePath);
+        long generation = generations.isEmpty() ? 1 : generations.lastKey() + 1;
+        Path target = imagePath.resolveSibling(imagePath.getFileName() + "." + generation);
+        Path temp = imagePath.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            StringBuilder labels = new StringBuilder();
+            List<int[]> postings = new ArrayList<>(); // remapped postings of each node
+            int postingTotal = 0;
+            int keyCount = 0;
+            for (CompactTrieNode node : nodes) {
+                labels.append(node.partial());
+                int[] nodePostings = positionsOf(node.getData(), positions);
+                postings.add(nodePostings);
+                postingTotal += nodePostings.length;
+                if (nodePostings.length > 0) keyCount++;
+            }
+
+            // counts and weights of the postings written, which skip entities missing from the data file, so the
+            // opened image agrees with itself. Children follow their parent, so each is summed before its parent.
+            int[] subtreeCounts = new int[nodes.size()];
+            int[] maxWeights = new int[nodes.size()];
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                subtreeCounts[i] = postings.get(i).length;
+                maxWeights[i] = postings.get(i).length;
+                int first = firstChildren.get(i);
+                for (int child = first; child < first + nodes.get(i).childCount(); child++) {
+                    subtreeCounts[i] += subtreeCounts[child];
+                    maxWeights[i] = Math.max(maxWeights[i], maxWeights[child]);
+                }
+            }
+
+            // header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(dataPath));
+            out.writeLong(Files.getLastModifiedTime(dataPath).toMillis());
+            out.writeInt(entities.size());
+            out.writeInt(fields.size());
+            for (int f = 0; f < fields.size(); f++) {
+                writeString(out, fields.get(f).name());
+                writeString(out, stampOf(trie, fields.get(f)));
+                out.writeInt(rootIndexes[f]);
+            }
+            out.writeInt(nodes.size());
+            out.writeInt(keyCount);
+            out.writeInt(labels.length());
+            out.writeInt(postingTotal);
+
+            // node records
+            int labelStart = 0;
+            int postingStart = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                CompactTrieNode node = nodes.get(i);
+                out.writeInt(labelStart);
+                out.writeInt(node.partialLength());
+                out.writeInt(postingStart);
+                out.writeInt(postings.get(i).length);
+                out.writeInt(subtreeCounts[i]);
+                out.writeInt(firstChildren.get(i));
+                out.writeInt(node.childCount());
+                out.writeInt(maxWeights[i]);
+                labelStart += node.partialLength();
+                postingStart += postings.get(i).length;
+            }
+            out.writeChars(labels.toString());
+            for (int[] nodePostings : postings) {
+                for (int position : nodePostings) {
+                    out.writeInt(position);
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE); // a new name, never one that may be mapped
+        for (Path older : generations.values()) {
+            try {
+                Files.deleteIfExists(older);
+            } catch (IOException e) {
+                // still mapped where the platform forbids deleting it, the next write tries again
+            }
+        }
+    }
+
+    // the generations of the image at imagePath that exist, by generation number
+    private static NavigableMap<Long, Path> generationsOf(Path imagePath) throws IOException {
+        NavigableMap<Long, Path> generations = new TreeMap<>();
+        Path directory = imagePath.toAbsolutePath().getParent();
+        String prefix = imagePath.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                boolean isNumber = !suffix.isEmpty() && suffix.chars().allMatch(c -> c >= '0' && c <= '9');
+                if (isNumber && suffix.length() < 19) { // skips temporary files and numbers too long for a long
+                    generations.put(Long.parseLong(suffix), file);
+                }
+            }
+        }
+        return generations;
+    }
+
+    // Returns the data file positions of the entities in postings in ascending order, skipping entities not written
+    private static int[] positionsOf(PostingList postings, int[] positions) {
+        if (postings == null) {
+            return new int[0];
+        }
+        int[] result = new int[postings.size()];
+        int count = 0;
+        for (PrimitiveIterator.OfInt iterator = postings.iterator(); iterator.hasNext(); ) {
+            int position = positions[iterator.nextInt()];
+            if (position >= 0) {
+                result[count++] = position;
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // the keys field indexes the probe value with, one per line, identifying its tokenizer and normalizer
+    private static <F extends Enum<F>> String stampOf(CompactTrie<?, F> trie, F field) {
+        StringBuilder stamp = new StringBuilder();
+        for (String token : trie.getKeyTokenizer(field).tokenize(PROBE)) {
+            stamp.append(trie.getKeyNormalizer(field).normalize(token)).append('\n');
+        }
+        return stamp.toString();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeInt(value.length());
+        out.writeChars(value);
+    }
+
+    // OPENING
+    /**
+     * Maps the newest generation of the image at imagePath if it was written for the current contents of the data file
+     * and the fields and normalizers of trie. The header is read and checked before the file is mapped, so an image
+     * that does not match is never mapped.
+     * @param imagePath the path the generations of the image are named after
+     * @param dataPath the data file the image was written with
+     * @param trie the trie that will search the image
+     * @param entityCount the number of entities read from the data file
+     * @return the mapped image, or null if there is no image or it does not match
+     * @throws IOException if the image could not be read
+     */
+    static <F extends Enum<F>> TrieImage open(Path imagePath, Path dataPath, CompactTrie<?, F> trie,
+                                              int entityCount) throws IOException {
+        if (!Files.exists(dataPath)) {
+            return null;
+        }
+        NavigableMap<Long, Path> generations = generationsOf(imagePath);
+        if (generations.isEmpty()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(generations.lastEntry().getValue(), StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, FIXED_HEADER_BYTES);
+            if (header == null || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != Files.size(dataPath)
+                    || header.getLong() != Files.getLastModifiedTime(dataPath).toMillis()
+                    || header.getInt() != entityCount) {
+                return null;
+            }
+            List<F> fields = trie.getFields();
+            if (header.getInt() != fields.size()) {
+                return null;
+            }
+            int[] rootIndexes = new int[fields.size()];
+            for (int f = 0; f < fields.size(); f++) {
+                if (!fields.get(f).name().equals(readString(channel))
+                        || !stampOf(trie, fields.get(f)).equals(readString(channel))) {
+                    return null;
+                }
+                ByteBuffer root = read(channel, Integer.BYTES);
+                if (root == null) {
+                    return null;
+                }
+                rootIndexes[f] = root.getInt();
+            }
+            ByteBuffer counts = read(channel, 4 * Integer.BYTES);
+            if (counts == null) {
+                return null;
+            }
+            int nodeCount = counts.getInt();
+            int keyCount = counts.getInt();
+            int labelCount = counts.getInt();
+            int postingCount = counts.getInt();
+            long nodesOffset = channel.position();
+            long labelsOffset = nodesOffset + (long) nodeCount * NODE_INTS * Integer.BYTES;
+            long postingsOffset = labelsOffset + (long) labelCount * Character.BYTES;
+            if (nodeCount < 0 || labelCount < 0 || postingCount < 0 || channel.size() > Integer.MAX_VALUE
+                    || postingsOffset + (long) postingCount * Integer.BYTES != channel.size()) {
+                return null; // truncated, padded, or too large to map
+            }
+            // the mapping stays valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new TrieImage(buffer, (int) nodesOffset, (int) labelsOffset, (int) postingsOffset, rootIndexes,
+                    nodeCount, keyCount);
+        }
+    }
+
+    // reads the next bytes of channel, or returns null if the file ends first
+    private static ByteBuffer read(FileChannel channel, long bytes) throws IOException {
+        if (bytes < 0 || bytes > channel.size() - channel.position()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return null;
+            }
+        }
+        return buffer.flip();
+    }
+
+    // reads a string written by writeString, or returns null if the file ends first
+    private static String readString(FileChannel channel) throws IOException {
+        ByteBuffer length = read(channel, Integer.BYTES);
+        if (length == null) {
+            return null;
+        }
+        ByteBuffer chars = read(channel, (long) length.getInt() * Character.BYTES);
+        return chars == null ? null : chars.asCharBuffer().toString();
+    }
+
+    /**
+     * Returns the root of each field's tree in this image, in the order of the fields of the trie the image was opened
+     * for. Each node is created the first time it is reached and kept for later searches.
+     */
+    CompactTrieNode[] roots() {
+        CompactTrieNode[] roots = new CompactTrieNode[rootIndexes.length];
+        for (int f = 0; f < roots.length; f++) {
+            roots[f] = node(rootIndexes[f]);
+        }
+        return roots;
+    }
+
+    /** @return the number of nodes in this image below the root of each field */
+    int nodeCount() {
+        return nodeCount - rootIndexes.length;
+    }
+
+    /** @return the number of nodes in this image that end a key */
+    int keyCount() {
+        return keyCount;
+    }
+
+    // NODE RECORDS
+    private int field(int node, int field) {
+        return buffer.getInt(nodesOffset + (node * NODE_INTS + field) * Integer.BYTES);
+    }
+
+    private char labelChar(int index) {
+        return buffer.getChar(labelsOffset + index * Character.BYTES);
+    }
+
+    private String label(int node) {
+        int start = field(node, LABEL_START);
+        char[] chars = new char[field(node, LABEL_LENGTH)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = labelChar(start + i);
+        }
+        return new String(chars);
+    }
+
+    private PostingList postings(int node) {
+        int count = field(node, POSTING_COUNT);
+        if (count == 0) {
+            return null;
+        }
+        int start = postingsOffset + field(node, POSTING_START) * Integer.BYTES;
+        PostingList postings = new PostingList(buffer.getInt(start));
+        for (int i = 1; i < count; i++) {
+            postings.add(buffer.getInt(start + i * Integer.BYTES)); // ascending, so each add appends
+        }
+        return postings;
+    }
+
+    // Returns the node at index, creating it the first time it is reached
+    private CompactTrieNode node(int index) {
+        MappedTrieNode node = nodes.get(index);
+        if (node == null) {
+            node = new MappedTrieNode(this, index);
+            nodes.set(index, node); // a node created twice by racing readers is equal to the other
+        }
+        return node;
+    }
+
+    /**
+     * A node read in place from a {@link TrieImage}. Its partial prefix is kept as an offset into the label table and
+     * compared character by character, and its postings are read from the mapped file each time they are iterated or
+     * searched; only {@link #getData()} decodes them into a new list. Children are created the first time they are
+     * reached and then kept by the image. The node belongs to no write epoch, so a trie always copies it before
+     * changing it, and it refuses every change made directly.
+     */
+    private static final class MappedTrieNode extends CompactTrieNode {
+        private final TrieImage image;
+        private final int index;
+        private final int labelStart;
+        private final int labelLength;
+        private final int postingStart; // byte offset of the node's first posting in the mapped file
+        private final int postingCount;
+
+        MappedTrieNode(TrieImage image, int index) {
+            super(null, -1); // the partial prefix is read through the accessors instead
+            this.image = image;
+            this.index = index;
+            this.labelStart = image.field(index, LABEL_START);
+            this.labelLength = image.field(index, LABEL_LENGTH);
+            this.postingStart = image.postingsOffset + image.field(index, POSTING_START) * Integer.BYTES;
+            this.postingCount = image.field(index, POSTING_COUNT);
+            this.isWordEnd = postingCount > 0;
+        }
+
+        @Override
+        int partialLength() {
+            return labelLength;
+        }
+
+        @Override
+        char partialCharAt(int i) {
+            return image.labelChar(labelStart + i);
+        }
+
+        @Override
+        String partial() {
+            return image.label(index);
+        }
+
+        @Override
+        long partialBytes() {
+            return 0; // in the mapped file
+        }
+
+        // the posting at i, in ascending order
+        private int posting(int i) {
+            return image.buffer.getInt(postingStart + i * Integer.BYTES);
+        }
+
+        @Override
+        public PostingList getData() {
+            return image.postings(index);
+        }
+
+        @Override
+        int dataSize() {
+            return postingCount;
+        }
+
+        @Override
+        boolean hasEmptyData() {
+            return false;
+        }
+
+        @Override
+        public boolean containsObject(int ordinal) {
+            int low = 0;
+            int high = postingCount - 1;
+            while (low <= high) { // postings are in ascending order
+                int mid = (low + high) >>> 1;
+                int posting = posting(mid);
+                if (posting < ordinal) {
+                    low = mid + 1;
+                } else if (posting > ordinal) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        PrimitiveIterator.OfInt dataIterator() {
+            return new PrimitiveIterator.OfInt() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < postingCount;
+                }
+
+                @Override
+                public int nextInt() {
+                    if (next == postingCount) {
+                        throw new NoSuchElementException();
+                    }
+                    return posting(next++);
+                }
+            };
+        }
+
+        @Override
+        void addDataTo(PostingList results) {
+            for (int i = 0; i < postingCount; i++) {
+                results.add(posting(i));
+            }
+        }
+
+        @Override
+        long dataBytes() {
+            return 0; // in the mapped file
+        }
+
+        @Override
+        public CompactTrieNode getChild(char key) {
+            int low = image.field(index, FIRST_CHILD);
+            int high = low + image.field(index, CHILD_COUNT) - 1;
+            while (low <= high) { // children are in ascending order of their first label character
+                int mid = (low + high) >>> 1;
+                char midKey = image.labelChar(image.field(mid, LABEL_START));
+                if (midKey < key) {
+                    low = mid + 1;
+                } else if (midKey > key) {
+                    high = mid - 1;
+                } else {
+                    return image.node(mid);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public int childCount() {
+            return image.field(index, CHILD_COUNT);
+        }
+
+        @Override
+        public boolean hasNoChildren() {
+            return childCount() == 0;
+        }
+
+        @Override
+        public CompactTrieNode firstChild() {
+            return hasNoChildren() ? null : image.node(image.field(index, FIRST_CHILD));
+        }
+
+        @Override
+        public List<CompactTrieNode> children() {
+            List<CompactTrieNode> children = new ArrayList<>(childCount());
+            forEachChild(children::add);
+            return children;
+        }
+
+        @Override
+        public void forEachChild(Consumer<CompactTrieNode> action) {
+            int first = image.field(index, FIRST_CHILD);
+            for (int child = first; child < first + childCount(); child++) {
+                action.accept(image.node(child));
+            }
+        }
+
+        @Override
+        public void forEachChildDescending(Consumer<CompactTrieNode> action) {
+            int first = image.field(index, FIRST_CHILD);
+            for (int child = first + childCount() - 1; child >= first; child--) {
+                action.accept(image.node(child));
+            }
+        }
+
+        @Override
+        public int subtreeCount() {
+            return image.field(index, SUBTREE_COUNT);
+        }
+
+        @Override
+        public int maxWeight() {
+            return image.field(index, MAX_WEIGHT);
+        }
+
+        @Override
+        CompactTrieNode copy(int epoch) {
+            CompactTrieNode copy = new CompactTrieNode(partial(), epoch);
+            forEachChild(child -> copy.putChild(child.partialCharAt(0), child));
+            copy.isWordEnd = isWordEnd;
+            copy.data = image.postings(index); // decoded into a list the copy owns
+            copy.adjustSubtreeCount(subtreeCount());
+            copy.raiseMaxWeight(maxWeight());
+            return copy;
+        }
+
+        @Override
+        public void putChild(char key, CompactTrieNode child) {
+            throw new UnsupportedOperationException("Nodes of a trie image are read-only");
+        }
+
+        @Override
+        public CompactTrieNode removeChild(char key) {
+            throw new UnsupportedOperationException("Nodes of a trie image are read-only");
+        }
+
+        @Override
+        public void takeChildrenFrom(CompactTrieNode other) {
+            throw new UnsupportedOperationException("Nodes of a trie image are read-only");
+        }
+
+        @Override
+        public boolean addObject(int ordinal) {
+            throw new UnsupportedOperationException("Nodes of a trie image are read-only");
+        }
+
+        @Override
+        public boolean removeObject(int ordinal) {
+            throw new UnsupportedOperationException("Nodes of a trie image are read-only");
+        }
+    }
+}
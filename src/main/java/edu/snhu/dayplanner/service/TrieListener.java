@@ -0,0 +1,69 @@
+package edu.snhu.dayplanner.service;
+
+/**
+ * Receives notifications of the structural changes made to a {@link CompactTrie} as entities are inserted and
+ * deleted. Every method does nothing by default, so implementations only override the events they need.
+ * <p>
+ * A trie without a listener skips every notification, so instrumentation costs nothing until a listener is set with
+ * {@link CompactTrie#setListener(TrieListener)}. Notifications are made on the thread modifying the trie and should
+ * return quickly.</p>
+ *
+ * @param <F> The enum type defining fields in the indexed entities
+ */
+public interface TrieListener<F extends Enum<F>> {
+
+    /**
+     * Called after an entity is indexed under a key.
+     * @param key         the key the entity was indexed with
+     * @param field       the field the key was taken from
+     * @param depth       the number of nodes below the root traversed to reach the key's node
+     * @param dataSetSize the number of entities now indexed under the key for field
+     */
+    default void onInsert(String key, F field, int depth, int dataSetSize) {}
+
+    /**
+     * Called after an entity is removed from the entities indexed under a key.
+     * @param key   the key the entity was removed from
+     * @param field the field the key was taken from
+     */
+    default void onDelete(String key, F field) {}
+
+    /**
+     * Called after a node is split in two because a key diverged partway through its partial prefix.
+     * @param prefix       the key up to and including the part of the node that was kept
+     * @param splitPartial the partial prefix moved to the new child node
+     */
+    default void onSplit(String prefix, String splitPartial) {}
+
+    /**
+     * Called after a node with a single remaining child absorbs that child.
+     * @param mergedPartial the partial prefix of the node after the merge
+     */
+    default void onMerge(String mergedPartial) {}
+
+    /** Called after a node is added to the trie. */
+    default void onNodeCreated() {}
+
+    /** Called after a node is removed from the trie. */
+    default void onNodeRemoved() {}
+
+    /** Called after a node becomes the end of a key. */
+    default void onKeyAdded() {}
+
+    /** Called after a node stops being the end of a key because no entities are indexed under it. */
+    default void onKeyRemoved() {}
+
+    /**
+     * Called after the trees of the trie are replaced with the trees of a saved image rather than built key by key.
+     * @param nodeCount the number of nodes below the roots in the image
+     * @param keyCount  the number of nodes in the image that end a key
+     */
+    default void onImageLoaded(int nodeCount, int keyCount) {}
+
+    /**
+     * Called after the trees of the trie are replaced with compacted copies without the nodes deletes left behind.
+     * @param nodesBefore the number of nodes below the roots before compaction
+     * @param nodesAfter  the number of nodes below the roots after compaction
+     */
+    default void onCompact(int nodesBefore, int nodesAfter) {}
+}
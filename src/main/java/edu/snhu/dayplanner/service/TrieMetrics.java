@@ -0,0 +1,141 @@
+package edu.snhu.dayplanner.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TrieListener} keeping live counters of the structure of a {@link CompactTrie}. Counters are updated by the
+ * thread modifying the trie and may be read from any thread, such as a JMX client through {@link TrieMetricsMBean}.
+ * <p>
+ * Depth and data set statistics are observed as keys are inserted: the maximum and largest values are high-water
+ * marks, and the average depth is taken over every insertion since the last {@link #reset()}.</p>
+ *
+ * @param <F> The enum type defining fields in the indexed entities
+ */
+public class TrieMetrics<F extends Enum<F>> implements TrieListener<F>, TrieMetricsMBean {
+    private final AtomicLong splits = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong nodeCount = new AtomicLong();
+    private final AtomicLong keyCount = new AtomicLong();
+    private final AtomicLong insertCount = new AtomicLong();
+    private final AtomicLong depthTotal = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicInteger largestDataSetSize = new AtomicInteger();
+
+    // LISTENER EVENTS
+    @Override
+    public void onInsert(String key, F field, int depth, int dataSetSize) {
+        insertCount.incrementAndGet();
+        depthTotal.addAndGet(depth);
+        maxDepth.accumulateAndGet(depth, Math::max);
+        largestDataSetSize.accumulateAndGet(dataSetSize, Math::max);
+    }
+
+    @Override
+    public void onSplit(String prefix, String splitPartial) {
+        splits.incrementAndGet();
+    }
+
+    @Override
+    public void onMerge(String mergedPartial) {
+        merges.incrementAndGet();
+    }
+
+    @Override
+    public void onNodeCreated() {
+        nodeCount.incrementAndGet();
+    }
+
+    @Override
+    public void onNodeRemoved() {
+        nodeCount.decrementAndGet();
+    }
+
+    @Override
+    public void onKeyAdded() {
+        keyCount.incrementAndGet();
+    }
+
+    @Override
+    public void onKeyRemoved() {
+        keyCount.decrementAndGet();
+    }
+
+    @Override
+    public void onImageLoaded(int nodeCount, int keyCount) {
+        this.nodeCount.addAndGet(nodeCount);
+        this.keyCount.addAndGet(keyCount);
+    }
+
+    @Override
+    public void onCompact(int nodesBefore, int nodesAfter) {
+        compactions.incrementAndGet();
+        nodeCount.addAndGet(nodesAfter - nodesBefore);
+    }
+
+    // MBEAN ATTRIBUTES
+    @Override
+    public long getSplits() {
+        return splits.get();
+    }
+
+    @Override
+    public long getMerges() {
+        return merges.get();
+    }
+
+    @Override
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    @Override
+    public long getNodeCount() {
+        return nodeCount.get();
+    }
+
+    @Override
+    public long getKeyCount() {
+        return keyCount.get();
+    }
+
+    @Override
+    public long getInsertCount() {
+        return insertCount.get();
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public double getAverageDepth() {
+        long inserts = insertCount.get();
+        return inserts == 0 ? 0 : (double) depthTotal.get() / inserts;
+    }
+
+    @Override
+    public int getLargestDataSetSize() {
+        return largestDataSetSize.get();
+    }
+
+    @Override
+    public void reset() {
+        splits.set(0);
+        merges.set(0);
+        compactions.set(0);
+        insertCount.set(0);
+        depthTotal.set(0);
+        maxDepth.set(0);
+        largestDataSetSize.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "TrieMetrics(nodes=" + getNodeCount() + ", keys=" + getKeyCount() + ", splits=" + getSplits()
+                + ", merges=" + getMerges() + ", compactions=" + getCompactions() + ", maxDepth=" + getMaxDepth()
+                + ", averageDepth=" + getAverageDepth() + ", largestDataSet=" + getLargestDataSetSize() + ")";
+    }
+}
@@ -0,0 +1,37 @@
+package edu.snhu.dayplanner.service;
+
+/**
+ * Management interface exposing the structural health of a {@link CompactTrie} through JMX.
+ * @see TrieMetrics
+ */
+public interface TrieMetricsMBean {
+    /** @return the number of nodes split by insertions */
+    long getSplits();
+
+    /** @return the number of nodes merged with their only child by deletions */
+    long getMerges();
+
+    /** @return the number of times the trie was rebuilt without the nodes deletes left behind */
+    long getCompactions();
+
+    /** @return the number of nodes in the trie, not counting the root */
+    long getNodeCount();
+
+    /** @return the number of distinct keys in the trie */
+    long getKeyCount();
+
+    /** @return the number of keys indexed, counting each entity and field once */
+    long getInsertCount();
+
+    /** @return the deepest node, in nodes below the root, reached by an insertion */
+    int getMaxDepth();
+
+    /** @return the average depth, in nodes below the root, reached by insertions */
+    double getAverageDepth();
+
+    /** @return the largest number of entities indexed under a single key and field */
+    int getLargestDataSetSize();
+
+    /** Resets the split, merge, compaction, insertion, depth, and data set statistics. Node and key counts are kept. */
+    void reset();
+}
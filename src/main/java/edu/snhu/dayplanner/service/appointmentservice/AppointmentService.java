@@ -14,16 +14,22 @@
  *****************************************************************************/
 package edu.snhu.dayplanner.service.appointmentservice;
 
+import edu.snhu.dayplanner.service.KeyTokenizer;
 import edu.snhu.dayplanner.service.Service;
 import edu.snhu.dayplanner.service.ServiceFileUtility;
+import edu.snhu.dayplanner.service.TimeIndex;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.List;
 
 public class AppointmentService extends Service<Appointment, Appointment.Field>
 {
+    private final TimeIndex<Appointment> dateIndex = new TimeIndex<>(Appointment::getDate); // agenda queries by date
+
     public AppointmentService() {
         super(Arrays.asList(Appointment.Field.DATE, Appointment.Field.DESCRIPTION));
+        entityTrie.setKeyTokenizer(Appointment.Field.DESCRIPTION, KeyTokenizer.WORDS); // "snow porch" finds each word
     }
 
     /**
@@ -47,11 +53,53 @@ public class AppointmentService extends Service<Appointment, Appointment.Field>
         add(appointment); // super method. Adds to appointmentMap HashMap using unique ID
     }
 
+    /**
+     * Returns the appointments scheduled at or after from and before to, such as the next 7 days or the working hours of
+     * a day, without visiting appointments outside the range.
+     * @param from the earliest date to return
+     * @param to the date after the last date to return
+     * @return a list of the appointments in the range in ascending order of date, empty if to is not after from
+     */
+    public List<Appointment> findBetween(LocalDateTime from, LocalDateTime to) {
+        return dateIndex.findBetween(from, to);
+    }
+
+    /**
+     * Returns the next appointments scheduled from the current system time on
+     * @param count the largest number of appointments to return
+     * @return a list of at most count appointments in ascending order of date
+     * @throws IllegalArgumentException if count is negative
+     */
+    public List<Appointment> findNext(int count) {
+        return findNext(LocalDateTime.now(), count);
+    }
+
+    /**
+     * Returns the next appointments scheduled at or after from
+     * @param from the earliest date to return
+     * @param count the largest number of appointments to return
+     * @return a list of at most count appointments in ascending order of date
+     * @throws IllegalArgumentException if count is negative
+     */
+    public List<Appointment> findNext(LocalDateTime from, int count) {
+        return dateIndex.findNext(from, count);
+    }
+
+    @Override
+    protected void onIndexed(Appointment appointment) {
+        dateIndex.add(appointment); // moves the appointment if its date was updated
+    }
+
+    @Override
+    protected void onDeleted(Appointment appointment) {
+        dateIndex.remove(appointment);
+    }
+
     /**
      * Reads stored CSV contents from a file to this storage object.
      * Uses {@code ServiceFileUtility} to read a specified CSV file then convert each line to
      * a appointment and return a list of those appointments. Then, the list is added to this object.
-     * Should convert contents to the object and add with {@code add} or {@code addAll}
+     * Should convert contents to the object and add with {@code add}, {@code addAll} or {@code addAllFromFile}
      * Passes a prototype appointment object to use for creation of new objects with (fromCsv)
      * @param filePath the file to be read from into this object
      */
@@ -59,7 +107,7 @@ public class AppointmentService extends Service<Appointment, Appointment.Field>
     public void addFromFile(String filePath) {
         ServiceFileUtility<Appointment> fileUtil = new ServiceFileUtility<>(filePath,
                 new Appointment("p"));
-        addAll(fileUtil.readFromFile());
+        addAllFromFile(filePath, fileUtil.readFromFile());
     }
 
     /**
@@ -73,7 +121,9 @@ public class AppointmentService extends Service<Appointment, Appointment.Field>
     public void writeToFile(String filePath) {
         ServiceFileUtility<Appointment> fileUtil = new ServiceFileUtility<>(filePath,
                 new Appointment("p"));
-        fileUtil.writeToFile(getAll());
+        List<Appointment> items = getAll();
+        fileUtil.writeToFile(items);
+        writeIndexImage(filePath, items); // lets the next addFromFile open the index instead of rebuilding it
     }
 
     // UPDATE APPOINTMENT FIELDS
@@ -99,11 +149,9 @@ public class AppointmentService extends Service<Appointment, Appointment.Field>
      * @throws IllegalArgumentException if appointment does not exist or date is invalid
      */
     public LocalDateTime updateDate(String id) {
-        LocalDateTime current = LocalDateTime.now();
-
         // sets date to current system time and specifies it can't be before this time
         updateField(id, Appointment.Field.CURRENT_DATE, null);
-        return current; // returns current (helpful in testing)
+        return getById(id).getDate(); // returns the time that was set (helpful in testing)
     }
 
     /**
@@ -16,6 +16,8 @@
  *****************************************************************************/
 package edu.snhu.dayplanner.service.contactservice;
 
+import edu.snhu.dayplanner.service.DigitIndex;
+import edu.snhu.dayplanner.service.KeyNormalizer;
 import edu.snhu.dayplanner.service.Service;
 import edu.snhu.dayplanner.service.ServiceFileUtility;
 
@@ -23,9 +25,11 @@ import java.util.Arrays;
 import java.util.List;
 
 public class ContactService extends Service<Contact, Contact.Field> {
+    private final DigitIndex<Contact> phoneIndex = new DigitIndex<>(10, Contact::getPhone); // caller-ID lookups
 
     public ContactService() {
         super(Arrays.asList(Contact.Field.values()));
+        entityTrie.setKeyNormalizer(Contact.Field.PHONE_NUMBER, KeyNormalizer.DIGITS); // "(123) 456" finds "123456..."
     }
 
     /**
@@ -42,11 +46,53 @@ public class ContactService extends Service<Contact, Contact.Field> {
         return add(entity);
     }
 
+    /**
+     * Returns the contacts whose phone number is the digits of phoneNumber
+     * @param phoneNumber the phone number to find, may be formatted such as "(555) 123-4567"
+     * @return a list of the contacts with the phone number, empty if there are none
+     */
+    public List<Contact> findByPhone(CharSequence phoneNumber) {
+        return phoneIndex.find(phoneNumber);
+    }
+
+    /**
+     * Returns the contacts whose phone number starts with the digits of prefix, such as an area code
+     * @param prefix the leading digits to find, may be formatted such as "(555)"
+     * @return a list of the matching contacts in ascending order of phone number
+     */
+    public List<Contact> findByPhonePrefix(CharSequence prefix) {
+        return phoneIndex.findByPrefix(prefix);
+    }
+
+    /**
+     * Returns the contacts whose phone number ends with the digits of suffix, such as the last four digits
+     * @param suffix the trailing digits to find, may be formatted such as "-4567"
+     * @return a list of the matching contacts
+     */
+    public List<Contact> findByPhoneSuffix(CharSequence suffix) {
+        return phoneIndex.findBySuffix(suffix);
+    }
+
+    @Override
+    protected void onIndexed(Contact contact) {
+        phoneIndex.add(contact); // moves the contact if its phone number was updated
+    }
+
+    @Override
+    protected void onAllIndexed(List<Contact> contacts) {
+        phoneIndex.addAll(contacts); // sorted once rather than shifted for each contact read at startup
+    }
+
+    @Override
+    protected void onDeleted(Contact contact) {
+        phoneIndex.remove(contact);
+    }
+
     /**
      * Reads stored CSV contents from a file to this storage object.
      * Uses {@code ServiceFileUtility} to read a specified CSV file then convert each line to
      * a contact and return a list of those contacts. Then, the list is added to this object.
-     * Should convert contents to the object and add with {@code add} or {@code addAll}
+     * Should convert contents to the object and add with {@code add}, {@code addAll} or {@code addAllFromFile}
      * Passes a prototype contact object to use for creation of new objects with (fromCsv)
      * @param filePath the file to be read from into this object
      */
@@ -54,7 +100,7 @@ public class ContactService extends Service<Contact, Contact.Field> {
     public void addFromFile(String filePath) {
         ServiceFileUtility<Contact> fileUtil = new ServiceFileUtility<>(filePath,
                 new Contact("p", "p", "0000000000", "0"));
-        addAll(fileUtil.readFromFile());
+        addAllFromFile(filePath, fileUtil.readFromFile());
     }
 
     /**
@@ -68,7 +114,9 @@ public class ContactService extends Service<Contact, Contact.Field> {
     public void writeToFile(String filePath) {
         ServiceFileUtility<Contact> fileUtil = new ServiceFileUtility<>(filePath,
                 new Contact("p", "p", "0000000000", "0"));
-        fileUtil.writeToFile(getAll());
+        List<Contact> items = getAll();
+        fileUtil.writeToFile(items);
+        writeIndexImage(filePath, items); // lets the next addFromFile open the index instead of rebuilding it
     }
 
     // UPDATE CONTACT FIELDS
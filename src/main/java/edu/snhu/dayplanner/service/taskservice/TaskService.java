@@ -16,15 +16,18 @@
  *****************************************************************************/
 package edu.snhu.dayplanner.service.taskservice;
 
+import edu.snhu.dayplanner.service.KeyTokenizer;
 import edu.snhu.dayplanner.service.Service;
 import edu.snhu.dayplanner.service.ServiceFileUtility;
 
 import java.util.Arrays;
+import java.util.List;
 
 public class TaskService extends Service<Task, Task.Field> {
 
     public TaskService() {
         super(Arrays.asList(Task.Field.values()));
+        entityTrie.setKeyTokenizer(Task.Field.DESCRIPTION, KeyTokenizer.WORDS); // "snow porch" finds each word
     }
 
     /**
@@ -43,7 +46,7 @@ public class TaskService extends Service<Task, Task.Field> {
      * Reads stored CSV contents from a file to this storage object.
      * Uses {@code ServiceFileUtility} to read a specified CSV file then convert each line to
      * a task and return a list of those tasks. Then, the list is added to this object.
-     * Should convert contents to the object and add with {@code add} or {@code addAll}
+     * Should convert contents to the object and add with {@code add}, {@code addAll} or {@code addAllFromFile}
      * Passes a prototype task object to use for creation of new objects with (fromCsv)
      * @param filePath the file to be read from into this object
      */
@@ -51,7 +54,7 @@ public class TaskService extends Service<Task, Task.Field> {
     public void addFromFile(String filePath) {
         ServiceFileUtility<Task> fileUtil = new ServiceFileUtility<>(filePath,
                 new Task("p", "p"));
-        addAll(fileUtil.readFromFile());
+        addAllFromFile(filePath, fileUtil.readFromFile());
     }
 
     /**
@@ -65,7 +68,9 @@ public class TaskService extends Service<Task, Task.Field> {
     public void writeToFile(String filePath) {
         ServiceFileUtility<Task> fileUtil = new ServiceFileUtility<>(filePath,
                 new Task("p", "p"));
-        fileUtil.writeToFile(getAll());
+        List<Task> items = getAll();
+        fileUtil.writeToFile(items);
+        writeIndexImage(filePath, items); // lets the next addFromFile open the index instead of rebuilding it
     }
 
     // UPDATE TASK FIELDS
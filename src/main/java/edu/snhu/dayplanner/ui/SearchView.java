@@ -2,7 +2,9 @@ package edu.snhu.dayplanner.ui;
 
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
@@ -15,7 +17,11 @@ public class SearchView<F extends Enum<F>> {
     HBox root;
     TextField searchField;
     ComboBox<F> comboBox;
+    CheckBox containsBox;
+    CheckBox descendingBox;
     Button searchButton;
+    Label facetLabel;
+    ContextMenu suggestionMenu;
 
     public SearchView(List<F> fields) {
         root = new HBox();
@@ -23,31 +29,54 @@ public class SearchView<F extends Enum<F>> {
         root.setAlignment(Pos.CENTER);
 
         searchField = new TextField();
+        suggestionMenu = new ContextMenu(); // completions of the search text, shown below the search field
 
         comboBox = new ComboBox<>();
         comboBox.getItems().add(null);
         comboBox.getItems().addAll(fields);
+        containsBox = new CheckBox("Contains"); // match text anywhere in attributes instead of at the start
+        descendingBox = new CheckBox("Descending"); // list prefix matches from Z to A
         searchButton = new Button("Search");
+        facetLabel = new Label(); // matches of the last prefix search in each field
 
         // add components together into root
         root.getChildren().addAll(
                 new VBox(new Label("Search:"), searchField),
                 new VBox(new Label("Field:"), comboBox),
-                new VBox(new Label(), searchButton));
+                new VBox(new Label(), containsBox),
+                new VBox(new Label(), descendingBox),
+                new VBox(new Label(), searchButton),
+                new VBox(new Label(), facetLabel));
     }
 
     public TextField getSearchField() {
         return searchField;
     }
 
+    public ContextMenu getSuggestionMenu() {
+        return suggestionMenu;
+    }
+
     public ComboBox<F> getFieldBox() {
         return comboBox;
     }
 
+    public CheckBox getContainsBox() {
+        return containsBox;
+    }
+
+    public CheckBox getDescendingBox() {
+        return descendingBox;
+    }
+
     public Button getSearchButton() {
         return searchButton;
     }
 
+    public Label getFacetLabel() {
+        return facetLabel;
+    }
+
     public HBox getView() {
         return root;
     }
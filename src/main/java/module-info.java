@@ -2,9 +2,11 @@ module edu.snhu.dayplanner {
 
     requires org.controlsfx.controls;
     requires tornadofx.controls;
+    requires java.management;
 
     opens edu.snhu.dayplanner to javafx.fxml;
     exports edu.snhu.dayplanner;
+    exports edu.snhu.dayplanner.service to java.management;
     exports edu.snhu.dayplanner.service.appointmentservice;
     opens edu.snhu.dayplanner.service.appointmentservice to javafx.fxml;
     exports edu.snhu.dayplanner.service.contactservice;
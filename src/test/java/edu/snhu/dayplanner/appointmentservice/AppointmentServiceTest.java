@@ -22,6 +22,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 
 
 class AppointmentServiceTest
@@ -131,6 +132,29 @@ class AppointmentServiceTest
         assertNotNull(appointmentService.getById("1"));
     }
 
+    @DisplayName("Test date range and next appointment queries follow adds, updates, and deletes")
+    @Test
+    void testFindBetweenAndNext() {
+        Appointment tomorrow = appointmentService.add(date.plusDays(1), "dentist");
+        Appointment today = appointmentService.add(date, "standup");
+        Appointment nextWeek = appointmentService.add(date.plusDays(8), "review");
+        Appointment sameTime = appointmentService.add(date, "lunch");
+
+        assertEquals(List.of(today, sameTime, tomorrow), appointmentService.findBetween(date, date.plusDays(7)));
+        assertEquals(List.of(tomorrow), appointmentService.findBetween(date.plusMinutes(1), date.plusDays(7)));
+        assertTrue(appointmentService.findBetween(date.plusDays(7), date).isEmpty());
+        assertEquals(List.of(today, sameTime), appointmentService.findNext(2));
+        assertEquals(List.of(tomorrow, nextWeek), appointmentService.findNext(date.plusHours(1), 5));
+
+        // an updated date moves the appointment, a deleted one is no longer found
+        appointmentService.updateDate(nextWeek.getId(), date.plusDays(2));
+        appointmentService.delete(sameTime);
+        assertEquals(List.of(today, tomorrow, nextWeek), appointmentService.findBetween(date, date.plusDays(7)));
+        appointmentService.updateDescription(today.getId(), "standup moved");
+        assertEquals(List.of(today), appointmentService.findNext(date, 1));
+        assertThrows(IllegalArgumentException.class, () -> appointmentService.findNext(-1));
+    }
+
     // Requirement 3: Update appointment fields per appointmentId
     @Nested
     @DisplayName("Tests for Updating Appointment Fields")
@@ -14,10 +14,19 @@
  *****************************************************************************/
 package edu.snhu.dayplanner.contactservice;
 
+import edu.snhu.dayplanner.service.CompactTrie;
 import edu.snhu.dayplanner.service.IdGenerator;
+import edu.snhu.dayplanner.service.MemoryFootprint;
+import edu.snhu.dayplanner.service.QueryCache;
 import org.junit.jupiter.api.*;
 import edu.snhu.dayplanner.service.contactservice.Contact;
 import edu.snhu.dayplanner.service.contactservice.ContactService;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -78,6 +87,200 @@ class ContactServiceTest
         assertThrows(IllegalArgumentException.class, () -> contactService.getById(id));
     }
 
+    @DisplayName("Test reading contacts back opens the saved index image")
+    @Test
+    void testReadWithIndexImage(@TempDir Path dir) {
+        String file = dir.resolve("contacts.csv").toString();
+        contactService.add("Jon", "Snow", "1234567890", "The Wall");
+        contactService.add("Jonah", "Hill", "0000000000", "Hollywood");
+        contactService.add("Bugs", "Bunny", "5551234567", "Looney Town");
+        contactService.writeToFile(file);
+        assertTrue(Files.exists(Path.of(file + ".idx.1")));
+
+        ContactService reread = new ContactService();
+        reread.addFromFile(file);
+        assertEquals(contactService.getTrieMetrics().getNodeCount(), reread.getTrieMetrics().getNodeCount());
+        assertEquals(contactService.getTrieMetrics().getKeyCount(), reread.getTrieMetrics().getKeyCount());
+        assertEquals(2, reread.entityTrie.countWithPrefix("jon", Contact.Field.FIRST_NAME));
+        assertEquals("Bunny", reread.entityTrie.search("(555) 123-4567").getLastName());
+        assertEquals(List.of("Hill", "Snow"), reread.entityTrie.searchWithPrefix("jo", Contact.Field.FIRST_NAME, 10, 0)
+                .stream().map(Contact::getLastName).sorted().toList());
+        assertEquals(List.of("Jonah", "Jon", "Bugs"), reread.getAllOrderedBy(Contact.Field.FIRST_NAME, true)
+                .stream().map(Contact::getFirstName).toList());
+        assertEquals(List.of("Bugs", "Jon", "Jonah"), reread.getAllOrderedBy(Contact.Field.FIRST_NAME, false)
+                .stream().map(Contact::getFirstName).toList());
+
+        // edits copy nodes out of the image
+        Contact jon = reread.entityTrie.search("Jon", Contact.Field.FIRST_NAME);
+        reread.updateFirstName(jon.getId(), "Jonas");
+        reread.delete(reread.entityTrie.search("Bugs"));
+        assertEquals("Jonas", reread.entityTrie.search("jonas").getFirstName());
+        assertNull(reread.entityTrie.search("jon", Contact.Field.FIRST_NAME));
+        assertNull(reread.entityTrie.search("bugs"));
+        assertEquals(1, reread.searchContaining("wood", null).size());
+
+        // each write saves a new generation rather than replacing the image reread has mapped
+        reread.writeToFile(file);
+        assertTrue(Files.exists(Path.of(file + ".idx.2")));
+        assertFalse(Files.exists(Path.of(file + ".idx.1")));
+
+        // a truncated newest generation is rejected from its header and the trie rebuilt
+        assertDoesNotThrow(() -> Files.write(Path.of(file + ".idx.3"),
+                Arrays.copyOf(Files.readAllBytes(Path.of(file + ".idx.2")), 40)));
+        ContactService truncated = new ContactService();
+        truncated.addFromFile(file);
+        assertEquals("Jonas", truncated.entityTrie.search("jonas").getFirstName());
+        assertEquals(reread.getTrieMetrics().getKeyCount(), truncated.getTrieMetrics().getKeyCount());
+
+        // an image older than its data file is ignored
+        ContactService stale = new ContactService();
+        assertDoesNotThrow(() -> Files.writeString(Path.of(file), "Ned|Stark|1112223333|Winterfell\n"));
+        stale.addFromFile(file);
+        assertEquals("Stark", stale.entityTrie.search("ned").getLastName());
+        assertNull(stale.entityTrie.search("jonah"));
+    }
+
+    @DisplayName("Test phone lookups by number, area code, and last digits accept formatted queries")
+    @Test
+    void testPhoneLookups() {
+        Contact ann = contactService.add("Ann", "Lee", "5551234567", "1 Main St");
+        Contact bob = contactService.add("Bob", "Ray", "5559994567", "2 Main St");
+        Contact cat = contactService.add("Cat", "Fox", "0121234567", "3 Main St");
+
+        assertEquals(List.of(ann), contactService.findByPhone("(555) 123-4567"));
+        assertTrue(contactService.findByPhone("555123456").isEmpty());
+        assertEquals(List.of(ann, bob), contactService.findByPhonePrefix("(555)"));
+        assertEquals(List.of(cat), contactService.findByPhonePrefix("012"));
+        assertEquals(List.of(cat, ann), contactService.findByPhoneSuffix("123-4567")); // by reversed number
+        assertEquals(3, contactService.findByPhoneSuffix("4567").size());
+        assertTrue(contactService.findByPhoneSuffix("01234567890").isEmpty());
+
+        // an updated number moves the contact, a deleted one is no longer found
+        contactService.updatePhoneNumber(bob.getId(), "0129990000");
+        contactService.delete(cat);
+        assertEquals(List.of(ann), contactService.findByPhonePrefix("555"));
+        assertEquals(List.of(bob), contactService.findByPhonePrefix("012"));
+        assertEquals(List.of(bob), contactService.findByPhoneSuffix("0000"));
+        contactService.updateAddress(ann.getId(), "9 Elm St");
+        assertEquals(List.of(ann), contactService.findByPhone("555.123.4567"));
+    }
+
+    @DisplayName("Test contacts added together are merged into the phone index in order")
+    @Test
+    void testPhoneLookupsAfterAddAll() {
+        Contact ann = contactService.add("Ann", "Lee", "5551234567", "1 Main St");
+        Contact bob = new Contact("Bob", "Ray", "5551234567", "2 Main St");
+        Contact cat = new Contact("Cat", "Fox", "0121234567", "3 Main St");
+        Contact dan = new Contact("Dan", "Orr", "9990000000", "4 Main St");
+        contactService.addAll(List.of(dan, bob, cat));
+
+        assertEquals(List.of(ann, bob), contactService.findByPhone("5551234567")); // equal keys keep add order
+        assertEquals(List.of(cat, ann, bob, dan), contactService.findByPhonePrefix(""));
+        assertEquals(List.of(cat, ann, bob), contactService.findByPhoneSuffix("4567"));
+        assertEquals(List.of(dan), contactService.findByPhoneSuffix("0000"));
+
+        contactService.delete(bob);
+        assertEquals(List.of(ann), contactService.findByPhone("5551234567"));
+    }
+
+    @DisplayName("Test search keys tell which part of a suggestion was typed")
+    @Test
+    void testSearchKeysOf() {
+        contactService.add("Jos\u00e9", "Lee", "5550000001", "1 Main St");
+
+        assertEquals(List.of("jose"), contactService.searchKeysOf("Jos\u00e9 ", Contact.Field.FIRST_NAME));
+        assertTrue(contactService.searchKeysOf("(555", null).contains("555"));
+        assertEquals(List.of("jose"), contactService.suggest("JOS", Contact.Field.FIRST_NAME, 5));
+    }
+
+    @DisplayName("Test contacts are listed in order of a field straight from the index")
+    @Test
+    void testGetAllOrderedBy() {
+        Contact cat = contactService.add("cat", "Fox", "5550000003", "3 Main St");
+        Contact ann = contactService.add("Ann", "Lee", "5550000001", "1 Main St");
+        Contact bob = contactService.add("Bob", "Ray", "5550000002", "2 Main St");
+
+        assertEquals(List.of(ann, bob, cat), contactService.getAllOrderedBy(Contact.Field.FIRST_NAME, false));
+        assertEquals(List.of(bob, ann, cat), contactService.getAllOrderedBy(Contact.Field.LAST_NAME, true));
+        assertEquals(List.of(cat, bob), contactService.searchWithPrefix("555", Contact.Field.PHONE_NUMBER, 2, true));
+        contactService.updateFirstName(ann.getId(), "Dee");
+        assertEquals(List.of(bob, cat, ann), contactService.getAllOrderedBy(Contact.Field.FIRST_NAME, false));
+    }
+
+    @DisplayName("Test the memory footprint follows adds, updates, and deletes and is broken down by field")
+    @Test
+    void testMemoryFootprint() {
+        MemoryFootprint<Contact.Field> footprint = contactService.getMemoryFootprint();
+        assertEquals(0, footprint.getBytesPerEntity()); // no entities yet
+        Contact jon = contactService.add("Jon", "Snow", "1234567890", "The Wall");
+        contactService.add("Jonah", "Hill", "0000000000", "Hollywood");
+        assertEquals(2, footprint.getEntityCount());
+        assertEquals(0, footprint.getNodeCount()); // the trie is only walked when measured
+
+        contactService.measureFootprint();
+        assertEquals(contactService.getTrieMetrics().getNodeCount(), footprint.getNodeCount());
+        assertTrue(footprint.getEdgeBytes() > 0 && footprint.getPostingBytes() > 0);
+        assertEquals(footprint.getTotalBytes() / 2.0, footprint.getBytesPerEntity());
+        assertEquals(4, footprint.getFieldSummaries().length);
+        assertEquals(96, footprint.getAttributeBytes(Contact.Field.FIRST_NAME)); // two 24 byte strings and arrays
+        long addresses = footprint.getAttributeBytes(Contact.Field.ADDRESS);
+        long firstNames = footprint.getBytes(Contact.Field.FIRST_NAME);
+
+        // attributes are counted at once, the trie once it is measured again
+        contactService.updateAddress(jon.getId(), "The Wall, Castle Black");
+        assertTrue(footprint.getAttributeBytes(Contact.Field.ADDRESS) > addresses);
+        CompactTrie.FieldFootprint firstNameTree = footprint.getTrieFootprint(Contact.Field.FIRST_NAME);
+        contactService.delete(jon);
+        assertNull(contactService.delete(jon)); // no longer stored, so not uncounted again
+        assertEquals(1, footprint.getEntityCount());
+        assertEquals(48, footprint.getAttributeBytes(Contact.Field.FIRST_NAME));
+        assertEquals(firstNameTree, footprint.getTrieFootprint(Contact.Field.FIRST_NAME));
+        assertTrue(contactService.measureFootprint().getBytes(Contact.Field.FIRST_NAME) < firstNames);
+
+        // the next contact takes the ordinal the deleted one released, and only it is found under that ordinal
+        assertEquals(1, contactService.searchContaining("hollywood", null).size()); // builds the substring index
+        Contact arya = contactService.add("Arya", "Stark", "5550000000", "Castle Black");
+        assertEquals(arya, contactService.entityTrie.search("arya"));
+        assertNull(contactService.entityTrie.search("snow"));
+        assertEquals(List.of(arya), List.copyOf(contactService.searchContaining("castle", null)));
+    }
+
+    @DisplayName("Test repeated searches are cached until a searched field changes")
+    @Test
+    void testQueryCache() {
+        contactService.add("Jon", "Snow", "1234567890", "The Wall");
+        contactService.add("Jonah", "Hill", "0000000000", "Hollywood");
+        QueryCache<Contact, Contact.Field> cache = contactService.getQueryCache();
+
+        List<Contact> jons = contactService.searchWithPrefix("jo", Contact.Field.FIRST_NAME, 10);
+        assertEquals(2, jons.size());
+        assertSame(jons, contactService.searchWithPrefix("JO ", Contact.Field.FIRST_NAME, 10)); // same keys
+        assertEquals(1, contactService.searchContaining("wall", null).size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // updating a last name keeps first name searches, but not searches of every field
+        contactService.updateLastName("0", "Targaryen");
+        assertSame(jons, contactService.searchWithPrefix("jo", Contact.Field.FIRST_NAME, 10));
+        assertEquals(0, contactService.searchContaining("targ", Contact.Field.FIRST_NAME).size());
+        assertEquals(1, contactService.searchContaining("wall", null).size());
+        assertEquals(1, cache.getInvalidations());
+
+        // adding a contact changes every field
+        contactService.add("Jory", "Cassel", "1112223333", "Winterfell");
+        assertEquals(3, contactService.searchWithPrefix("jo", Contact.Field.FIRST_NAME, 10).size());
+        assertEquals(1, contactService.searchFuzzy("jonn", 1, Contact.Field.FIRST_NAME).size());
+        assertEquals(2, cache.getInvalidations());
+        assertEquals(2.0 / 8, cache.getHitRatio(), 1e-9);
+
+        QueryCache<Contact, Contact.Field> small = new QueryCache<>(List.of(Contact.Field.values()), 1);
+        small.get(QueryCache.Mode.PREFIX, "a", null, 0, List::of);
+        small.get(QueryCache.Mode.PREFIX, "b", null, 0, List::of);
+        assertEquals(1, small.getSize());
+        assertEquals(1, small.getEvictions());
+        assertThrows(IllegalArgumentException.class, () -> new QueryCache<>(List.of(Contact.Field.values()), 0));
+    }
+
     // Requirement 3: Update contact fields per contactId
     // VALID ID
     @Nested
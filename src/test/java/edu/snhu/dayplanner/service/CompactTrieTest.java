@@ -0,0 +1,851 @@
+package edu.snhu.dayplanner.service;
+
+import edu.snhu.dayplanner.service.contactservice.Contact;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code CompactTrie} indexing, searching, updating, and deleting {@code Contact} entities.
+ */
+class CompactTrieTest
+{
+    CompactTrie<Contact, Contact.Field> trie;
+
+    // Initialize an empty trie indexing every contact field before each test
+    @BeforeEach
+    void setUp() {
+        trie = new CompactTrie<>(Arrays.asList(Contact.Field.values()));
+    }
+    // Reset the unique id incrementer to 0 after each test
+    @AfterEach
+    void tearDown() {
+        IdGenerator.resetCounter();
+    }
+
+    @Test
+    @DisplayName("Test exact and prefix searches find inserted contacts")
+    void testSearchInserted() {
+        Contact jon = new Contact("Jon", "Snow", "1234567890", "The Wall");
+        Contact jonah = new Contact("Jonah", "Hill", "0000000000", "Hollywood");
+        trie.insert(jon);
+        trie.insert(jonah);
+
+        assertEquals(Set.of(jon), trie.searchAll("jon", Contact.Field.FIRST_NAME));
+        assertEquals(Set.of(jon, jonah), trie.searchAllWithPrefix("Jo", Contact.Field.FIRST_NAME));
+        assertEquals(Set.of(jonah), trie.searchAllWithPrefix("ho"));
+        assertTrue(trie.searchAllWithPrefix("Jo", Contact.Field.ADDRESS).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test a key left behind by a split becomes searchable when inserted")
+    void testInsertAtSplitNode() {
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567890", "Home");
+        Contact mich = new Contact("Mich", "Lorenz", "1234567890", "Home");
+        trie.insert(michael);
+        trie.insert(michelle); // splits "michael" at "mich"
+        trie.insert(mich);
+
+        assertEquals(Set.of(mich), trie.searchAll("mich", Contact.Field.FIRST_NAME));
+    }
+
+    @Test
+    @DisplayName("Test deleting the last key under the root keeps remaining keys searchable")
+    void testDeleteDoesNotMergeRoot() {
+        Contact jon = new Contact("Jon", "Jon", "1234567890", "Jon");
+        Contact bugs = new Contact("Bugs", "Bunny", "0000000000", "Looney Town");
+        trie.insert(jon);
+        trie.insert(bugs);
+        trie.delete(bugs);
+
+        // only "jon" and "1234567890" remain as children of the root of each field
+        assertEquals(Set.of(jon), trie.searchAllWithPrefix("j"));
+        trie.delete(jon);
+        trie.insert(bugs);
+        assertEquals(Set.of(bugs), trie.searchAll("bugs"));
+    }
+
+    @Test
+    @DisplayName("Test nodes with many children remain searchable as they grow and shrink")
+    void testWideNodes() {
+        List<Contact> contacts = new ArrayList<>();
+        String keys = "abcdefghijklmnopqrstuvwxyz0123456789";
+        for (char key : keys.toCharArray()) {
+            Contact contact = new Contact("x" + key, "y", "1234567890", "z");
+            contacts.add(contact);
+            trie.insert(contact);
+        }
+        for (Contact contact : contacts) {
+            assertEquals(Set.of(contact), trie.searchAll(contact.getFirstName(), Contact.Field.FIRST_NAME));
+        }
+        assertEquals(new HashSet<>(contacts), trie.searchAllWithPrefix("x", Contact.Field.FIRST_NAME));
+
+        // remove all but two children from the node "x"
+        for (Contact contact : contacts.subList(2, contacts.size())) {
+            trie.delete(contact);
+        }
+        assertEquals(new HashSet<>(contacts.subList(0, 2)), trie.searchAllWithPrefix("x", Contact.Field.FIRST_NAME));
+        assertNull(trie.searchAll("x9", Contact.Field.FIRST_NAME));
+    }
+
+    @Test
+    @DisplayName("Test bulk loading finds the same entities as inserting one at a time")
+    void testBulkLoad() {
+        List<Contact> contacts = Arrays.asList(
+                new Contact("Michael", "Lorenz", "1234567890", "Home"),
+                new Contact("Michelle", "Lorenz", "1234567899", "Home Street"),
+                new Contact("Mich", "Scott", "0000000000", "Scranton"),
+                new Contact("Jon", "Snow", "1234567890", "The Wall"));
+        CompactTrie<Contact, Contact.Field> incremental = new CompactTrie<>(Arrays.asList(Contact.Field.values()));
+        contacts.forEach(incremental::insert);
+        TrieMetrics<Contact.Field> metrics = new TrieMetrics<>();
+        trie.setListener(metrics);
+        trie.bulkLoad(contacts);
+
+        assertEquals(0, metrics.getSplits());
+        for (String prefix : Arrays.asList("", "m", "mich", "michael", "home", "12345678", "s", "x")) {
+            for (Contact.Field field : Contact.Field.values()) {
+                assertEquals(incremental.searchAllWithPrefix(prefix, field), trie.searchAllWithPrefix(prefix, field));
+            }
+            assertEquals(incremental.searchAll(prefix), trie.searchAll(prefix));
+            assertEquals(incremental.countWithPrefix(prefix), trie.countWithPrefix(prefix));
+        }
+
+        // bulk loaded keys are deleted from the nodes they were built at, merging as a walk would
+        for (CompactTrie<Contact, Contact.Field> each : List.of(trie, incremental)) {
+            each.delete(contacts.get(2));
+            each.delete(contacts.get(0));
+        }
+        Entity<Contact.Field> michelle = contacts.get(1);
+        michelle.updateField(Contact.Field.ADDRESS, "Scranton");
+        trie.update(contacts.get(1), Contact.Field.ADDRESS, "Home Street");
+        incremental.update(contacts.get(1), Contact.Field.ADDRESS, "Home Street");
+        assertEquals(incremental.fragmentation(), trie.fragmentation());
+        for (String prefix : Arrays.asList("", "m", "mich", "home", "scr", "12345678")) {
+            assertEquals(incremental.searchAll(prefix), trie.searchAll(prefix));
+            assertEquals(incremental.countWithPrefix(prefix), trie.countWithPrefix(prefix));
+        }
+    }
+
+    @Test
+    @DisplayName("Test paged prefix searches return entities in key order and counts follow edits")
+    void testSearchWithPrefixPages() {
+        Contact mia = new Contact("Mia", "Lorenz", "1234567890", "Home");
+        Contact mich = new Contact("Mich", "Lorenz", "1234567891", "Home");
+        Contact michael = new Contact("Michael", "Lorenz", "1234567892", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567893", "Home");
+        List.of(michelle, mia, michael, mich).forEach(trie::insert);
+
+        assertEquals(List.of(mia, mich), trie.searchWithPrefix("mi", Contact.Field.FIRST_NAME, 2, 0));
+        assertEquals(List.of(michael, michelle), trie.searchWithPrefix("mi", Contact.Field.FIRST_NAME, 2, 2));
+        assertEquals(List.of(michelle), trie.searchWithPrefix("Mich", Contact.Field.FIRST_NAME, 5, 2));
+        assertTrue(trie.searchWithPrefix("mi", Contact.Field.FIRST_NAME, 2, 4).isEmpty());
+        assertEquals(4, trie.searchWithPrefix("", null, 10, 0).size()); // each contact once across all fields
+        assertEquals(3, trie.searchWithPrefix("", null, Integer.MAX_VALUE, 1).size()); // no overflow of the page end
+        assertThrows(IllegalArgumentException.class, () -> trie.searchWithPrefix("mi", null, -1, 0));
+
+        assertEquals(4, trie.countWithPrefix("MI", Contact.Field.FIRST_NAME));
+        assertEquals(4, trie.countWithPrefix("123456789"));
+        assertEquals(16, trie.countWithPrefix(""));
+        trie.delete(michael); // removes the "ael" leaf below "mich"
+        trie.insert(michael);
+        trie.insert(michael); // inserting twice does not count twice
+        trie.delete(mich);
+        trie.delete(mich); // a key no longer indexed leaves the counts on its path alone
+        assertEquals(3, trie.countWithPrefix("mi", Contact.Field.FIRST_NAME));
+        assertEquals(2, trie.countWithPrefix("mich", Contact.Field.FIRST_NAME));
+        assertEquals(0, trie.countWithPrefix("mix"));
+    }
+
+    @Test
+    @DisplayName("Test descending prefix pages mirror ascending pages without sorting")
+    void testSearchWithPrefixDescending() {
+        Contact mia = new Contact("Mia", "Lorenz", "1234567890", "Home");
+        Contact mich = new Contact("Mich", "Lorenz", "1234567891", "Home");
+        Contact michael = new Contact("Michael", "Lorenz", "1234567892", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567893", "Home");
+        Contact bob = new Contact("Bob", "Ray", "1234567894", "Away");
+        List.of(michelle, bob, mia, michael, mich).forEach(trie::insert);
+
+        assertEquals(List.of(michelle, michael, mich, mia),
+                trie.searchWithPrefix("mi", Contact.Field.FIRST_NAME, 10, 0, true));
+        assertEquals(List.of(michael, mich), trie.searchWithPrefix("mi", Contact.Field.FIRST_NAME, 2, 1, true));
+        List<Contact> ascending = trie.searchWithPrefix("", Contact.Field.PHONE_NUMBER, 10, 0, false);
+        List<Contact> descending = new ArrayList<>(trie.searchWithPrefix("", Contact.Field.PHONE_NUMBER, 10, 0, true));
+        Collections.reverse(descending);
+        assertEquals(ascending, descending);
+        assertEquals(List.of(bob), trie.searchWithPrefix("", Contact.Field.ADDRESS, 1, 0, false));
+        assertEquals(List.of(michelle), trie.searchWithPrefix("", Contact.Field.ADDRESS, 1, 0, true)); // in indexed order
+    }
+
+    @Test
+    @DisplayName("Test facets count prefix matches by field and top values rank keys by their counts")
+    void testFacetsAndTopValues() {
+        trie.setKeyTokenizer(Contact.Field.ADDRESS, KeyTokenizer.WORDS);
+        List<String> names = List.of("Lee", "Leech", "Lewis", "Lewin", "Mora", "Moran", "Lem");
+        Random random = new Random(7);
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String name = names.get(random.nextInt(1 + random.nextInt(names.size()))); // skewed towards early names
+            Contact contact = new Contact("Ann", name, "1234567890", i % 10 == 0 ? "9 Lee St Lee" : "Main St");
+            contacts.add(contact);
+            trie.insert(contact);
+        }
+        for (int i = 0; i < 100; i++) { // deletes leave nodes behind without keys below them
+            trie.delete(contacts.remove(random.nextInt(contacts.size())));
+        }
+
+        Map<String, Long> counts = contacts.stream()
+                .collect(Collectors.groupingBy(contact -> contact.getLastName().toLowerCase(), Collectors.counting()));
+        for (String prefix : List.of("", "l", "le", "lew", "mor", "x")) {
+            List<CompactTrie.ValueCount> expected = counts.entrySet().stream()
+                    .filter(entry -> entry.getKey().startsWith(prefix))
+                    .map(entry -> new CompactTrie.ValueCount(entry.getKey(), entry.getValue().intValue()))
+                    .sorted(Comparator.comparingInt(CompactTrie.ValueCount::count).reversed()
+                            .thenComparing(CompactTrie.ValueCount::value))
+                    .toList();
+            for (int k : new int[] {0, 1, 3, 10}) {
+                assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                        trie.topValues(prefix, Contact.Field.LAST_NAME, k), "top " + k + " of " + prefix);
+            }
+            int lastNames = expected.stream().mapToInt(CompactTrie.ValueCount::count).sum();
+            assertEquals(lastNames, trie.facets(prefix).getOrDefault(Contact.Field.LAST_NAME, 0));
+        }
+
+        Map<Contact.Field, Integer> facets = trie.facets("lee");
+        assertEquals(List.of(Contact.Field.LAST_NAME, Contact.Field.ADDRESS), List.copyOf(facets.keySet()));
+        assertEquals(trie.countWithPrefix("lee", Contact.Field.LAST_NAME), facets.get(Contact.Field.LAST_NAME));
+        assertEquals(trie.searchAllWithPrefix("lee", Contact.Field.ADDRESS).size(), facets.get(Contact.Field.ADDRESS));
+        assertEquals("lee", trie.topValues("lee", Contact.Field.ADDRESS, 1).get(0).value());
+        assertTrue(trie.facets("zz").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> trie.topValues("l", null, 1));
+    }
+
+    @Test
+    @DisplayName("Test suggestions rank completions by weight through inserts, deletes, bulk loads, and compaction")
+    void testSuggest() {
+        CompactTrie<Contact, Contact.Field> walking = // copies every node on an edit's path and deletes by walking
+                new CompactTrie<>(Arrays.asList(Contact.Field.values()), false, true);
+        String[] names = {"a", "ab", "abc", "abd", "abcd", "b", "ba", "bab", "abab"};
+        List<Contact> contacts = new ArrayList<>();
+        Random random = new Random(11);
+        for (int edit = 0; edit < 1500; edit++) {
+            if (contacts.size() < 5 || random.nextInt(3) > 0) {
+                Contact contact = new Contact(names[random.nextInt(1 + random.nextInt(names.length))], "x",
+                        "1234567890", "Home");
+                contacts.add(contact);
+                trie.insert(contact);
+                walking.insert(contact);
+            } else {
+                Contact contact = contacts.remove(random.nextInt(contacts.size()));
+                trie.delete(contact);
+                walking.delete(contact);
+            }
+            if (edit == 700) {
+                trie.snapshot();
+                trie.compact();
+            }
+            if (edit % 50 == 0) {
+                for (String prefix : List.of("", "a", "ab", "abc", "b", "z")) {
+                    List<String> expected = expectedSuggestions(contacts, prefix, 3);
+                    assertEquals(expected, trie.suggest(prefix, Contact.Field.FIRST_NAME, 3), prefix);
+                    assertEquals(expected, walking.suggest(prefix, Contact.Field.FIRST_NAME, 3), prefix);
+                }
+            }
+        }
+        CompactTrie<Contact, Contact.Field> loaded = new CompactTrie<>(Arrays.asList(Contact.Field.values()));
+        loaded.bulkLoad(contacts);
+        for (String prefix : names) {
+            assertEquals(expectedSuggestions(contacts, prefix, 5), loaded.suggest(prefix, Contact.Field.FIRST_NAME, 5));
+        }
+
+        trie.insert(new Contact("Home", "x", "1234567890", "Abc"));
+        assertEquals(List.of("home"), trie.suggest("h", null, 10)); // a first name and an address, suggested once
+        assertTrue(trie.suggest("a", Contact.Field.FIRST_NAME, 0).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> trie.suggest("a", null, -1));
+    }
+
+    // the k first names of contacts starting with prefix shared by the most contacts, ties in ascending order
+    private static List<String> expectedSuggestions(List<Contact> contacts, String prefix, int k) {
+        Map<String, Long> counts = contacts.stream().map(contact -> contact.getFirstName().toLowerCase())
+                .filter(name -> name.startsWith(prefix))
+                .collect(Collectors.groupingBy(name -> name, Collectors.counting()));
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(k)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    @Test
+    @DisplayName("Test streams return prefix matches lazily in key order, sequentially and in parallel")
+    void testStreamWithPrefix() {
+        List<Contact> contacts = new ArrayList<>();
+        for (char key = 'a'; key <= 'z'; key++) {
+            Contact contact = new Contact("x" + key, "Lorenz", "1234567890", "Home");
+            contacts.add(contact);
+            trie.insert(contact);
+        }
+
+        assertEquals(contacts, trie.streamWithPrefix("X", Contact.Field.FIRST_NAME).toList());
+        assertEquals(contacts, trie.streamWithPrefix("x", Contact.Field.FIRST_NAME).parallel().toList());
+        assertEquals(26, trie.streamWithPrefix("x", Contact.Field.FIRST_NAME).spliterator().estimateSize());
+        assertEquals(new HashSet<>(contacts), trie.streamWithPrefix("").collect(Collectors.toSet()));
+        assertEquals(26, trie.streamWithPrefix("").count()); // each contact once across all fields
+        assertEquals(List.of(contacts.get(2)), trie.streamAll("xc", Contact.Field.FIRST_NAME).toList());
+        assertEquals(0, trie.streamWithPrefix("y").count());
+    }
+
+    @Test
+    @DisplayName("Test concurrent searches always find entities while other entities are edited")
+    void testConcurrentSearches() throws InterruptedException {
+        trie = new CompactTrie<>(Arrays.asList(Contact.Field.values()), false, true);
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        trie.insert(michael);
+
+        // keep splitting and merging the nodes around "michael" while searching for it
+        AtomicBoolean isLost = new AtomicBoolean(false);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                Contact other = new Contact("Mich" + (char) ('a' + i % 26), "Lore", "123456789" + i % 10, "Ho");
+                trie.insert(other);
+                trie.delete(other);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            readers.add(new Thread(() -> {
+                while (writer.isAlive()) {
+                    Set<Contact> exact = trie.searchAll("michael", Contact.Field.FIRST_NAME);
+                    if (exact == null || !exact.contains(michael)
+                            || !trie.searchAllWithPrefix("mic", Contact.Field.FIRST_NAME).contains(michael)) {
+                        isLost.set(true);
+                    }
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertFalse(isLost.get(), "search missed an entity during an edit");
+        assertEquals(Set.of(michael), trie.searchAllWithPrefix("mic"));
+    }
+
+    @Test
+    @DisplayName("Test snapshots keep their results while the trie is edited")
+    void testSnapshot() {
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567890", "Home");
+        trie.insert(michael);
+        CompactTrie<Contact, Contact.Field> snapshot = trie.snapshot();
+
+        trie.insert(michelle); // splits the node shared with the snapshot
+        trie.delete(michael);
+
+        assertEquals(Set.of(michael), snapshot.searchAllWithPrefix("mich"));
+        assertEquals(Set.of(michael), snapshot.searchAll("lorenz"));
+        assertEquals(Set.of(michelle), trie.searchAllWithPrefix("mich"));
+        assertEquals(Set.of(michelle), trie.searchAll("lorenz"));
+        assertTrue(snapshot.isSnapshot());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.insert(michelle));
+    }
+
+    @Test
+    @DisplayName("Test an opened image is read in place and keeps each node it reaches")
+    void testOpenedImage(@TempDir Path dir) throws IOException {
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567890", "Home");
+        Contact mitch = new Contact("Mitch", "Lorenz", "1234567890", "Home");
+        List<Contact> contacts = List.of(michael, michelle, mitch);
+        trie.bulkLoad(contacts);
+        Path data = Files.writeString(dir.resolve("contacts.csv"), "contacts");
+        Path imagePath = dir.resolve("contacts.csv.idx");
+        TrieImage.write(imagePath, data, trie, contacts);
+
+        EntityOrdinals<Contact> ordinals = new EntityOrdinals<>();
+        contacts.forEach(ordinals::ordinalOf); // in file order, as the image's postings are
+        CompactTrie<Contact, Contact.Field> opened =
+                new CompactTrie<>(Arrays.asList(Contact.Field.values()), false, false, ordinals);
+        TrieImage image = TrieImage.open(imagePath, data, opened, contacts.size());
+        assertNotNull(image);
+        CompactTrieNode root = image.roots()[Contact.Field.FIRST_NAME.ordinal()];
+        CompactTrieNode mi = root.getChild('m');
+        assertSame(mi, root.getChild('m')); // created once, then kept
+        assertSame(mi, image.roots()[Contact.Field.FIRST_NAME.ordinal()].firstChild());
+        assertEquals(2, mi.partialLength());
+        assertEquals('i', mi.partialCharAt(1));
+        assertEquals("mi", mi.partial());
+        CompactTrieNode tch = mi.getChild('t');
+        assertTrue(tch.isWordEnd);
+        assertEquals(1, tch.dataSize());
+        assertTrue(tch.containsObject(2));
+        assertFalse(tch.containsObject(0));
+        assertEquals(2, tch.dataIterator().nextInt());
+        assertNotSame(tch.getData(), tch.getData()); // decoded only when asked for
+        assertNull(mi.getChild('x'));
+
+        opened.loadImage(image);
+        assertEquals(Set.of(michael, michelle), opened.searchAllWithPrefix("mich"));
+        assertEquals(mitch, opened.search("mitch", Contact.Field.FIRST_NAME));
+        assertEquals(3, opened.countWithPrefix("mi", Contact.Field.FIRST_NAME));
+        assertEquals(List.of(michael, michelle, mitch), opened.searchWithPrefix("m", Contact.Field.FIRST_NAME, 5, 0));
+
+        // entities missing from the data file are dropped from the postings, and from the counts and weights with them
+        TrieImage.write(imagePath, data, trie, List.of(michael, michelle));
+        EntityOrdinals<Contact> written = new EntityOrdinals<>();
+        List.of(michael, michelle).forEach(written::ordinalOf);
+        CompactTrie<Contact, Contact.Field> partial =
+                new CompactTrie<>(Arrays.asList(Contact.Field.values()), false, false, written);
+        partial.loadImage(TrieImage.open(imagePath, data, partial, 2));
+        assertEquals(2, partial.countWithPrefix("mi", Contact.Field.FIRST_NAME));
+        assertEquals(List.of(new CompactTrie.ValueCount("lorenz", 2)),
+                partial.topValues("", Contact.Field.LAST_NAME, 1));
+        assertEquals(List.of(michelle), partial.searchWithPrefix("mi", Contact.Field.FIRST_NAME, 5, 1));
+    }
+
+    @Test
+    @DisplayName("Test released ordinals are reused while snapshots still read the entities they indexed")
+    void testReleasedOrdinals() {
+        EntityOrdinals<Contact> ordinals = new EntityOrdinals<>();
+        trie = new CompactTrie<>(Arrays.asList(Contact.Field.values()), false, false, ordinals);
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567890", "Home");
+        Contact mitch = new Contact("Mitch", "Lorenz", "1234567890", "Home");
+        trie.insert(michael);
+        trie.insert(michelle);
+        CompactTrie<Contact, Contact.Field> snapshot = trie.snapshot();
+        EntityOrdinals<Contact> view = ordinals.snapshot();
+
+        trie.delete(michael);
+        assertTrue(ordinals.release(michael));
+        assertFalse(ordinals.release(michael));
+        assertNull(ordinals.get(0));
+        assertEquals(-1, ordinals.find(michael));
+        trie.insert(mitch); // takes the ordinal michael was released from
+        assertEquals(0, ordinals.find(mitch));
+        assertEquals(2, ordinals.size());
+        assertEquals(0, view.find(michael)); // released since the view was taken, found by identity
+        assertEquals(1, view.find(michelle));
+        assertEquals(-1, view.find(mitch));
+        assertEquals(-1, view.find(new Contact("Michael", "Lorenz", "1234567890", "Home")));
+
+        assertEquals(Set.of(michael, michelle), snapshot.searchAllWithPrefix("mi"));
+        assertTrue(snapshot.searchAll("lorenz").contains(michael));
+        assertFalse(snapshot.searchAll("lorenz").contains(mitch));
+        assertEquals(Set.of(michelle, mitch), trie.searchAllWithPrefix("mi"));
+        assertThrows(UnsupportedOperationException.class, () -> ordinals.snapshot().release(michelle));
+    }
+
+    @Test
+    @DisplayName("Test fuzzy search finds attributes within the allowed number of edits")
+    void testSearchFuzzy() {
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567899", "Home");
+        trie.insert(michael);
+        trie.insert(michelle);
+
+        assertEquals(Set.of(michael), trie.searchFuzzy("Micheal", 1, Contact.Field.FIRST_NAME)); // swapped letters
+        assertEquals(Set.of(michael, michelle), trie.searchFuzzy("Michale", 2, Contact.Field.FIRST_NAME));
+        assertEquals(Set.of(michael, michelle), trie.searchFuzzy("lorentz", 1));
+        assertEquals(Set.of(michael), trie.searchFuzzy(CharBuffer.wrap("Micheal".toCharArray()), 1)); // any sequence
+        assertTrue(trie.searchFuzzy("Micheal", 0).isEmpty());
+        assertTrue(trie.searchFuzzy("Micheal", 1, Contact.Field.LAST_NAME).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> trie.searchFuzzy("Michael", -1));
+    }
+
+    @Test
+    @DisplayName("Test metrics listener tracks nodes, keys, splits, and merges")
+    void testMetricsListener() {
+        TrieMetrics<Contact.Field> metrics = new TrieMetrics<>();
+        trie.setListener(metrics);
+        Contact michael = new Contact("Michael", "Michael", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567890", "Home");
+        trie.insert(michael);
+        assertEquals(4, metrics.getNodeCount()); // "michael" for each name field, "1234567890", "home"
+        assertEquals(4, metrics.getKeyCount());
+        assertEquals(1, metrics.getLargestDataSetSize());
+
+        trie.insert(michelle); // splits the first name "michael" into "mich" -> "ael" and "elle"
+        assertEquals(1, metrics.getSplits());
+        assertEquals(7, metrics.getNodeCount());
+        assertEquals(6, metrics.getKeyCount());
+        assertEquals(2, metrics.getMaxDepth());
+        assertEquals(2, metrics.getLargestDataSetSize()); // both share the phone number
+
+        trie.delete(michelle); // merges "mich" with "ael"
+        assertEquals(1, metrics.getMerges());
+        assertEquals(4, metrics.getNodeCount());
+        assertEquals(4, metrics.getKeyCount());
+    }
+
+    @Test
+    @DisplayName("Test each field keeps its own keys and key normalizer")
+    void testFieldNormalizers() {
+        trie.setKeyNormalizer(Contact.Field.PHONE_NUMBER, KeyNormalizer.DIGITS);
+        trie.setKeyNormalizer(Contact.Field.LAST_NAME, KeyNormalizer.IDENTITY);
+        Contact jon = new Contact("Jon", "Snow", "1234567890", "Snow Road");
+        trie.insert(jon);
+
+        assertEquals(Set.of(jon), trie.searchAll("(123) 456-7890", Contact.Field.PHONE_NUMBER));
+        assertEquals(Set.of(jon), trie.searchAllWithPrefix("123-4", Contact.Field.PHONE_NUMBER));
+        assertEquals(Set.of(jon), trie.searchAllWithPrefix("Sn", Contact.Field.LAST_NAME));
+        assertTrue(trie.searchAllWithPrefix("sn", Contact.Field.LAST_NAME).isEmpty()); // case-sensitive
+        assertEquals(Set.of(jon), trie.searchAllWithPrefix("sn", Contact.Field.ADDRESS));
+        assertEquals(1, trie.countWithPrefix("sn"));
+        assertSame(KeyNormalizer.DIGITS, trie.getKeyNormalizer(Contact.Field.PHONE_NUMBER));
+        String digits = "1234567890";
+        assertSame(digits, KeyNormalizer.DIGITS.normalize(digits)); // nothing to drop, nothing copied
+        assertEquals("5551234", KeyNormalizer.DIGITS.normalize("(555) 123-4\u0664"));
+        assertThrows(IllegalStateException.class,
+                () -> trie.setKeyNormalizer(Contact.Field.FIRST_NAME, KeyNormalizer.IDENTITY));
+    }
+
+    @Test
+    @DisplayName("Test lookups accept any character sequence")
+    void testCharSequenceLookups() {
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567891", "Home");
+        trie.insert(michael);
+        trie.insert(michelle);
+
+        StringBuilder typed = new StringBuilder("Mich"); // text typed so far
+        assertEquals(2, trie.countWithPrefix(typed, Contact.Field.FIRST_NAME));
+        typed.append("ae");
+        assertEquals(List.of(michael), trie.searchWithPrefix(typed, Contact.Field.FIRST_NAME, 10, 0));
+
+        char[] buffer = "xxmichellexx".toCharArray();
+        assertEquals(michelle, trie.search(CharBuffer.wrap(buffer, 2, 8), Contact.Field.FIRST_NAME));
+        assertEquals(Set.of(michael, michelle), trie.searchAllWithPrefix(CharBuffer.wrap(buffer, 2, 3)));
+        assertEquals(1, trie.countWithPrefix(CharBuffer.wrap(buffer, 2, 6)));
+    }
+
+    @Test
+    @DisplayName("Test a prefix cursor follows typing, backspaces, and edits of the trie")
+    void testPrefixCursor() {
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Home");
+        Contact michelle = new Contact("Michelle", "Lorenz", "1234567891", "Home");
+        Contact mike = new Contact("Mike", "Ross", "1234567892", "Office");
+        trie.insert(michael);
+        trie.insert(michelle);
+        trie.insert(mike);
+
+        CompactTrie<Contact, Contact.Field>.PrefixCursor cursor = trie.cursor(Contact.Field.FIRST_NAME);
+        assertEquals(3, cursor.count()); // an empty query matches every entity
+        for (char c : "MICHAEL".toCharArray()) { // each keystroke matches the same entities as a prefix search
+            cursor.append(c);
+            assertEquals(trie.searchAllWithPrefix(cursor.query(), Contact.Field.FIRST_NAME), cursor.results());
+            assertEquals(trie.countWithPrefix(cursor.query(), Contact.Field.FIRST_NAME), cursor.count());
+        }
+        assertEquals(List.of(michael), cursor.stream().toList());
+        cursor.append('x');
+        assertEquals(0, cursor.count());
+        assertTrue(cursor.backspace()); // "MICHAEL"
+        assertTrue(cursor.backspace());
+        assertTrue(cursor.backspace());
+        assertEquals(List.of(michael), cursor.page(10, 0)); // "MICHA", inside the partial prefix of one name
+        assertTrue(cursor.backspace()); // "MICH", the end of the partial prefix the names share
+        assertEquals(List.of(michael, michelle), cursor.page(10, 0));
+        assertEquals(List.of(michelle), cursor.page(10, 1));
+        cursor.setQuery("Mik");
+        assertEquals(Set.of(mike), cursor.results());
+
+        // an edit invalidates the cursor's path, which is walked again from the new root
+        Contact mika = new Contact("Mika", "Hakkinen", "1234567893", "Track");
+        trie.insert(mika);
+        assertEquals(Set.of(mike, mika), cursor.results());
+        trie.delete(mike);
+        trie.delete(mika);
+        assertEquals(0, cursor.count());
+        cursor.setQuery("");
+        assertFalse(cursor.backspace());
+        assertEquals(2, cursor.count());
+
+        // without a field, every field is followed
+        CompactTrie<Contact, Contact.Field>.PrefixCursor everyField = trie.cursor(null).append("lo");
+        assertEquals(Set.of(michael, michelle), everyField.results());
+        assertEquals(2, everyField.append("renz").count());
+    }
+
+    @Test
+    @DisplayName("Test a prefix cursor narrows its last results as its query grows, and suggests from its nodes")
+    void testPrefixCursorNarrowing() {
+        trie = new CompactTrie<>(Arrays.asList(Contact.Field.values()));
+        trie.setKeyNormalizer(Contact.Field.PHONE_NUMBER, KeyNormalizer.DIGITS);
+        trie.setKeyTokenizer(Contact.Field.ADDRESS, KeyTokenizer.WORDS);
+        Contact michael = new Contact("Michael", "Lorenz", "1234567890", "Main Street");
+        Contact michelle = new Contact("Michelle", "Lorenz", "5234567891", "Mill Road");
+        Contact mike = new Contact("Mike", "Ross", "1234567892", "Market Street");
+        trie.insert(michael);
+        trie.insert(michelle);
+        trie.insert(mike);
+
+        // each keystroke narrows the entities returned for the last one to those matching the longer query
+        CompactTrie<Contact, Contact.Field>.PrefixCursor cursor = trie.cursor(null);
+        for (String query : List.of("m", "mi", "mic", "mich", "miche", "michel", "michelx", "1", "12", "x", "x1")) {
+            cursor.setQuery(query);
+            assertEquals(trie.searchAllWithPrefix(query, null), cursor.results(), query);
+            assertEquals(cursor.results(), cursor.results(), query); // the same nodes return the same entities
+        }
+        CompactTrie<Contact, Contact.Field>.PrefixCursor address = trie.cursor(Contact.Field.ADDRESS);
+        assertEquals(3, address.append("m").count()); // an address is counted once for both of its words
+        assertEquals(Set.of(michael, mike), address.append("a").results());
+        assertEquals(1, address.append("r").count());
+        assertEquals(2, address.setQuery("street").count());
+
+        // an edit is seen even when the query only grows
+        cursor.setQuery("mi");
+        assertEquals(Set.of(michael, michelle, mike), cursor.results());
+        Contact mika = new Contact("Mika", "Hakkinen", "1234567893", "Track");
+        trie.insert(mika);
+        assertEquals(Set.of(mike, mika), cursor.append("k").results());
+
+        CompactTrie<Contact, Contact.Field>.PrefixCursor firstName = trie.cursor(Contact.Field.FIRST_NAME).append("mi");
+        assertEquals(List.of(mike, mika), firstName.page(2, 0, true));
+        assertEquals(trie.suggest("mi", Contact.Field.FIRST_NAME, 3), firstName.suggest(3));
+        assertEquals(List.of("mika", "mike"), firstName.append("k").suggest(5));
+        assertEquals(trie.suggest("mi", null, 10), cursor.setQuery("mi").suggest(10));
+        assertThrows(IllegalArgumentException.class, () -> firstName.suggest(-1));
+    }
+
+    @Test
+    @DisplayName("Test compaction removes nodes left behind by deletes, on demand, automatically, and in the background")
+    void testCompaction() throws Exception {
+        Contact jon = new Contact("Jon", "Snow", "1234567890", "The Wall");
+        Contact jonah = new Contact("Jonah", "Hill", "1234567899", "Hollywood");
+        TrieMetrics<Contact.Field> metrics = new TrieMetrics<>();
+        trie.setListener(metrics);
+        trie.insert(jon);
+        trie.insert(jonah);
+        trie.delete(jon); // "jon" keeps its "ah" child, but no data
+
+        CompactTrie.Fragmentation before = trie.fragmentation();
+        assertEquals(5, before.nodeCount());
+        assertEquals(1, before.deadNodes());
+        assertEquals(1, before.emptyDataLists());
+        CompactTrie<Contact, Contact.Field> snapshot = trie.snapshot();
+        assertTrue(trie.compact());
+
+        CompactTrie.Fragmentation after = trie.fragmentation();
+        assertEquals(new CompactTrie.Fragmentation(4, 0, 0, 7.0), after);
+        assertEquals(4, metrics.getNodeCount());
+        assertEquals(1, metrics.getCompactions());
+        assertEquals(Set.of(jonah), trie.searchAllWithPrefix("jo", Contact.Field.FIRST_NAME));
+        assertEquals(1, trie.countWithPrefix("jonah"));
+        assertEquals(5, snapshot.fragmentation().nodeCount()); // snapshots keep the trees they were taken with
+        trie.insert(jon); // compacted nodes are split and edited like any other
+        assertEquals(Set.of(jon, jonah), trie.searchAllWithPrefix("jo", Contact.Field.FIRST_NAME));
+
+        // a threshold compacts once enough nodes are left behind
+        // a threshold compacts once enough nodes are left behind, rebuilding the trees on another thread and
+        // publishing them with the next edit
+        trie.setCompactionThreshold(1);
+        trie.delete(jon);
+        assertTrue(trie.compactInBackground().get()); // the compaction the delete started, or one just like it
+        assertEquals(1, trie.fragmentation().deadNodes()); // searches read the trees as they were until the next edit
+        Contact ned = new Contact("Ned", "Stark", "1112223333", "Winterfell");
+        trie.insert(ned);
+        assertEquals(0, trie.fragmentation().deadNodes());
+        assertEquals(2, metrics.getCompactions());
+        assertEquals(Set.of(jonah), trie.searchAllWithPrefix("jo", Contact.Field.FIRST_NAME));
+        assertEquals(ned, trie.search("ned"));
+        assertThrows(IllegalArgumentException.class, () -> trie.setCompactionThreshold(-1));
+
+        // rebuilt trees wait for the next edit through calls that change nothing
+        trie.insert(jon);
+        trie.delete(jon);
+        assertTrue(trie.compactInBackground().get());
+        trie.snapshot(); // not an edit
+        trie.insert(jon);
+        trie.delete(jon);
+        assertEquals(3, metrics.getCompactions()); // published before the insert changed the trees
+        assertTrue(trie.compactInBackground().get()); // started by the delete, rebuilt from the trees it left
+        trie.insert(jon);
+        assertEquals(4, metrics.getCompactions());
+        assertEquals(Set.of(jon, jonah), trie.searchAllWithPrefix("jo", Contact.Field.FIRST_NAME));
+        trie.setCompactionThreshold(0);
+        trie.delete(jon);
+        assertTrue(trie.compactInBackground().get());
+        assertTrue(trie.compact()); // replaces the trees rebuilt in the background, which no edit publishes
+        trie.insert(jon);
+        assertEquals(5, metrics.getCompactions());
+        assertEquals(Set.of(jon, jonah), trie.searchAllWithPrefix("jo", Contact.Field.FIRST_NAME));
+        assertThrows(UnsupportedOperationException.class, () -> trie.snapshot().compactInBackground());
+
+        CompactTrie<Contact, Contact.Field> concurrent =
+                new CompactTrie<>(Arrays.asList(Contact.Field.values()), false, true);
+        concurrent.insert(jon);
+        concurrent.insert(jonah);
+        concurrent.delete(jon);
+        assertTrue(concurrent.compactInBackground().get());
+        assertEquals(0, concurrent.fragmentation().deadNodes());
+        assertEquals(jonah, concurrent.search("jonah"));
+        assertThrows(UnsupportedOperationException.class, () -> concurrent.snapshot().compact());
+    }
+
+    @Test
+    @DisplayName("Test the footprint estimates each field's tree and is only measured again after an edit")
+    void testFootprint() {
+        assertEquals(48, HeapSize.string("jon")); // 24 byte string and 19 byte array, each aligned to 8
+        assertEquals(56, HeapSize.string("j\u00f6n\u0101h")); // two bytes per character once one needs two
+        trie.insert(new Contact("Jon", "Snow", "1234567890", "The Wall"));
+        trie.insert(new Contact("Jonah", "Hill", "1234567899", "Hollywood"));
+
+        Map<Contact.Field, CompactTrie.FieldFootprint> footprint = trie.footprint();
+        assertEquals(List.of(Contact.Field.values()), List.copyOf(footprint.keySet()));
+        CompactTrie.FieldFootprint firstNames = footprint.get(Contact.Field.FIRST_NAME);
+        assertEquals(2, firstNames.nodeCount()); // "jon" and its "ah" child
+        assertEquals(HeapSize.string("") + HeapSize.string("jon") + HeapSize.string("ah"), firstNames.edgeBytes());
+        assertTrue(firstNames.nodeBytes() > 0 && firstNames.postingBytes() > 0 && firstNames.keyBytes() > 0);
+        assertEquals(firstNames.nodeBytes() + firstNames.edgeBytes() + firstNames.postingBytes()
+                + firstNames.keyBytes(), firstNames.totalBytes());
+        assertSame(footprint, trie.footprint()); // unchanged trie, nothing walked
+        trie.snapshot();
+        trie.delete(new Contact("Ned", "Stark", "1112223333", "Winterfell")); // never indexed
+        assertSame(footprint, trie.footprint()); // neither changed a node
+
+        trie.insert(new Contact("Ned", "Stark", "1112223333", "Winterfell"));
+        assertNotSame(footprint, trie.footprint());
+        assertEquals(3, trie.footprint().get(Contact.Field.FIRST_NAME).nodeCount());
+        assertEquals(0, trie.snapshot().footprint().get(Contact.Field.FIRST_NAME).keyBytes()); // snapshots cache none
+    }
+
+    @Test
+    @DisplayName("Test keys are folded once and deleted with the keys they were indexed with")
+    void testKeyFolding() {
+        assertEquals("jose de la cruz", KeyNormalizer.FOLD.normalize("  Jos\u00e9  de\tla CRUZ "));
+        String folded = "already folded";
+        assertSame(folded, KeyNormalizer.FOLD.normalize(folded)); // nothing to convert, nothing allocated
+
+        Contact jose = new Contact("Jos\u00e9", "Nu\u00f1ez", "1234567890", "Calle  Mayor");
+        trie.insert(jose);
+        assertEquals(Set.of(jose), trie.searchAll("jose", Contact.Field.FIRST_NAME));
+        assertEquals(Set.of(jose), trie.searchAllWithPrefix("NUN"));
+        assertEquals(Set.of(jose), trie.searchAll("calle mayor"));
+
+        // changed without an update, the entity is still removed under the keys it was indexed with
+        Entity<Contact.Field> entity = jose;
+        entity.updateField(Contact.Field.FIRST_NAME, "Pepe");
+        trie.delete(jose);
+        assertNull(trie.searchAll("jose"));
+        assertEquals(0, trie.countWithPrefix(""));
+    }
+
+    @Test
+    @DisplayName("Test tokenized fields index each word and match every or any query token")
+    void testTokenizedSearch() {
+        trie.setKeyTokenizer(Contact.Field.ADDRESS, KeyTokenizer.WORDS);
+        Contact jon = new Contact("Jon", "Snow", "1234567890", "Snowy Porch, Snow Lane");
+        Contact arya = new Contact("Arya", "Stark", "0000000000", "Porch Street");
+        Contact sam = new Contact("Sam", "Tarly", "5555555555", "The Wall");
+        trie.bulkLoad(List.of(jon, arya, sam));
+
+        assertEquals(Set.of(jon), trie.searchAllTokens("porch snow", Contact.Field.ADDRESS));
+        assertEquals(Set.of(jon, arya), trie.searchAllTokens("PORCH", Contact.Field.ADDRESS));
+        assertTrue(trie.searchAllTokens("porch wall", Contact.Field.ADDRESS).isEmpty());
+        assertEquals(Set.of(jon, arya, sam), trie.searchAnyToken("wall porch", Contact.Field.ADDRESS));
+        assertEquals(Set.of(jon), trie.searchAllTokens("jon porch", null)); // tokens may match different fields
+        assertTrue(trie.searchAllTokens("  ", null).isEmpty());
+
+        // jon is indexed under "snowy" and "snow" but counted and returned once
+        assertEquals(1, trie.countWithPrefix("sn", Contact.Field.ADDRESS));
+        assertEquals(List.of(jon), trie.streamWithPrefix("sn", Contact.Field.ADDRESS).toList());
+        assertEquals(List.of(jon), trie.searchWithPrefix("sn", Contact.Field.ADDRESS, 10, 0));
+        assertEquals(List.of(arya), trie.searchWithPrefix("s", Contact.Field.ADDRESS, 10, 1));
+
+        Entity<Contact.Field> entity = jon;
+        entity.updateField(Contact.Field.ADDRESS, "Winterfell");
+        trie.update(jon, Contact.Field.ADDRESS, "Snowy Porch, Snow Lane");
+        assertEquals(Set.of(arya), trie.searchAllWithPrefix("porch", Contact.Field.ADDRESS));
+        assertEquals(Set.of(jon), trie.searchAll("winterfell"));
+        trie.delete(arya);
+        assertTrue(trie.searchAnyToken("porch street", Contact.Field.ADDRESS).isEmpty());
+        assertSame(KeyTokenizer.WORDS, trie.getKeyTokenizer(Contact.Field.ADDRESS));
+        assertThrows(IllegalStateException.class,
+                () -> trie.setKeyTokenizer(Contact.Field.ADDRESS, KeyTokenizer.WHOLE_VALUE));
+    }
+
+    @Test
+    @DisplayName("Test updating a field re-indexes the entity under its new value")
+    void testUpdate() {
+        Contact jon = new Contact("Jon", "Snow", "1234567890", "The Wall");
+        trie.insert(jon);
+
+        Entity<Contact.Field> entity = jon;
+        entity.updateField(Contact.Field.LAST_NAME, "Targaryen");
+        trie.update(jon, Contact.Field.LAST_NAME, "Snow");
+
+        assertNull(trie.searchAll("snow"));
+        assertEquals(Set.of(jon), trie.searchAll("targaryen", Contact.Field.LAST_NAME));
+    }
+
+    @Test
+    @DisplayName("Test deletes through cached nodes leave the same trees as deletes walking from the root")
+    void testDeleteThroughCachedNodes() {
+        // a concurrent trie copies every node on an edit's path, so it never deletes through cached nodes
+        CompactTrie<Contact, Contact.Field> walking =
+                new CompactTrie<>(Arrays.asList(Contact.Field.values()), false, true);
+        TrieMetrics<Contact.Field> metrics = new TrieMetrics<>();
+        trie.setListener(metrics);
+        for (CompactTrie<Contact, Contact.Field> each : List.of(trie, walking)) {
+            each.setKeyTokenizer(Contact.Field.ADDRESS, KeyTokenizer.WORDS); // several keys per entity
+        }
+        String[] names = {"a", "ab", "abc", "abd", "abcd", "b", "ba", "bab", "abab"};
+        List<Contact> contacts = new ArrayList<>();
+        Random random = new Random(42);
+        for (int edit = 0; edit < 2000; edit++) {
+            int action = random.nextInt(contacts.size() < 5 ? 1 : 4);
+            if (action == 0) {
+                Contact contact = new Contact(names[random.nextInt(names.length)], "x",
+                        "1234567890", names[random.nextInt(names.length)] + " " + names[random.nextInt(names.length)]);
+                contacts.add(contact);
+                trie.insert(contact);
+                walking.insert(contact);
+            } else if (action == 1) {
+                Contact contact = contacts.remove(random.nextInt(contacts.size()));
+                trie.delete(contact);
+                walking.delete(contact);
+            } else {
+                Contact contact = contacts.get(random.nextInt(contacts.size()));
+                Contact.Field field = action == 2 ? Contact.Field.FIRST_NAME : Contact.Field.ADDRESS;
+                String oldValue = contact.getFieldValue(field);
+                Entity<Contact.Field> entity = contact;
+                entity.updateField(field, names[random.nextInt(names.length)]);
+                trie.update(contact, field, oldValue);
+                walking.update(contact, field, oldValue);
+            }
+            if (edit == 1000) {
+                trie.snapshot(); // older nodes are copied before edits, as are their cached handles
+                trie.compact();
+                walking.compact();
+            }
+            assertEquals(walking.fragmentation(), trie.fragmentation());
+        }
+        for (String prefix : names) {
+            assertEquals(walking.countWithPrefix(prefix), trie.countWithPrefix(prefix));
+            assertEquals(walking.searchAllWithPrefix(prefix), trie.searchAllWithPrefix(prefix));
+        }
+        assertEquals(trie.fragmentation().nodeCount(), metrics.getNodeCount());
+    }
+}
@@ -0,0 +1,89 @@
+package edu.snhu.dayplanner.service;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code PostingList} holding entity ordinals as sorted arrays and bitmaps.
+ */
+class PostingListTest
+{
+    // Returns the ordinals of list in iteration order
+    private static List<Integer> ordinalsOf(PostingList list) {
+        List<Integer> ordinals = new ArrayList<>();
+        list.iterator().forEachRemaining((Integer ordinal) -> ordinals.add(ordinal));
+        return ordinals;
+    }
+
+    // Returns a list holding every ordinal from start up to end, stepping by step
+    private static PostingList range(int start, int end, int step) {
+        PostingList list = new PostingList();
+        for (int ordinal = start; ordinal < end; ordinal += step) {
+            list.add(ordinal);
+        }
+        return list;
+    }
+
+    @Test
+    @DisplayName("Test sparse lists keep ordinals sorted and distinct")
+    void testSparse() {
+        PostingList list = new PostingList(7);
+        assertTrue(list.add(3));
+        assertFalse(list.add(7));
+        assertTrue(list.add(11));
+        assertTrue(list.remove(7));
+        assertFalse(list.remove(7));
+
+        assertEquals(List.of(3, 11), ordinalsOf(list));
+        assertEquals(2, list.size());
+        assertFalse(list.isDense());
+        assertTrue(list.contains(11));
+        assertFalse(list.contains(7));
+    }
+
+    @Test
+    @DisplayName("Test lists become bitmaps when dense and arrays again when sparse")
+    void testLayoutSwitch() {
+        PostingList list = range(1000, 1200, 1);
+        assertTrue(list.isDense());
+        assertEquals(200, list.size());
+        assertTrue(list.add(5)); // grows the bitmap downward
+        assertTrue(list.contains(5));
+        assertEquals(IntStream.concat(IntStream.of(5), IntStream.range(1000, 1200)).boxed().toList(),
+                ordinalsOf(list));
+
+        for (int ordinal = 1000; ordinal < 1190; ordinal++) {
+            list.remove(ordinal);
+        }
+        assertFalse(list.isDense());
+        assertEquals(IntStream.concat(IntStream.of(5), IntStream.range(1190, 1200)).boxed().toList(),
+                ordinalsOf(list));
+    }
+
+    @Test
+    @DisplayName("Test and/or combine sparse and dense lists")
+    void testSetOperations() {
+        PostingList evens = range(0, 512, 2);
+        PostingList triples = range(0, 512, 3);
+        PostingList few = new PostingList(6);
+        few.add(7);
+        few.add(9000);
+
+        assertEquals(IntStream.range(0, 512).filter(i -> i % 6 == 0).boxed().toList(),
+                ordinalsOf(PostingList.and(evens, triples)));
+        assertEquals(List.of(6), ordinalsOf(PostingList.and(few, evens)));
+        assertEquals(List.of(6), ordinalsOf(PostingList.and(evens, few)));
+        assertEquals(IntStream.range(0, 512).filter(i -> i % 2 == 0 || i % 3 == 0).boxed().toList(),
+                ordinalsOf(PostingList.or(evens, triples)));
+
+        PostingList union = PostingList.or(few, evens);
+        assertEquals(258, union.size());
+        assertTrue(union.contains(7) && union.contains(9000) && union.contains(510));
+        assertTrue(PostingList.and(few, new PostingList()).isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package edu.snhu.dayplanner.service;
+
+import edu.snhu.dayplanner.service.taskservice.Task;
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code SubstringIndex} finding {@code Task} entities by text anywhere in their attributes.
+ */
+class SubstringIndexTest
+{
+    SubstringIndex<Task, Task.Field> index;
+    Task lasagna;
+    Task laundry;
+
+    // Initialize an index of every task field holding two tasks before each test
+    @BeforeEach
+    void setUp() {
+        index = new SubstringIndex<>(Arrays.asList(Task.Field.values()));
+        lasagna = new Task("Dinner", "Cook some lasagna");
+        laundry = new Task("Chores", "Do the laundry");
+        index.add(lasagna);
+        index.add(laundry);
+    }
+    // Reset the unique id incrementer to 0 after each test
+    @AfterEach
+    void tearDown() {
+        IdGenerator.resetCounter();
+    }
+
+    @Test
+    @DisplayName("Test searches find text anywhere in attributes, ignoring case")
+    void testSearchContaining() {
+        assertEquals(Set.of(lasagna), index.searchContaining("LASAGNA"));
+        assertEquals(Set.of(lasagna, laundry), index.searchContaining("la", Task.Field.DESCRIPTION));
+        assertEquals(Set.of(laundry), index.searchContaining("ore"));
+        assertEquals(Set.of(lasagna), index.searchContaining("k s"));
+        assertTrue(index.searchContaining("la", Task.Field.NAME).isEmpty());
+        assertTrue(index.searchContaining("lasagnas").isEmpty());
+
+        index.add(new Task("Banana", "Buy fruit"));
+        assertTrue(index.searchContaining("nanan").isEmpty()); // every gram matches "banana" but the text does not
+    }
+
+    @Test
+    @DisplayName("Test deleted and updated attributes are no longer found")
+    void testDeleteAndUpdate() {
+        index.delete(laundry);
+        assertTrue(index.searchContaining("laundry").isEmpty());
+
+        Entity<Task.Field> entity = lasagna;
+        entity.updateField(Task.Field.DESCRIPTION, "Bake a pie");
+        index.update(lasagna, Task.Field.DESCRIPTION, "Cook some lasagna");
+        assertTrue(index.searchContaining("lasagna").isEmpty());
+        assertEquals(Set.of(lasagna), index.searchContaining("pi"));
+    }
+}